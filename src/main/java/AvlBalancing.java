@@ -0,0 +1,123 @@
+/**
+ * AVL balancing.  The rank of a node is the height of its subtree,
+ * counting a leaf as 1, and the heights of the two subtrees of any node
+ * differ by at most one.
+ *
+ * <p>After an update the heights are recomputed going up from the changed
+ * node, rotating wherever the two sides differ by two.  Insertion stops
+ * at the first rotation or unchanged height; removal may rotate at every
+ * level on the way to the root.</p>
+ */
+final class AvlBalancing implements BalancingPolicy {
+
+    public <E> int afterInsertion(BalancedSearchTree<E> tree, BalancedSearchTree.Node<E> node) {
+        tree.setRank(node, 1);
+        int iterations = 0;
+        for (BalancedSearchTree.Node<E> n = BalancedSearchTree.parentNode(node); n != null;
+                n = BalancedSearchTree.parentNode(n)) {
+            iterations++;
+            int balance = balanceOf(n);
+            if (balance > 1 || balance < -1) {
+                // The rotation brings the subtree back to its height
+                // before the insertion.
+                rebalance(tree, n);
+                break;
+            }
+            if (!updateHeight(tree, n)) {
+                break;
+            }
+        }
+        return iterations;
+    }
+
+    public <E> int afterRemoval(BalancedSearchTree<E> tree, BalancedSearchTree.Node<E> removed,
+                                BalancedSearchTree.Node<E> parent, boolean left) {
+        int iterations = 0;
+        for (BalancedSearchTree.Node<E> n = parent; n != null; n = BalancedSearchTree.parentNode(n)) {
+            iterations++;
+            int height = n.rank;
+            int balance = balanceOf(n);
+            if (balance > 1 || balance < -1) {
+                n = rebalance(tree, n);
+            } else {
+                updateHeight(tree, n);
+            }
+            if (n.rank == height) {
+                break;
+            }
+        }
+        return iterations;
+    }
+
+    public <E> boolean isBalanced(BalancedSearchTree.Node<E> root) {
+        return height(root) >= 0;
+    }
+
+    /**
+     * Returns the height of the subtree, or -1 if some node's rank is not
+     * its height or its sides differ by more than one.
+     */
+    private static <E> int height(BalancedSearchTree.Node<E> n) {
+        if (n == null) {
+            return 0;
+        }
+        int left = height(BalancedSearchTree.leftNode(n));
+        int right = height(BalancedSearchTree.rightNode(n));
+        if (left < 0 || right < 0 || Math.abs(left - right) > 1
+                || n.rank != 1 + Math.max(left, right)) {
+            return -1;
+        }
+        return n.rank;
+    }
+
+    /**
+     * Rotates at a node whose sides differ by two, first rotating the
+     * taller child if its inner subtree is the taller one.  Returns the
+     * new root of the subtree.
+     */
+    private static <E> BalancedSearchTree.Node<E> rebalance(BalancedSearchTree<E> tree,
+                                                           BalancedSearchTree.Node<E> n) {
+        boolean leftHeavy = balanceOf(n) > 0;
+        BalancedSearchTree.Node<E> child = BalancedSearchTree.childOf(n, leftHeavy);
+        if (heightOf(BalancedSearchTree.childOf(child, !leftHeavy))
+                > heightOf(BalancedSearchTree.childOf(child, leftHeavy))) {
+            rotate(tree, child, leftHeavy);
+        }
+        return rotate(tree, n, !leftHeavy);
+    }
+
+    /**
+     * Rotates and recomputes the heights of the two nodes that moved,
+     * lower one first.  Returns the node that moved up.
+     */
+    private static <E> BalancedSearchTree.Node<E> rotate(BalancedSearchTree<E> tree,
+                                                        BalancedSearchTree.Node<E> n, boolean left) {
+        BalancedSearchTree.Node<E> top = tree.rotate(n, left);
+        updateHeight(tree, n);
+        updateHeight(tree, top);
+        return top;
+    }
+
+    /**
+     * Recomputes the height of a node from its children's.  Returns
+     * whether it changed.
+     */
+    private static <E> boolean updateHeight(BalancedSearchTree<E> tree,
+                                            BalancedSearchTree.Node<E> n) {
+        int height = 1 + Math.max(heightOf(BalancedSearchTree.leftNode(n)),
+                heightOf(BalancedSearchTree.rightNode(n)));
+        if (height == n.rank) {
+            return false;
+        }
+        tree.setRank(n, height);
+        return true;
+    }
+
+    private static <E> int balanceOf(BalancedSearchTree.Node<E> n) {
+        return heightOf(BalancedSearchTree.leftNode(n)) - heightOf(BalancedSearchTree.rightNode(n));
+    }
+
+    private static int heightOf(BalancedSearchTree.Node<?> n) {
+        return n == null ? 0 : n.rank;
+    }
+}
@@ -0,0 +1,631 @@
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An in-memory B+ tree set, with the add, remove and contains contract
+ * of BinarySearchTree: items are ordered by a comparator (or their
+ * natural order), must be distinct according to it, and an add of an
+ * item equal to one already present overwrites it.
+ *
+ * <p>A binary tree of n items takes about log2(n) dependent loads per
+ * lookup, and on a tree much larger than the cache most of them miss.
+ * Here each node holds up to order items in a sorted array, so a lookup
+ * visits only log_order(n) nodes, and the binary search within a node
+ * reads its array from a few adjacent cache lines.  The default order
+ * of 64 puts a node's references in four 64-byte lines.</p>
+ *
+ * <p>Items are kept only in the leaves, which are linked in ascending
+ * order, so iteration and range scans walk along the leaves without
+ * going back up the tree.  Inner nodes hold copies of items as
+ * separators: every item below child i is less than separator i, and
+ * every item below child i + 1 is greater than or equal to it.  Every
+ * node but the root is at least half full.  Iterators are fail-fast
+ * like BinarySearchTree's.</p>
+ */
+public class BPlusTree<E> extends AbstractSet<E> {
+
+    public static final int DEFAULT_ORDER = 64;
+
+    /**
+     * A node's keys: the items of a leaf, or the separators of an inner
+     * node.  The arrays have one slot more than a node may keep, so that
+     * an insertion can overflow a node before it is split.
+     */
+    private abstract static class Node {
+        final Object[] keys;
+        int count;
+
+        Node(int order) {
+            keys = new Object[order + 1];
+        }
+    }
+
+    private static final class Leaf extends Node {
+        Leaf previous;
+        Leaf next;
+
+        Leaf(int order) {
+            super(order);
+        }
+    }
+
+    private static final class Inner extends Node {
+        final Node[] children;
+
+        Inner(int order) {
+            super(order);
+            children = new Node[order + 2];
+        }
+    }
+
+    private final Comparator<E> comparator;
+
+    /**
+     * Most keys a node may keep, and fewest a node other than the root
+     * may keep.
+     */
+    private final int order;
+    private final int minimum;
+
+    private Node root;
+
+    /**
+     * Leftmost leaf, where iteration starts.
+     */
+    private Leaf head;
+
+    private int size = 0;
+
+    /**
+     * Number of structural modifications, used by iterators to detect
+     * concurrent modification.
+     */
+    private int modCount = 0;
+
+    // Results of insert and remove below the root, to save allocating
+    // an object to return them in.
+    private Object separator;
+    private boolean changed;
+
+    /**
+     * Constructs an empty tree that can only accept Comparables as items.
+     */
+    public BPlusTree() {
+        this(null);
+    }
+
+    /**
+     * Constructs an empty tree that orders its items according to the
+     * given comparator.
+     */
+    public BPlusTree(Comparator<E> c) {
+        this(c, DEFAULT_ORDER);
+    }
+
+    /**
+     * Constructs an empty tree that orders its items according to the
+     * given comparator and keeps up to order items in a node.
+     *
+     * @exception IllegalArgumentException if the order is less than 3.
+     */
+    public BPlusTree(Comparator<E> c, int order) {
+        if (order < 3) {
+            throw new IllegalArgumentException("Order must be at least 3: " + order);
+        }
+        comparator = c;
+        this.order = order;
+        minimum = order / 2;
+        clear();
+    }
+
+    /**
+     * Returns the comparator used to order the items in the tree, or
+     * null if they are in their natural order.
+     */
+    public Comparator<E> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Returns the most items a node may keep.
+     */
+    public int order() {
+        return order;
+    }
+
+    /**
+     * Returns the number of items in the tree.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether or not the tree contains an object with the given
+     * value.
+     */
+    public boolean contains(Object data) {
+        E item = (E) data;
+        Node n = root;
+        while (n instanceof Inner) {
+            n = ((Inner) n).children[childIndex(n, item)];
+        }
+        return search(n, item) >= 0;
+    }
+
+    /**
+     * Returns the smallest item in the tree.
+     *
+     * @exception NoSuchElementException if the tree is empty.
+     */
+    public E first() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return (E) head.keys[0];
+    }
+
+    /**
+     * Returns the largest item in the tree.
+     *
+     * @exception NoSuchElementException if the tree is empty.
+     */
+    public E last() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        Node n = root;
+        while (n instanceof Inner) {
+            n = ((Inner) n).children[n.count];
+        }
+        return (E) n.keys[n.count - 1];
+    }
+
+    /**
+     * Adds a single data item to the tree.  If there is already an item in
+     * the tree that compares equal to the item being inserted, it is
+     * "overwritten" by the new item.  Returns whether the tree grew.
+     */
+    public boolean add(E data) {
+        Node sibling = insert(root, data);
+        if (sibling != null) {
+            Inner newRoot = new Inner(order);
+            newRoot.keys[0] = separator;
+            newRoot.children[0] = root;
+            newRoot.children[1] = sibling;
+            newRoot.count = 1;
+            root = newRoot;
+        }
+        separator = null;
+        if (changed) {
+            modCount++;
+            size++;
+        }
+        return changed;
+    }
+
+    /**
+     * Removes the item that compares equal to the given value.  Does
+     * nothing if there is no such item.  Returns whether an item was
+     * removed.
+     */
+    public boolean remove(Object data) {
+        remove(root, (E) data);
+        if (!changed) {
+            return false;
+        }
+        if (root instanceof Inner && root.count == 0) {
+            root = ((Inner) root).children[0];
+        }
+        modCount++;
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes every item from the tree.
+     */
+    public void clear() {
+        head = new Leaf(order);
+        root = head;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Returns an iterator over the items of the tree in ascending order.
+     */
+    public Iterator<E> iterator() {
+        return new LeafIterator(head, 0, null);
+    }
+
+    /**
+     * Returns an iterator over the items that are greater than or equal
+     * to from and less than to, in ascending order.  Either bound may be
+     * null for no bound.  Finding the first item takes one descent; after
+     * that the iterator walks along the leaves.
+     */
+    public Iterator<E> iterator(E from, E to) {
+        if (from == null) {
+            return new LeafIterator(head, 0, to);
+        }
+        Node n = root;
+        while (n instanceof Inner) {
+            n = ((Inner) n).children[childIndex(n, from)];
+        }
+        int index = search(n, from);
+        return new LeafIterator((Leaf) n, index >= 0 ? index : -index - 1, to);
+    }
+
+    /**
+     * Inserts the item below the given node.  Sets changed to whether the
+     * tree grew.  If the node had to be split, returns the new node to its
+     * right and leaves the least item below that node in separator.
+     */
+    private Node insert(Node node, E item) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = search(leaf, item);
+            if (index >= 0) {
+                leaf.keys[index] = item;
+                changed = false;
+                return null;
+            }
+            changed = true;
+            insertAt(leaf.keys, leaf.count, -index - 1, item);
+            leaf.count++;
+            return leaf.count > order ? splitLeaf(leaf) : null;
+        }
+        Inner inner = (Inner) node;
+        int index = childIndex(inner, item);
+        Node sibling = insert(inner.children[index], item);
+        if (sibling == null) {
+            return null;
+        }
+        insertAt(inner.keys, inner.count, index, separator);
+        insertAt(inner.children, inner.count + 1, index + 1, sibling);
+        inner.count++;
+        return inner.count > order ? splitInner(inner) : null;
+    }
+
+    private Leaf splitLeaf(Leaf leaf) {
+        Leaf right = new Leaf(order);
+        int keep = leaf.count / 2;
+        right.count = leaf.count - keep;
+        System.arraycopy(leaf.keys, keep, right.keys, 0, right.count);
+        clearRange(leaf.keys, keep, leaf.count);
+        leaf.count = keep;
+        right.next = leaf.next;
+        if (right.next != null) {
+            right.next.previous = right;
+        }
+        right.previous = leaf;
+        leaf.next = right;
+        separator = right.keys[0];
+        return right;
+    }
+
+    /**
+     * Splits an inner node with one key too many around its middle key,
+     * which moves up to the parent.
+     */
+    private Inner splitInner(Inner inner) {
+        Inner right = new Inner(order);
+        int middle = inner.count / 2;
+        separator = inner.keys[middle];
+        right.count = inner.count - middle - 1;
+        System.arraycopy(inner.keys, middle + 1, right.keys, 0, right.count);
+        System.arraycopy(inner.children, middle + 1, right.children, 0, right.count + 1);
+        clearRange(inner.keys, middle, inner.count);
+        clearRange(inner.children, middle + 1, inner.count + 1);
+        inner.count = middle;
+        return right;
+    }
+
+    /**
+     * Removes the item from below the given node, setting changed to
+     * whether there was one.  A child left less than half full borrows
+     * from a sibling or is merged with one, so only the root can end up
+     * underfull.
+     */
+    private void remove(Node node, E item) {
+        if (node instanceof Leaf) {
+            int index = search(node, item);
+            changed = index >= 0;
+            if (changed) {
+                removeAt(node.keys, node.count, index);
+                node.count--;
+            }
+            return;
+        }
+        Inner inner = (Inner) node;
+        int index = childIndex(inner, item);
+        Node child = inner.children[index];
+        remove(child, item);
+        if (changed && child.count < minimum) {
+            rebalance(inner, index);
+        }
+    }
+
+    /**
+     * Refills the underfull child at the given index of the parent from
+     * its left or right sibling, or merges it with one of them.
+     */
+    private void rebalance(Inner parent, int index) {
+        Node child = parent.children[index];
+        Node left = index > 0 ? parent.children[index - 1] : null;
+        Node right = index < parent.count ? parent.children[index + 1] : null;
+        if (left != null && left.count > minimum) {
+            borrowFromLeft(parent, index, left, child);
+        } else if (right != null && right.count > minimum) {
+            borrowFromRight(parent, index, child, right);
+        } else if (left != null) {
+            merge(parent, index - 1, left, child);
+        } else {
+            merge(parent, index, child, right);
+        }
+    }
+
+    private void borrowFromLeft(Inner parent, int index, Node left, Node child) {
+        if (child instanceof Leaf) {
+            insertAt(child.keys, child.count, 0, left.keys[left.count - 1]);
+            parent.keys[index - 1] = child.keys[0];
+        } else {
+            Inner c = (Inner) child;
+            Inner l = (Inner) left;
+            insertAt(c.keys, c.count, 0, parent.keys[index - 1]);
+            insertAt(c.children, c.count + 1, 0, l.children[l.count]);
+            parent.keys[index - 1] = l.keys[l.count - 1];
+            l.children[l.count] = null;
+        }
+        left.keys[left.count - 1] = null;
+        left.count--;
+        child.count++;
+    }
+
+    private void borrowFromRight(Inner parent, int index, Node child, Node right) {
+        if (child instanceof Leaf) {
+            child.keys[child.count] = right.keys[0];
+            removeAt(right.keys, right.count, 0);
+            parent.keys[index] = right.keys[0];
+        } else {
+            Inner c = (Inner) child;
+            Inner r = (Inner) right;
+            c.keys[c.count] = parent.keys[index];
+            c.children[c.count + 1] = r.children[0];
+            parent.keys[index] = r.keys[0];
+            removeAt(r.keys, r.count, 0);
+            removeAt(r.children, r.count + 1, 0);
+        }
+        right.count--;
+        child.count++;
+    }
+
+    /**
+     * Moves everything in the right node into the left one, which sit on
+     * either side of the parent's key at the given index, and drops the
+     * right node and that key from the parent.
+     */
+    private void merge(Inner parent, int index, Node left, Node right) {
+        if (left instanceof Leaf) {
+            System.arraycopy(right.keys, 0, left.keys, left.count, right.count);
+            left.count += right.count;
+            Leaf l = (Leaf) left;
+            l.next = ((Leaf) right).next;
+            if (l.next != null) {
+                l.next.previous = l;
+            }
+        } else {
+            Inner l = (Inner) left;
+            Inner r = (Inner) right;
+            l.keys[l.count] = parent.keys[index];
+            System.arraycopy(r.keys, 0, l.keys, l.count + 1, r.count);
+            System.arraycopy(r.children, 0, l.children, l.count + 1, r.count + 1);
+            l.count += r.count + 1;
+        }
+        removeAt(parent.keys, parent.count, index);
+        removeAt(parent.children, parent.count + 1, index + 1);
+        parent.count--;
+    }
+
+    /**
+     * Returns the index of the child of an inner node whose range holds
+     * the item.
+     */
+    private int childIndex(Node inner, E item) {
+        int index = search(inner, item);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Returns the index of the item among the node's keys, or, if it is
+     * not there, -(insertion point) - 1 as Arrays.binarySearch does.
+     */
+    private int search(Node node, E item) {
+        Object[] keys = node.keys;
+        int low = 0;
+        int high = node.count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparisonResult = compare((E) keys[middle], item);
+            if (comparisonResult < 0) {
+                low = middle + 1;
+            } else if (comparisonResult > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int compare(E x, E y) {
+        if (comparator == null) {
+            return ((Comparable<E>) x).compareTo(y);
+        } else {
+            return comparator.compare(x, y);
+        }
+    }
+
+    private static void insertAt(Object[] array, int length, int index, Object value) {
+        System.arraycopy(array, index, array, index + 1, length - index);
+        array[index] = value;
+    }
+
+    private static void removeAt(Object[] array, int length, int index) {
+        System.arraycopy(array, index + 1, array, index, length - index - 1);
+        array[length - 1] = null;
+    }
+
+    private static void clearRange(Object[] array, int from, int to) {
+        for (int i = from; i < to; i++) {
+            array[i] = null;
+        }
+    }
+
+    /**
+     * Walks the leaves from the given position, stopping before the first
+     * item not less than the fence, if there is one.
+     */
+    private class LeafIterator implements Iterator<E> {
+        private Leaf leaf;
+        private int index;
+        private final E fence;
+        private E lastReturned = null;
+        private boolean canRemove = false;
+        private int expectedModCount = modCount;
+
+        LeafIterator(Leaf leaf, int index, E fence) {
+            this.leaf = leaf;
+            this.index = index;
+            this.fence = fence;
+            skipEmpty();
+        }
+
+        private void skipEmpty() {
+            while (leaf != null && index >= leaf.count) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        }
+
+        public boolean hasNext() {
+            return leaf != null
+                    && (fence == null || compare((E) leaf.keys[index], fence) < 0);
+        }
+
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            lastReturned = (E) leaf.keys[index++];
+            canRemove = true;
+            skipEmpty();
+            return lastReturned;
+        }
+
+        public void remove() {
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            BPlusTree.this.remove(lastReturned);
+            // Items may have moved between leaves, so find the next one
+            // again.
+            Node n = root;
+            while (n instanceof Inner) {
+                n = ((Inner) n).children[childIndex(n, lastReturned)];
+            }
+            leaf = (Leaf) n;
+            index = -search(n, lastReturned) - 1;
+            skipEmpty();
+            canRemove = false;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * Checks the order and placement of the keys, the fill of the nodes,
+     * the depth of the leaves, the leaf links and the count, for tests.
+     * Returns whether the tree is a valid B+ tree.
+     */
+    boolean isValidBPlusTree() {
+        int[] count = new int[1];
+        Leaf[] previous = new Leaf[1];
+        if (check(root, null, null, true, count, previous) < 0 || count[0] != size) {
+            return false;
+        }
+        if (previous[0] == null || previous[0].next != null) {
+            return false;
+        }
+        Leaf first = previous[0];
+        while (first.previous != null) {
+            first = first.previous;
+        }
+        return first == head;
+    }
+
+    /**
+     * Returns the height of the subtree, whose keys must lie at or above
+     * low and below high where those are not null, or -1 if it is
+     * invalid.  Counts the items and checks that each leaf, visited in
+     * order, is linked to the one before it.
+     */
+    private int check(Node n, Object low, Object high, boolean isRoot, int[] count,
+                      Leaf[] previous) {
+        if (n.count > order || (!isRoot && n.count < minimum)) {
+            return -1;
+        }
+        for (int i = 0; i < n.count; i++) {
+            E key = (E) n.keys[i];
+            if ((i > 0 && compare((E) n.keys[i - 1], key) >= 0)
+                    || (low != null && compare(key, (E) low) < 0)
+                    || (high != null && compare(key, (E) high) >= 0)) {
+                return -1;
+            }
+        }
+        for (int i = n.count; i < n.keys.length; i++) {
+            if (n.keys[i] != null) {
+                return -1;
+            }
+        }
+        if (n instanceof Leaf) {
+            Leaf leaf = (Leaf) n;
+            if (leaf.previous != previous[0]
+                    || (previous[0] != null && previous[0].next != leaf)) {
+                return -1;
+            }
+            previous[0] = leaf;
+            count[0] += n.count;
+            return 0;
+        }
+        Inner inner = (Inner) n;
+        if (isRoot && n.count == 0) {
+            return -1;
+        }
+        int height = -1;
+        for (int i = 0; i <= n.count; i++) {
+            Object childLow = i == 0 ? low : n.keys[i - 1];
+            Object childHigh = i == n.count ? high : n.keys[i];
+            int h = check(inner.children[i], childLow, childHigh, false, count, previous);
+            if (h < 0 || (height >= 0 && h != height)) {
+                return -1;
+            }
+            height = h;
+        }
+        for (int i = n.count + 1; i < inner.children.length; i++) {
+            if (inner.children[i] != null) {
+                return -1;
+            }
+        }
+        return height + 1;
+    }
+}
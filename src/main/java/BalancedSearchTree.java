@@ -0,0 +1,238 @@
+import java.util.Comparator;
+
+/**
+ * A binary search tree kept balanced by a pluggable BalancingPolicy:
+ * red-black, AVL or weak AVL.  The tree does the descents, links and
+ * unlinks nodes and counts sizes as BinarySearchTree does; the policy
+ * decides which nodes to rotate, with BinarySearchTree.rotateLeft and
+ * rotateRight, once a leaf has been added or a node spliced out.
+ *
+ * <p>Every node carries one int, its rank, whose meaning is up to the
+ * policy: a color for red-black, the height for AVL, the rank of the
+ * rank-balance framework for weak AVL.  A tree's policy is fixed when it
+ * is made, so the ranks always mean the same thing.</p>
+ *
+ * <p>The policies trade update work for height.  An AVL tree of n items
+ * is at most about 1.44 log n high, against 2 log n for red-black, so
+ * lookups compare against fewer items, but insertions and removals
+ * rotate more.  Weak AVL is as low as AVL as long as there are no
+ * removals, and never higher than red-black, with at most two rotations
+ * per update.  To see the difference on a real workload, attach a
+ * TreeMetrics to trees with each policy and compare the descent depth
+ * histograms and rotation counts.</p>
+ *
+ * <p>RedBlackTree is the subclass fixed to the red-black policy, with set
+ * operations, bulk loading and invariant checking; this class is for
+ * choosing the balancing per workload.</p>
+ */
+public class BalancedSearchTree<E> extends BinarySearchTree<E> {
+
+    /**
+     * The nodes of a balanced tree: linked nodes with a rank.  Static, so
+     * a policy can work on them without knowing the tree's item type.
+     */
+    public static class Node<E> extends LinkedBinaryTreeNode<E> {
+        int rank = 0;
+
+        public Node(E data) {
+            super(data);
+        }
+
+        /**
+         * Returns the rank of this node, as defined by the tree's policy.
+         */
+        public int getRank() {
+            return rank;
+        }
+    }
+
+    private final BalancingPolicy policy;
+
+    /**
+     * Constructs an empty tree with the given balancing policy that can
+     * only accept Comparables as items.
+     */
+    public BalancedSearchTree(BalancingPolicy policy) {
+        this(policy, null);
+    }
+
+    /**
+     * Constructs an empty tree with the given balancing policy that
+     * orders its items according to the given comparator.
+     */
+    public BalancedSearchTree(BalancingPolicy policy, Comparator<E> c) {
+        super(c);
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        this.policy = policy;
+    }
+
+    /**
+     * Returns the policy that keeps this tree balanced.
+     */
+    public BalancingPolicy getBalancingPolicy() {
+        return policy;
+    }
+
+    /**
+     * Adds a single data item to the tree.  If there is already an item in
+     * the tree that compares equal to the item being inserted, it is
+     * "overwritten" by the new item.  Overrides BinarySearchTree.add
+     * because the policy rebalances after insertion.  Returns false if an
+     * item was overwritten.
+     */
+    public boolean add(E data) {
+        BinaryTreeNode<E> parent = null;
+        int comparisonResult = 0;
+        int depth = 0;
+        for (BinaryTreeNode<E> n = root; n != null; depth++) {
+            comparisonResult = compare(data, n.getData());
+            if (comparisonResult == 0) {
+                n.setData(data);
+                descended(depth + 1);
+                return false;
+            }
+            parent = n;
+            n = comparisonResult < 0 ? n.getLeft() : n.getRight();
+        }
+        descended(depth);
+        Node<E> node = (Node<E>) newNode(data);
+        if (parent == null) {
+            modCount++;
+            root = node;
+        } else {
+            attachLeaf(parent, node, comparisonResult < 0);
+        }
+        int iterations = policy.afterInsertion(this, node);
+        if (metrics != null) {
+            metrics.insertionFixup(iterations);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the node containing the given value.  Does nothing if there
+     * is no such node.  Returns whether an item was removed.
+     */
+    public boolean remove(Object data) {
+        BinaryTreeNode<E> node = nodeContaining((E) data);
+        if (node == null) {
+            // No such object, do nothing.
+            return false;
+        }
+        modCount++;
+        if (node.getLeft() != null && node.getRight() != null) {
+            // Node has two children, Copy predecessor data in.
+            BinaryTreeNode<E> predecessor = predecessor(node);
+            copyItem(predecessor, node);
+            node = predecessor;
+        }
+        // At this point node has zero or one child
+        Node<E> removed = (Node<E>) node;
+        Node<E> parent = parentNode(removed);
+        boolean left = parent != null && parent.getLeft() == removed;
+        BinaryTreeNode<E> pullUp =
+                (removed.getLeft() == null) ? removed.getRight() : removed.getLeft();
+        spliceOut(removed, pullUp);
+        int iterations = policy.afterRemoval(this, removed, parent, left);
+        if (metrics != null) {
+            metrics.removalFixup(iterations);
+        }
+        releaseNode(removed);
+        return true;
+    }
+
+    /**
+     * Creates the ranked nodes used by this tree, reusing one from the
+     * node pool if there is one.  The policy sets the rank once the node
+     * is linked in.
+     */
+    protected BinaryTreeNode<E> newNode(E data) {
+        Node<E> node = (Node<E>) reusedNode(Node.class, data);
+        if (node == null) {
+            return new Node<E>(data);
+        }
+        node.rank = 0;
+        return node;
+    }
+
+    /**
+     * Checks the order of the items, the links and sizes, and the
+     * policy's rank rules, for tests.  Returns whether the tree is valid.
+     */
+    boolean isValidBalancedTree() {
+        Node<E> r = (Node<E>) root;
+        if (r != null && r.getParent() != null) {
+            return false;
+        }
+        return isOrdered(r, null, null) && policy.isBalanced(r);
+    }
+
+    private boolean isOrdered(Node<E> n, Node<E> low, Node<E> high) {
+        if (n == null) {
+            return true;
+        }
+        Node<E> left = leftNode(n);
+        Node<E> right = rightNode(n);
+        return (low == null || compare(low.getData(), n.getData()) < 0)
+                && (high == null || compare(n.getData(), high.getData()) < 0)
+                && (left == null || left.getParent() == n)
+                && (right == null || right.getParent() == n)
+                && n.getSize() == 1 + sizeOf(left) + sizeOf(right)
+                && isOrdered(left, low, n)
+                && isOrdered(right, n, high);
+    }
+
+    // Helpers for the policies.  They take care of the null checks and
+    // the casts, and report rank changes and rotations to the metrics
+    // listener.
+
+    /**
+     * Sets the rank of a node, counting a change as a recoloring.
+     */
+    void setRank(Node<E> n, int rank) {
+        if (metrics != null && n.rank != rank) {
+            metrics.recolored();
+        }
+        n.rank = rank;
+    }
+
+    /**
+     * Rotates so that the given node moves down to the left (if left) or
+     * to the right, and returns the child that took its place.
+     */
+    Node<E> rotate(Node<E> n, boolean left) {
+        Node<E> top = childOf(n, !left);
+        if (left) {
+            rotateLeft(n);
+        } else {
+            rotateRight(n);
+        }
+        return top;
+    }
+
+    Node<E> rootNode() {
+        return (Node<E>) root;
+    }
+
+    static <E> int rankOf(Node<E> n, int nullRank) {
+        return n == null ? nullRank : n.rank;
+    }
+
+    static <E> Node<E> parentNode(Node<E> n) {
+        return (Node<E>) n.getParent();
+    }
+
+    static <E> Node<E> leftNode(Node<E> n) {
+        return (Node<E>) n.getLeft();
+    }
+
+    static <E> Node<E> rightNode(Node<E> n) {
+        return (Node<E>) n.getRight();
+    }
+
+    static <E> Node<E> childOf(Node<E> n, boolean left) {
+        return (Node<E>) (left ? n.getLeft() : n.getRight());
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * The rebalancing rules of a BalancedSearchTree.  A policy keeps the
+ * height of the tree logarithmic by giving every node a rank and
+ * restoring the rules about ranks after each change, with rotations and
+ * rank changes done through the tree so that they are counted in its
+ * metrics.
+ *
+ * <p>Policies hold no state and may be shared between any number of
+ * trees.</p>
+ */
+public interface BalancingPolicy {
+
+    /**
+     * Red-black balancing, which RedBlackTree always uses.
+     */
+    BalancingPolicy RED_BLACK = new RedBlackBalancing();
+
+    /**
+     * AVL balancing: the heights of sibling subtrees differ by at most one.
+     */
+    BalancingPolicy AVL = new AvlBalancing();
+
+    /**
+     * Weak AVL balancing, from the rank-balanced trees of Haeupler, Sen
+     * and Tarjan.
+     */
+    BalancingPolicy WAVL = new WavlBalancing();
+
+    /**
+     * Rebalances after the given node has been linked in as a new leaf,
+     * or as the root of a tree that was empty, and sets its rank.
+     * Returns the number of iterations of the rebalancing loop.
+     */
+    <E> int afterInsertion(BalancedSearchTree<E> tree, BalancedSearchTree.Node<E> node);
+
+    /**
+     * Rebalances after the given node, which had at most one child, has
+     * been spliced out from below parent, on its left if left is true.
+     * The parent is null if the node was the root.  The removed node
+     * still has its rank.  Returns the number of iterations of the
+     * rebalancing loop.
+     */
+    <E> int afterRemoval(BalancedSearchTree<E> tree, BalancedSearchTree.Node<E> removed,
+                         BalancedSearchTree.Node<E> parent, boolean left);
+
+    /**
+     * Returns whether the ranks of the subtree, which may be empty, follow
+     * the rules of this policy.  For tests; takes linear time.
+     */
+    <E> boolean isBalanced(BalancedSearchTree.Node<E> root);
+}
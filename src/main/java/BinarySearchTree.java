@@ -1,15 +1,37 @@
 
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A binary search tree class with insertion, removal and lookup.
  * A comparator is used to order the items in the tree.  All tree
  * items must be distinct according to the comparator.  If no comparator
  * is supplied the natural order of tree elements is used.
+ *
+ * <p>Iteration is in ascending order.  Iterators and spliterators are
+ * fail-fast: they throw ConcurrentModificationException if the tree is
+ * structurally modified other than through the iterator's own remove.</p>
+ *
+ * <p>The tree is a NavigableSet.  Nearest-item lookups take one descent,
+ * and subSet, headSet, tailSet and descendingSet return views that are
+ * computed lazily: iterating over a range descends straight to its first
+ * item and stops at its end, and a view's size comes from two ranks, so
+ * a range query of k items costs O(h + k) for a tree of height h.</p>
  */
-public class BinarySearchTree<E> {
+public class BinarySearchTree<E> extends AbstractSet<E> implements NavigableSet<E> {
 
     /**
      * Root of the tree.
@@ -22,6 +44,25 @@ public class BinarySearchTree<E> {
      */
     private Comparator<E> comparator;
 
+    /**
+     * Number of structural modifications, used by iterators to detect
+     * concurrent modification.
+     */
+    protected int modCount = 0;
+
+    /**
+     * Receives operation counts, or null if nobody is listening.  Every
+     * report is guarded by a null check so that an unobserved tree pays
+     * nothing else.
+     */
+    protected TreeMetricsListener metrics = null;
+
+    /**
+     * Where removed nodes go to be reused by newNode, or null if they are
+     * left to the garbage collector.
+     */
+    private NodePool pool = null;
+
     /**
      * Constructs an empty BST that can only accept Comparables
      * as items.
@@ -38,75 +79,352 @@ public class BinarySearchTree<E> {
         comparator = c;
     }
 
+    /**
+     * Returns a perfectly balanced tree holding the given items, which
+     * must already be in strictly ascending order according to the
+     * comparator (or their natural order if the comparator is null).
+     * Runs in linear time and never compares items, so out-of-order
+     * input is not detected.
+     */
+    public static <E> BinarySearchTree<E> fromSorted(E[] items, Comparator<E> comparator) {
+        return fromSorted(Arrays.asList(items).iterator(), items.length, comparator);
+    }
+
+    /**
+     * Returns a perfectly balanced tree holding the first size items of
+     * the given iterator, which must be in strictly ascending order.
+     * Runs in linear time and never compares items.
+     */
+    public static <E> BinarySearchTree<E> fromSorted(Iterator<? extends E> items, int size,
+                                                     Comparator<E> comparator) {
+        BinarySearchTree<E> tree = new BinarySearchTree<E>(comparator);
+        tree.buildFromSorted(items, size);
+        return tree;
+    }
+
+    /**
+     * Returns the comparator used to order the items in the tree, or
+     * null if they are in their natural order.
+     */
+    public Comparator<E> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Attaches a listener that is told about comparisons, rotations and
+     * other work done by the tree, or detaches it if the listener is null.
+     * Attach the listener before the tree is shared between threads.
+     */
+    public void setMetricsListener(TreeMetricsListener listener) {
+        metrics = listener;
+    }
+
+    /**
+     * Returns the attached metrics listener, or null if there is none.
+     */
+    public TreeMetricsListener getMetricsListener() {
+        return metrics;
+    }
+
+    /**
+     * Makes the tree reuse nodes through the given pool, or stops it if
+     * the pool is null.  Nodes unlinked by remove and clear go into the
+     * pool and new items take their nodes from it, so steady churn
+     * allocates nothing once the pool has filled.  It is off by default.
+     * With a pool, clear visits every node and so takes linear time.
+     * The set operations, split and removeRange leave the nodes they drop
+     * to the garbage collector, so that they keep their running times.
+     */
+    public void setNodePool(NodePool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the pool the tree reuses nodes through, or null if there is
+     * none.
+     */
+    public NodePool getNodePool() {
+        return pool;
+    }
+
+    /**
+     * Returns the number of items in the tree.
+     */
+    public int size() {
+        return root == null ? 0 : root.getSize();
+    }
+
     /**
      * Returns whether or not the tree contains an object with
      * the given value.
      */
-    public boolean contains(E data) {
-        return nodeContaining(data) != null;
+    public boolean contains(Object data) {
+        return nodeContaining((E) data) != null;
     }
 
     /**
      * Adds a single data item to the tree.  If there is already an
      * item in the tree that compares equal to the item being inserted,
-     * it is "overwritten" by the new item.
+     * it is "overwritten" by the new item.  Returns whether the tree
+     * grew, that is, false if an item was overwritten.
      */
-    public void add(E data) {
-        if (root == null) {
-            root = new LinkedBinaryTreeNode<E>(data);
-        }
-        BinaryTreeNode<E> n = root;
-        while (true) {
-            int comparisonResult = compare(data, n.getData());
+    public boolean add(E data) {
+        BinaryTreeNode<E> parent = null;
+        int comparisonResult = 0;
+        int depth = 0;
+        for (BinaryTreeNode<E> n = root; n != null; depth++) {
+            comparisonResult = compare(data, n.getData());
             if (comparisonResult == 0) {
                 n.setData(data);
-                return;
-            } else if (comparisonResult < 0) {
-                if (n.getLeft() == null) {
-                    n.setLeft(new LinkedBinaryTreeNode<E>(data));
-                    return;
-                }
-                n = n.getLeft();
-            } else { // comparisonResult > 0
-                if (n.getRight() == null) {
-                    n.setRight(new LinkedBinaryTreeNode<E>(data));
-                    return;
-                }
-                n = n.getRight();
+                descended(depth + 1);
+                return false;
             }
+            parent = n;
+            n = comparisonResult < 0 ? n.getLeft() : n.getRight();
         }
+        descended(depth);
+        if (parent == null) {
+            modCount++;
+            root = newNode(data);
+        } else {
+            attachLeaf(parent, newNode(data), comparisonResult < 0);
+        }
+        return true;
     }
 
     /**
      * Removes the node containing the given value.  Does nothing
-     * if there is no such node.
+     * if there is no such node.  Returns whether an item was removed.
      */
-    public void remove(E data) {
-        BinaryTreeNode<E> node = nodeContaining(data);
+    public boolean remove(Object data) {
+        BinaryTreeNode<E> node = nodeContaining((E) data);
         if (node == null) {
             // No such object, do nothing.
-            return;
-        } else if (node.getLeft() != null && node.getRight() != null) {
+            return false;
+        }
+        modCount++;
+        if (node.getLeft() != null && node.getRight() != null) {
             // Node has two children, we cannot delete it.  Copy
             // predecessor data here and get ready to delete predecessor.
             BinaryTreeNode<E> predecessor = predecessor(node);
-            node.setData(predecessor.getData());
+            copyItem(predecessor, node);
             node = predecessor;
         }
         // At this point node has zero or one child
         BinaryTreeNode<E> pullUp =
                 (node.getLeft() == null) ? node.getRight() : node.getLeft();
-        if (node == root) {
-            setRoot(pullUp);
-        } else if (node.getParent().getLeft() == node) {
-            node.getParent().setLeft(pullUp);
-        } else {
-            node.getParent().setRight(pullUp);
+        spliceOut(node, pullUp);
+        releaseNode(node);
+        return true;
+    }
+
+    /**
+     * Removes every item from the tree.  With a node pool, the nodes go
+     * into the pool until it is full.
+     */
+    public void clear() {
+        BinaryTreeNode<E> oldRoot = root;
+        setRoot(null);
+        if (pool != null && oldRoot != null && !pool.isFull()) {
+            // The next node is found before each is visited, so the
+            // visitor may wipe it.
+            oldRoot.traversePostorder(new BinaryTreeNode.Visitor() {
+                public <T> void visit(BinaryTreeNode<T> node) {
+                    pool.release((LinkedBinaryTreeNode<?>) node);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the number of items in the tree that are less than the
+     * given value.  If the value is in the tree this is its index in
+     * ascending order.  Runs in time proportional to the tree height.
+     */
+    public int rank(E data) {
+        return countBelow(data, false);
+    }
+
+    /**
+     * Returns the item at the given index in ascending order, counting
+     * from zero.  Runs in time proportional to the tree height.
+     *
+     * @exception IndexOutOfBoundsException if the index is negative or
+     * not less than the size of the tree.
+     */
+    public E select(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
         }
+        BinaryTreeNode<E> n = root;
+        while (true) {
+            int leftSize = sizeOf(n.getLeft());
+            if (index < leftSize) {
+                n = n.getLeft();
+            } else if (index == leftSize) {
+                return n.getData();
+            } else {
+                index -= leftSize + 1;
+                n = n.getRight();
+            }
+        }
+    }
+
+    /**
+     * Returns the smallest item in the tree.
+     *
+     * @exception NoSuchElementException if the tree is empty.
+     */
+    public E first() {
+        return dataOrThrow(firstNode(root));
+    }
+
+    /**
+     * Returns the largest item in the tree.
+     *
+     * @exception NoSuchElementException if the tree is empty.
+     */
+    public E last() {
+        return dataOrThrow(lastNode(root));
+    }
+
+    /**
+     * Returns the largest item less than the given value, or null if
+     * there is none.
+     */
+    public E lower(E data) {
+        return dataOf(floorNode(data, false));
+    }
+
+    /**
+     * Returns the largest item less than or equal to the given value, or
+     * null if there is none.
+     */
+    public E floor(E data) {
+        return dataOf(floorNode(data, true));
     }
 
+    /**
+     * Returns the smallest item greater than or equal to the given value,
+     * or null if there is none.
+     */
+    public E ceiling(E data) {
+        return dataOf(ceilingNode(data, true));
+    }
 
+    /**
+     * Returns the smallest item greater than the given value, or null if
+     * there is none.
+     */
+    public E higher(E data) {
+        return dataOf(ceilingNode(data, false));
+    }
 
+    /**
+     * Removes and returns the smallest item, or returns null if the tree
+     * is empty.
+     */
+    public E pollFirst() {
+        return poll(firstNode(root));
+    }
+
+    /**
+     * Removes and returns the largest item, or returns null if the tree
+     * is empty.
+     */
+    public E pollLast() {
+        return poll(lastNode(root));
+    }
+
+    /**
+     * Returns an iterator over the items of the tree in ascending order.
+     * The iterator supports removal.
+     */
+    public Iterator<E> iterator() {
+        return new RangeIterator(firstNode(root), null, false);
+    }
+
+    /**
+     * Returns an iterator over the items of the tree in descending order.
+     * The iterator supports removal.
+     */
+    public Iterator<E> descendingIterator() {
+        return new RangeIterator(lastNode(root), null, true);
+    }
+
+    /**
+     * Returns a view of the items in descending order.  Changes to the
+     * tree show through the view, and the other way around.
+     */
+    public NavigableSet<E> descendingSet() {
+        return new RangeView(true, null, false, true, null, false, true);
+    }
+
+    /**
+     * Returns a view of the items from fromElement to toElement.  Changes
+     * to the tree show through the view, and the other way around; adding
+     * an item outside the range through the view is an error.
+     *
+     * @exception IllegalArgumentException if fromElement is greater than
+     * toElement.
+     */
+    public NavigableSet<E> subSet(E fromElement, boolean fromInclusive,
+                                  E toElement, boolean toInclusive) {
+        return new RangeView(false, fromElement, fromInclusive,
+                false, toElement, toInclusive, false);
+    }
+
+    /**
+     * Returns a view of the items less than (or equal to, if inclusive)
+     * toElement.
+     */
+    public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+        return new RangeView(true, null, false, false, toElement, inclusive, false);
+    }
+
+    /**
+     * Returns a view of the items greater than (or equal to, if
+     * inclusive) fromElement.
+     */
+    public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+        return new RangeView(false, fromElement, inclusive, true, null, false, false);
+    }
+
+    public SortedSet<E> subSet(E fromElement, E toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    public SortedSet<E> headSet(E toElement) {
+        return headSet(toElement, false);
+    }
+
+    public SortedSet<E> tailSet(E fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    /**
+     * Returns a spliterator over the items of the tree in ascending order.
+     * Splitting happens at subtree roots, so a balanced tree splits into
+     * roughly equal halves.
+     */
+    public Spliterator<E> spliterator() {
+        return new TreeSpliterator(firstNode(root), null, 0, size(), modCount);
+    }
+
+    /**
+     * Returns a sequential stream of the items of the tree in ascending
+     * order.
+     */
+    public Stream<E> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a possibly parallel stream of the items of the tree.
+     */
+    public Stream<E> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
 
     // Best to put the comparison code in a single place so that we don't have
     // to check for comparators and cast all over the place.
@@ -121,6 +439,90 @@ public class BinarySearchTree<E> {
 
     // Methods relating to nodes, not part of public interface.
 
+    /**
+     * Creates a detached node holding the given data.  Subclasses that
+     * need richer nodes override this.
+     */
+    protected BinaryTreeNode<E> newNode(E data) {
+        BinaryTreeNode<E> node = reusedNode(LinkedBinaryTreeNode.class, data);
+        return node != null ? node : new LinkedBinaryTreeNode<E>(data);
+    }
+
+    /**
+     * Returns a node of the given class from the node pool, holding the
+     * given data and otherwise as good as new, or null if there is no
+     * pool or it has no such node.
+     */
+    protected BinaryTreeNode<E> reusedNode(Class<?> nodeClass, E data) {
+        return pool == null ? null : pool.<E>take(nodeClass, data);
+    }
+
+    /**
+     * Puts a node that has been removed from the tree into the node pool,
+     * if there is one.  Nothing may refer to the node afterwards.
+     */
+    protected void releaseNode(BinaryTreeNode<E> node) {
+        if (pool != null) {
+            pool.release(linked(node));
+        }
+    }
+
+    /**
+     * Replaces the contents of the tree with a perfectly balanced tree
+     * built from the first size items of the iterator, in order.
+     */
+    protected void buildFromSorted(Iterator<? extends E> items, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size: " + size);
+        }
+        // Every level above the bottom one is full; the bottom level is
+        // full only if size is one less than a power of two.
+        int bottomLevel = 0;
+        for (int m = size - 1; m >= 0; m = m / 2 - 1) {
+            bottomLevel++;
+        }
+        setRoot(buildFromSorted(0, 0, size - 1, bottomLevel, items));
+    }
+
+    private BinaryTreeNode<E> buildFromSorted(int level, int lo, int hi, int bottomLevel,
+                                              Iterator<? extends E> items) {
+        if (hi < lo) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        BinaryTreeNode<E> left = buildFromSorted(level + 1, lo, mid - 1, bottomLevel, items);
+        BinaryTreeNode<E> node = newNode(items.next());
+        if (level == bottomLevel) {
+            builtOnBottomLevel(node);
+        }
+        BinaryTreeNode<E> right = buildFromSorted(level + 1, mid + 1, hi, bottomLevel, items);
+        // The node has no parent yet, so linking its children is constant time.
+        if (left != null) {
+            node.setLeft(left);
+        }
+        if (right != null) {
+            node.setRight(right);
+        }
+        return node;
+    }
+
+    /**
+     * Copies the item held by one node into another.  Removing a node
+     * with two children copies its predecessor's item into it and then
+     * removes the predecessor.  Subclasses whose nodes hold more than
+     * the data override this to copy the rest.
+     */
+    protected void copyItem(BinaryTreeNode<E> source, BinaryTreeNode<E> target) {
+        target.setData(source.getData());
+    }
+
+    /**
+     * Called by buildFromSorted for each node placed on the bottom level
+     * of a tree that is not perfect.  Does nothing by default.
+     */
+    protected void builtOnBottomLevel(BinaryTreeNode<E> node) {
+    }
+
     /**
      * Returns the root of the tree.
      */
@@ -135,45 +537,104 @@ public class BinarySearchTree<E> {
         if (node != null) {
             node.removeFromParent();
         }
+        modCount++;
         root = node;
     }
 
     /**
-     * Rotates left around the given node.
+     * Rotates left around the given node.  Only the two nodes that trade
+     * places are relinked and resized, so this takes constant time.
      */
     protected void rotateLeft(BinaryTreeNode<E> n) {
         if (n.getRight() == null) {
             return;
         }
-        BinaryTreeNode<E> oldRight = n.getRight();
-        n.setRight(oldRight.getLeft());
-        if (n.getParent() == null) {
-            root = oldRight;
-        } else if (n.getParent().getLeft() == n) {
-            n.getParent().setLeft(oldRight);
-        } else {
-            n.getParent().setRight(oldRight);
+        if (metrics != null) {
+            metrics.rotated();
         }
-        oldRight.setLeft(n);
+        LinkedBinaryTreeNode<E> node = linked(n);
+        LinkedBinaryTreeNode<E> oldRight = node.right;
+        BinaryTreeNode<E> parent = node.parent;
+        node.linkRight(oldRight.left);
+        replaceChild(parent, node, oldRight);
+        oldRight.linkLeft(node);
+        node.updateSize();
+        oldRight.updateSize();
     }
 
     /**
-     * Rotates right around the given node.
+     * Rotates right around the given node in constant time.
      */
     protected void rotateRight(BinaryTreeNode<E> n) {
         if (n.getLeft() == null) {
             return;
         }
-        BinaryTreeNode<E> oldLeft = n.getLeft();
-        n.setLeft(oldLeft.getRight());
-        if (n.getParent() == null) {
-            root = oldLeft;
-        } else if (n.getParent().getLeft() == n) {
-            n.getParent().setLeft(oldLeft);
+        if (metrics != null) {
+            metrics.rotated();
+        }
+        LinkedBinaryTreeNode<E> node = linked(n);
+        LinkedBinaryTreeNode<E> oldLeft = node.left;
+        BinaryTreeNode<E> parent = node.parent;
+        node.linkLeft(oldLeft.right);
+        replaceChild(parent, node, oldLeft);
+        oldLeft.linkRight(node);
+        node.updateSize();
+        oldLeft.updateSize();
+    }
+
+    /**
+     * Links a new leaf below the given node, on the left or the right,
+     * and counts it in the sizes of the node and its ancestors.  The slot
+     * must be empty.
+     */
+    protected void attachLeaf(BinaryTreeNode<E> parent, BinaryTreeNode<E> leaf, boolean left) {
+        modCount++;
+        if (left) {
+            linked(parent).linkLeft(linked(leaf));
+        } else {
+            linked(parent).linkRight(linked(leaf));
+        }
+        LinkedBinaryTreeNode.addToSizes(linked(parent), 1);
+    }
+
+    /**
+     * Replaces the given node, which has at most one child, by that child
+     * (pullUp, possibly null) and leaves the node fully detached.
+     */
+    protected void spliceOut(BinaryTreeNode<E> node, BinaryTreeNode<E> pullUp) {
+        LinkedBinaryTreeNode<E> n = linked(node);
+        LinkedBinaryTreeNode<E> parent = n.parent;
+        LinkedBinaryTreeNode.addToSizes(parent, -1);
+        replaceChild(parent, n, pullUp);
+        n.unlinkParent();
+        n.linkLeft(null);
+        n.linkRight(null);
+        n.updateSize();
+    }
+
+    /**
+     * Puts newChild, which may be null, in the place of oldChild below
+     * parent, or at the root if parent is null.  Sizes are not changed.
+     */
+    private void replaceChild(BinaryTreeNode<E> parent, BinaryTreeNode<E> oldChild,
+                              BinaryTreeNode<E> newChild) {
+        if (parent == null) {
+            root = newChild;
+            if (newChild != null) {
+                linked(newChild).unlinkParent();
+            }
+        } else if (parent.getLeft() == oldChild) {
+            linked(parent).linkLeft(linked(newChild));
         } else {
-            n.getParent().setRight(oldLeft);
+            linked(parent).linkRight(linked(newChild));
         }
-        oldLeft.setRight(n);
+    }
+
+    /**
+     * All nodes of these trees are linked nodes; this just narrows the type.
+     */
+    private static <E> LinkedBinaryTreeNode<E> linked(BinaryTreeNode<E> n) {
+        return (LinkedBinaryTreeNode<E>) n;
     }
 
     /**
@@ -189,15 +650,83 @@ public class BinarySearchTree<E> {
         return n;
     }
 
+    /**
+     * Returns the number of nodes in the given subtree, which may be empty.
+     */
+    protected static int sizeOf(BinaryTreeNode<?> n) {
+        return n == null ? 0 : n.getSize();
+    }
+
+    /**
+     * Returns the leftmost node of the given subtree, or null if the
+     * subtree is empty.
+     */
+    protected static <E> BinaryTreeNode<E> firstNode(BinaryTreeNode<E> n) {
+        if (n != null) {
+            while (n.getLeft() != null) {
+                n = n.getLeft();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the rightmost node of the given subtree, or null if the
+     * subtree is empty.
+     */
+    protected static <E> BinaryTreeNode<E> lastNode(BinaryTreeNode<E> n) {
+        if (n != null) {
+            while (n.getRight() != null) {
+                n = n.getRight();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the node preceding the given one in inorder, or null if it
+     * is the first node of its tree.
+     */
+    protected static <E> BinaryTreeNode<E> previousNode(BinaryTreeNode<E> n) {
+        if (n.getLeft() != null) {
+            return lastNode(n.getLeft());
+        }
+        BinaryTreeNode<E> p = n.getParent();
+        while (p != null && n == p.getLeft()) {
+            n = p;
+            p = p.getParent();
+        }
+        return p;
+    }
+
+    /**
+     * Returns the node following the given one in inorder, or null if it
+     * is the last node of its tree.
+     */
+    protected static <E> BinaryTreeNode<E> nextNode(BinaryTreeNode<E> n) {
+        if (n.getRight() != null) {
+            return firstNode(n.getRight());
+        }
+        BinaryTreeNode<E> p = n.getParent();
+        while (p != null && n == p.getRight()) {
+            n = p;
+            p = p.getParent();
+        }
+        return p;
+    }
+
     /**
      * A special helper method that returns the node containing
      * an object that compares equal to the given object.  This
      * is used in both contains and remove.
      */
     protected BinaryTreeNode<E> nodeContaining(E data) {
+        int depth = 0;
         for (BinaryTreeNode<E> n = root; n != null;) {
+            depth++;
             int comparisonResult = compare(data, n.getData());
             if (comparisonResult == 0) {
+                descended(depth);
                 return n;
             } else if (comparisonResult < 0) {
                 n = n.getLeft();
@@ -205,7 +734,477 @@ public class BinarySearchTree<E> {
                 n = n.getRight();
             }
         }
+        descended(depth);
         return null;
     }
 
-}
\ No newline at end of file
+    /**
+     * Reports a descent of the given depth to the metrics listener, if
+     * there is one.  Callers count the depth in a local variable and call
+     * this once, after the loop.
+     */
+    protected final void descended(int depth) {
+        if (metrics != null) {
+            metrics.descended(depth);
+        }
+    }
+
+    /**
+     * Returns the node with the largest item less than the given value,
+     * or less than or equal to it if inclusive, or null if there is none.
+     */
+    protected BinaryTreeNode<E> floorNode(E data, boolean inclusive) {
+        BinaryTreeNode<E> best = null;
+        for (BinaryTreeNode<E> n = root; n != null;) {
+            int comparisonResult = compare(data, n.getData());
+            if (comparisonResult == 0 && inclusive) {
+                return n;
+            } else if (comparisonResult > 0) {
+                best = n;
+                n = n.getRight();
+            } else {
+                n = n.getLeft();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the node with the smallest item greater than the given
+     * value, or greater than or equal to it if inclusive, or null if
+     * there is none.
+     */
+    protected BinaryTreeNode<E> ceilingNode(E data, boolean inclusive) {
+        BinaryTreeNode<E> best = null;
+        for (BinaryTreeNode<E> n = root; n != null;) {
+            int comparisonResult = compare(data, n.getData());
+            if (comparisonResult == 0 && inclusive) {
+                return n;
+            } else if (comparisonResult < 0) {
+                best = n;
+                n = n.getLeft();
+            } else {
+                n = n.getRight();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the number of items less than the given value, or less
+     * than or equal to it if inclusive.
+     */
+    private int countBelow(E data, boolean inclusive) {
+        int count = 0;
+        for (BinaryTreeNode<E> n = root; n != null;) {
+            int comparisonResult = compare(data, n.getData());
+            if (comparisonResult == 0) {
+                return count + sizeOf(n.getLeft()) + (inclusive ? 1 : 0);
+            } else if (comparisonResult < 0) {
+                n = n.getLeft();
+            } else {
+                count += sizeOf(n.getLeft()) + 1;
+                n = n.getRight();
+            }
+        }
+        return count;
+    }
+
+    private E poll(BinaryTreeNode<E> n) {
+        if (n == null) {
+            return null;
+        }
+        E data = n.getData();
+        remove(data);
+        return data;
+    }
+
+    private static <E> E dataOf(BinaryTreeNode<E> n) {
+        return n == null ? null : n.getData();
+    }
+
+    private static <E> E dataOrThrow(BinaryTreeNode<E> n) {
+        if (n == null) {
+            throw new NoSuchElementException();
+        }
+        return n.getData();
+    }
+
+    /**
+     * Iterator that walks the tree through parent links from a first
+     * node, in either direction, up to but excluding a fence node (null
+     * to run off the end of the tree).
+     */
+    private class RangeIterator implements Iterator<E> {
+        private BinaryTreeNode<E> next;
+        private BinaryTreeNode<E> fence;
+        private final boolean descending;
+        private BinaryTreeNode<E> lastReturned = null;
+        private int expectedModCount = modCount;
+
+        RangeIterator(BinaryTreeNode<E> first, BinaryTreeNode<E> fence, boolean descending) {
+            this.next = first;
+            this.fence = fence;
+            this.descending = descending;
+        }
+
+        public boolean hasNext() {
+            return next != null && next != fence;
+        }
+
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            lastReturned = next;
+            next = descending ? previousNode(next) : nextNode(next);
+            return lastReturned.getData();
+        }
+
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            // Removing a node with two children moves its predecessor's
+            // data into it and unlinks the predecessor instead.  Going up
+            // that leaves the next node in place; going down the next node
+            // is the predecessor, whose data now lives in lastReturned.
+            boolean twoChildren = lastReturned.getLeft() != null && lastReturned.getRight() != null;
+            BinarySearchTree.this.remove(lastReturned.getData());
+            if (descending && twoChildren) {
+                if (next == fence) {
+                    fence = lastReturned;
+                }
+                next = lastReturned;
+            }
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * A view of the items between two bounds, either of which may be
+     * missing, in ascending or descending order.  The bounds are always
+     * kept in ascending terms; descending views swap the roles of the
+     * navigation methods.  Nothing is copied: every operation goes back to
+     * the tree.
+     */
+    private class RangeView extends AbstractSet<E> implements NavigableSet<E> {
+        private final boolean fromStart;
+        private final E lo;
+        private final boolean loInclusive;
+        private final boolean toEnd;
+        private final E hi;
+        private final boolean hiInclusive;
+        private final boolean descending;
+
+        RangeView(boolean fromStart, E lo, boolean loInclusive,
+                  boolean toEnd, E hi, boolean hiInclusive, boolean descending) {
+            if (!fromStart && !toEnd && compare(lo, hi) > 0) {
+                throw new IllegalArgumentException("fromElement > toElement");
+            }
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        public Comparator<? super E> comparator() {
+            Comparator<E> c = BinarySearchTree.this.comparator();
+            return descending ? Collections.reverseOrder(c) : c;
+        }
+
+        public int size() {
+            int below = fromStart ? 0 : countBelow(lo, !loInclusive);
+            int upTo = toEnd ? BinarySearchTree.this.size() : countBelow(hi, hiInclusive);
+            // An open range (x, x) around an item counts it out twice.
+            return Math.max(upTo - below, 0);
+        }
+
+        public boolean isEmpty() {
+            return lowestNode() == null;
+        }
+
+        public boolean contains(Object o) {
+            return inRange((E) o) && BinarySearchTree.this.contains(o);
+        }
+
+        public boolean add(E data) {
+            if (!inRange(data)) {
+                throw new IllegalArgumentException("Item out of range: " + data);
+            }
+            return BinarySearchTree.this.add(data);
+        }
+
+        public boolean remove(Object o) {
+            return inRange((E) o) && BinarySearchTree.this.remove(o);
+        }
+
+        public Iterator<E> iterator() {
+            return descending ? descendingRangeIterator() : ascendingRangeIterator();
+        }
+
+        public Iterator<E> descendingIterator() {
+            return descending ? ascendingRangeIterator() : descendingRangeIterator();
+        }
+
+        public E first() {
+            return dataOrThrow(descending ? highestNode() : lowestNode());
+        }
+
+        public E last() {
+            return dataOrThrow(descending ? lowestNode() : highestNode());
+        }
+
+        public E lower(E data) {
+            return dataOf(descending ? ceilingInRange(data, false) : floorInRange(data, false));
+        }
+
+        public E floor(E data) {
+            return dataOf(descending ? ceilingInRange(data, true) : floorInRange(data, true));
+        }
+
+        public E ceiling(E data) {
+            return dataOf(descending ? floorInRange(data, true) : ceilingInRange(data, true));
+        }
+
+        public E higher(E data) {
+            return dataOf(descending ? floorInRange(data, false) : ceilingInRange(data, false));
+        }
+
+        public E pollFirst() {
+            return poll(descending ? highestNode() : lowestNode());
+        }
+
+        public E pollLast() {
+            return poll(descending ? lowestNode() : highestNode());
+        }
+
+        public NavigableSet<E> descendingSet() {
+            return new RangeView(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+        }
+
+        public NavigableSet<E> subSet(E fromElement, boolean fromInclusive,
+                                      E toElement, boolean toInclusive) {
+            if (descending) {
+                return restrict(false, toElement, toInclusive, false, fromElement, fromInclusive);
+            }
+            return restrict(false, fromElement, fromInclusive, false, toElement, toInclusive);
+        }
+
+        public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+            if (descending) {
+                return restrict(false, toElement, inclusive, true, null, false);
+            }
+            return restrict(true, null, false, false, toElement, inclusive);
+        }
+
+        public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+            if (descending) {
+                return restrict(true, null, false, false, fromElement, inclusive);
+            }
+            return restrict(false, fromElement, inclusive, true, null, false);
+        }
+
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        public SortedSet<E> headSet(E toElement) {
+            return headSet(toElement, false);
+        }
+
+        public SortedSet<E> tailSet(E fromElement) {
+            return tailSet(fromElement, true);
+        }
+
+        /**
+         * Returns a view narrowed to the given ascending bounds, a missing
+         * bound meaning this view's own.
+         */
+        private RangeView restrict(boolean newFromStart, E newLo, boolean newLoInclusive,
+                                   boolean newToEnd, E newHi, boolean newHiInclusive) {
+            if (newFromStart) {
+                newFromStart = fromStart;
+                newLo = lo;
+                newLoInclusive = loInclusive;
+            } else if (!boundInRange(newLo, newLoInclusive)) {
+                throw new IllegalArgumentException("Bound out of range: " + newLo);
+            }
+            if (newToEnd) {
+                newToEnd = toEnd;
+                newHi = hi;
+                newHiInclusive = hiInclusive;
+            } else if (!boundInRange(newHi, newHiInclusive)) {
+                throw new IllegalArgumentException("Bound out of range: " + newHi);
+            }
+            return new RangeView(newFromStart, newLo, newLoInclusive,
+                    newToEnd, newHi, newHiInclusive, descending);
+        }
+
+        private boolean tooLow(E data) {
+            if (fromStart) {
+                return false;
+            }
+            int comparisonResult = compare(data, lo);
+            return comparisonResult < 0 || (comparisonResult == 0 && !loInclusive);
+        }
+
+        private boolean tooHigh(E data) {
+            if (toEnd) {
+                return false;
+            }
+            int comparisonResult = compare(data, hi);
+            return comparisonResult > 0 || (comparisonResult == 0 && !hiInclusive);
+        }
+
+        private boolean inRange(E data) {
+            return !tooLow(data) && !tooHigh(data);
+        }
+
+        /**
+         * Returns whether a narrower view may use the given bound.  An
+         * exclusive bound may sit on an exclusive bound of this view.
+         */
+        private boolean boundInRange(E bound, boolean inclusive) {
+            if (inclusive) {
+                return inRange(bound);
+            }
+            return (fromStart || compare(bound, lo) >= 0) && (toEnd || compare(bound, hi) <= 0);
+        }
+
+        private BinaryTreeNode<E> lowestNode() {
+            BinaryTreeNode<E> n = fromStart ? firstNode(root) : ceilingNode(lo, loInclusive);
+            return (n == null || tooHigh(n.getData())) ? null : n;
+        }
+
+        private BinaryTreeNode<E> highestNode() {
+            BinaryTreeNode<E> n = toEnd ? lastNode(root) : floorNode(hi, hiInclusive);
+            return (n == null || tooLow(n.getData())) ? null : n;
+        }
+
+        private BinaryTreeNode<E> ceilingInRange(E data, boolean inclusive) {
+            if (tooLow(data)) {
+                return lowestNode();
+            }
+            BinaryTreeNode<E> n = ceilingNode(data, inclusive);
+            return (n == null || tooHigh(n.getData())) ? null : n;
+        }
+
+        private BinaryTreeNode<E> floorInRange(E data, boolean inclusive) {
+            if (tooHigh(data)) {
+                return highestNode();
+            }
+            BinaryTreeNode<E> n = floorNode(data, inclusive);
+            return (n == null || tooLow(n.getData())) ? null : n;
+        }
+
+        private Iterator<E> ascendingRangeIterator() {
+            BinaryTreeNode<E> fence = toEnd ? null : ceilingNode(hi, !hiInclusive);
+            return new RangeIterator(lowestNode(), fence, false);
+        }
+
+        private Iterator<E> descendingRangeIterator() {
+            BinaryTreeNode<E> fence = fromStart ? null : floorNode(lo, !loInclusive);
+            return new RangeIterator(highestNode(), fence, true);
+        }
+    }
+
+    /**
+     * Spliterator over the inorder range [current, fence).  A split hands
+     * off the part of the range below a subtree root: the tree root for a
+     * top-level spliterator, and afterwards the root of the subtree lying
+     * between the two ends of the range.
+     */
+    private final class TreeSpliterator implements Spliterator<E> {
+        private BinaryTreeNode<E> current;
+        private final BinaryTreeNode<E> fence;
+        private int side; // 0: top-level, -1: left part of a split, 1: right part
+        private long est;
+        private final int expectedModCount;
+
+        TreeSpliterator(BinaryTreeNode<E> current, BinaryTreeNode<E> fence,
+                        int side, long est, int expectedModCount) {
+            this.current = current;
+            this.fence = fence;
+            this.side = side;
+            this.est = est;
+            this.expectedModCount = expectedModCount;
+        }
+
+        public Spliterator<E> trySplit() {
+            BinaryTreeNode<E> e = current;
+            BinaryTreeNode<E> f = fence;
+            BinaryTreeNode<E> s;
+            if (e == null || e == f) {
+                s = null;
+            } else if (side == 0) {
+                s = root;
+            } else if (side > 0) {
+                s = e.getRight();
+            } else {
+                s = (f != null) ? f.getLeft() : null;
+            }
+            if (s != null && s != e && s != f && compare(e.getData(), s.getData()) < 0) {
+                side = 1;
+                current = s;
+                est >>>= 1;
+                return new TreeSpliterator(e, s, -1, est, expectedModCount);
+            }
+            return null;
+        }
+
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            BinaryTreeNode<E> e = current;
+            if (e == null || e == fence) {
+                return false;
+            }
+            current = nextNode(e);
+            action.accept(e.getData());
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super E> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            BinaryTreeNode<E> f = fence;
+            BinaryTreeNode<E> e = current;
+            current = f;
+            for (; e != null && e != f; e = nextNode(e)) {
+                action.accept(e.getData());
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        public long estimateSize() {
+            return est;
+        }
+
+        public int characteristics() {
+            return (side == 0 ? Spliterator.SIZED : 0)
+                    | Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.ORDERED;
+        }
+
+        public Comparator<? super E> getComparator() {
+            return comparator;
+        }
+    }
+}
@@ -16,6 +16,11 @@ public interface BinaryTreeNode<E> {
      */
     void setData(E data);
 
+    /**
+     * Returns the number of nodes in the tree rooted at this node.
+     */
+    int getSize();
+
     /**
      * Returns the parent of this node, or null if this node is a root.
      */
@@ -0,0 +1,452 @@
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A red-black tree whose nodes hold only an item, two child links and a
+ * color.  RedBlackTree's nodes also carry a parent link and a subtree
+ * size, so these take a fifth less heap and pack more densely into cache
+ * lines.
+ * The price is that there is no rank or select, and nothing can be done
+ * at a node without first descending to it.
+ *
+ * <p>Without parent links there is no way back up to fix the tree after
+ * an update, so add and remove rebalance on the way down, in a single
+ * pass, as in the top-down algorithms of Guibas and Sedgewick in the
+ * form given by Julienne Walker.  Insertion splits any node with two red
+ * children as it passes, so that the new red leaf never ends up below a
+ * red node that cannot be fixed by one rotation at its grandparent.
+ * Removal pushes a red node down ahead of it, so that the leaf it
+ * finally unlinks is red.  Both may recolor or rotate nodes on the
+ * search path even when the item is present (for add) or absent (for
+ * remove); the tree stays valid either way, and the change counts as a
+ * modification for iterators.</p>
+ *
+ * <p>Iteration is in ascending order, keeps a stack of the nodes still to
+ * visit, and is fail-fast like BinarySearchTree's.</p>
+ */
+public class CompactRedBlackTree<E> extends AbstractSet<E> {
+
+    /**
+     * The nodes of a compact tree.  Static, so they hold no reference to
+     * the tree.
+     */
+    static final class Node<E> {
+        E data;
+        Node<E> left;
+        Node<E> right;
+        boolean isRed;
+
+        Node(E data, boolean isRed) {
+            this.data = data;
+            this.isRed = isRed;
+        }
+    }
+
+    private final Comparator<E> comparator;
+
+    private Node<E> root = null;
+
+    private int size = 0;
+
+    /**
+     * Number of structural modifications, used by iterators to detect
+     * concurrent modification.
+     */
+    private int modCount = 0;
+
+    /**
+     * A false root whose right child is the root during add and remove,
+     * so that the root can be rotated like any other node.  Kept between
+     * calls so that updates allocate nothing but the new node.
+     */
+    private final Node<E> head = new Node<E>(null, false);
+
+    /**
+     * Constructs an empty tree that can only accept Comparables as items.
+     */
+    public CompactRedBlackTree() {
+        this(null);
+    }
+
+    /**
+     * Constructs an empty tree that orders its items according to the
+     * given comparator.
+     */
+    public CompactRedBlackTree(Comparator<E> c) {
+        comparator = c;
+    }
+
+    /**
+     * Returns the comparator used to order the items in the tree, or
+     * null if they are in their natural order.
+     */
+    public Comparator<E> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Returns the number of items in the tree.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether or not the tree contains an object with the given
+     * value.
+     */
+    public boolean contains(Object data) {
+        for (Node<E> n = root; n != null;) {
+            int comparisonResult = compare((E) data, n.data);
+            if (comparisonResult == 0) {
+                return true;
+            }
+            n = comparisonResult < 0 ? n.left : n.right;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the smallest item in the tree.
+     *
+     * @exception NoSuchElementException if the tree is empty.
+     */
+    public E first() {
+        if (root == null) {
+            throw new NoSuchElementException();
+        }
+        Node<E> n = root;
+        while (n.left != null) {
+            n = n.left;
+        }
+        return n.data;
+    }
+
+    /**
+     * Returns the largest item in the tree.
+     *
+     * @exception NoSuchElementException if the tree is empty.
+     */
+    public E last() {
+        if (root == null) {
+            throw new NoSuchElementException();
+        }
+        Node<E> n = root;
+        while (n.right != null) {
+            n = n.right;
+        }
+        return n.data;
+    }
+
+    /**
+     * Adds a single data item to the tree.  If there is already an item in
+     * the tree that compares equal to the item being inserted, it is
+     * "overwritten" by the new item.  Returns whether the tree grew.
+     */
+    public boolean add(E data) {
+        if (root == null) {
+            modCount++;
+            root = new Node<E>(data, false);
+            size++;
+            return true;
+        }
+        boolean added = false;
+        boolean restructured = false;
+        // t, g and p are the great-grandparent, grandparent and parent of
+        // q.  last is the side of p that q hangs from, dir the side of q
+        // the search goes next.
+        Node<E> t = head;
+        Node<E> g = null;
+        Node<E> p = null;
+        Node<E> q = root;
+        head.right = root;
+        boolean dir = false;
+        boolean last = false;
+        while (true) {
+            if (q == null) {
+                q = new Node<E>(data, true);
+                setChild(p, dir, q);
+                added = true;
+            } else if (isRed(q.left) && isRed(q.right)) {
+                // Split a 4-node on the way down.
+                restructured = true;
+                q.isRed = true;
+                q.left.isRed = false;
+                q.right.isRed = false;
+            }
+            if (isRed(q) && isRed(p)) {
+                // p is red, so it is not the root and g is a real node.
+                restructured = true;
+                boolean gSide = t.right == g;
+                if (q == child(p, last)) {
+                    setChild(t, gSide, rotate(g, !last));
+                } else {
+                    setChild(t, gSide, rotateTwice(g, !last));
+                }
+            }
+            if (added) {
+                break;
+            }
+            int comparisonResult = compare(data, q.data);
+            if (comparisonResult == 0) {
+                q.data = data;
+                break;
+            }
+            last = dir;
+            dir = comparisonResult > 0;
+            if (g != null) {
+                t = g;
+            }
+            g = p;
+            p = q;
+            q = child(q, dir);
+        }
+        root = head.right;
+        root.isRed = false;
+        head.right = null;
+        if (added || restructured) {
+            modCount++;
+        }
+        if (added) {
+            size++;
+        }
+        return added;
+    }
+
+    /**
+     * Removes the item that compares equal to the given value.  Does
+     * nothing if there is no such item.  Returns whether an item was
+     * removed.
+     */
+    public boolean remove(Object o) {
+        if (root == null) {
+            return false;
+        }
+        E data = (E) o;
+        // q descends to the node that will be unlinked: the item's
+        // predecessor, or the item's own node if it has no left child.
+        // Going down, red is pushed ahead of q so that the node is red.
+        Node<E> g = null;
+        Node<E> p = null;
+        Node<E> q = head;
+        Node<E> found = null;
+        boolean restructured = false;
+        head.right = root;
+        boolean dir = true;
+        while (child(q, dir) != null) {
+            boolean last = dir;
+            g = p;
+            p = q;
+            q = child(q, dir);
+            int comparisonResult = compare(data, q.data);
+            if (comparisonResult == 0) {
+                found = q;
+            }
+            // Past the item, keep to the right to reach its predecessor.
+            dir = comparisonResult > 0;
+            if (!isRed(q) && !isRed(child(q, dir))) {
+                restructured = true;
+                if (isRed(child(q, !dir))) {
+                    Node<E> rotated = rotate(q, dir);
+                    setChild(p, last, rotated);
+                    p = rotated;
+                } else {
+                    Node<E> s = child(p, !last);
+                    if (s != null) {
+                        if (!isRed(s.left) && !isRed(s.right)) {
+                            // Merge p, q and the sibling into a 4-node.
+                            p.isRed = false;
+                            s.isRed = true;
+                            q.isRed = true;
+                        } else {
+                            // The sibling lends q a node.  p is a real
+                            // node here, so g is not null.
+                            boolean gSide = g.right == p;
+                            Node<E> top = isRed(child(s, last))
+                                    ? rotateTwice(p, last) : rotate(p, last);
+                            setChild(g, gSide, top);
+                            q.isRed = true;
+                            top.isRed = true;
+                            top.left.isRed = false;
+                            top.right.isRed = false;
+                        }
+                    }
+                }
+            }
+        }
+        if (found != null) {
+            found.data = q.data;
+            setChild(p, p.right == q, q.left == null ? q.right : q.left);
+            q.data = null;
+            q.left = null;
+            q.right = null;
+            size--;
+        }
+        if (found != null || restructured) {
+            modCount++;
+        }
+        root = head.right;
+        if (root != null) {
+            root.isRed = false;
+        }
+        head.right = null;
+        return found != null;
+    }
+
+    /**
+     * Removes every item from the tree.
+     */
+    public void clear() {
+        modCount++;
+        root = null;
+        size = 0;
+    }
+
+    /**
+     * Returns an iterator over the items of the tree in ascending order.
+     */
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private final Deque<Node<E>> stack = new ArrayDeque<Node<E>>();
+            private E lastReturned = null;
+            private boolean canRemove = false;
+            private int expectedModCount = modCount;
+
+            {
+                for (Node<E> n = root; n != null; n = n.left) {
+                    stack.push(n);
+                }
+            }
+
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            public E next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                Node<E> n = stack.pop();
+                for (Node<E> m = n.right; m != null; m = m.left) {
+                    stack.push(m);
+                }
+                lastReturned = n.data;
+                canRemove = true;
+                return lastReturned;
+            }
+
+            public void remove() {
+                if (!canRemove) {
+                    throw new IllegalStateException();
+                }
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                CompactRedBlackTree.this.remove(lastReturned);
+                // Removal may have rotated any node on the stack, so find
+                // the path to the next item again.
+                stack.clear();
+                for (Node<E> n = root; n != null;) {
+                    if (compare(lastReturned, n.data) < 0) {
+                        stack.push(n);
+                        n = n.left;
+                    } else {
+                        n = n.right;
+                    }
+                }
+                canRemove = false;
+                expectedModCount = modCount;
+            }
+        };
+    }
+
+    /**
+     * Checks the order of the items, the colors and the count, for
+     * tests.  Returns whether the tree is a valid red-black tree.
+     */
+    boolean isValidRedBlackTree() {
+        if (isRed(root)) {
+            return false;
+        }
+        int[] count = new int[1];
+        return blackHeight(root, null, null, count) >= 0 && count[0] == size;
+    }
+
+    /**
+     * Returns the black height of the subtree, whose items must lie
+     * strictly between low and high where those are not null, or -1 if
+     * the subtree is not a valid red-black tree.  Counts its nodes.
+     */
+    private int blackHeight(Node<E> n, Node<E> low, Node<E> high, int[] count) {
+        if (n == null) {
+            return 0;
+        }
+        count[0]++;
+        if ((low != null && compare(low.data, n.data) >= 0)
+                || (high != null && compare(n.data, high.data) >= 0)
+                || (n.isRed && (isRed(n.left) || isRed(n.right)))) {
+            return -1;
+        }
+        int left = blackHeight(n.left, low, n, count);
+        int right = blackHeight(n.right, n, high, count);
+        if (left < 0 || left != right) {
+            return -1;
+        }
+        return left + (n.isRed ? 0 : 1);
+    }
+
+    private int compare(E x, E y) {
+        if (comparator == null) {
+            return ((Comparable<E>) x).compareTo(y);
+        } else {
+            return comparator.compare(x, y);
+        }
+    }
+
+    /**
+     * Rotates the subtree so that the child on the other side from dir
+     * becomes its root, which turns black while the old root turns red.
+     * Returns the new root; the caller links it in.
+     */
+    private static <E> Node<E> rotate(Node<E> n, boolean dir) {
+        Node<E> top = child(n, !dir);
+        setChild(n, !dir, child(top, dir));
+        setChild(top, dir, n);
+        n.isRed = true;
+        top.isRed = false;
+        return top;
+    }
+
+    /**
+     * Rotates the child on the other side from dir the opposite way, then
+     * the subtree towards dir, lifting the inner grandchild to the top.
+     */
+    private static <E> Node<E> rotateTwice(Node<E> n, boolean dir) {
+        setChild(n, !dir, rotate(child(n, !dir), !dir));
+        return rotate(n, dir);
+    }
+
+    private static <E> Node<E> child(Node<E> n, boolean right) {
+        return right ? n.right : n.left;
+    }
+
+    private static <E> void setChild(Node<E> n, boolean right, Node<E> child) {
+        if (right) {
+            n.right = child;
+        } else {
+            n.left = child;
+        }
+    }
+
+    private static boolean isRed(Node<?> n) {
+        return n != null && n.isRed;
+    }
+}
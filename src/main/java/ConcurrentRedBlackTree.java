@@ -0,0 +1,637 @@
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A red-black tree that can be shared between threads.
+ *
+ * <p>Lookups run as optimistic reads: they descend the tree without
+ * locking and then check with a StampedLock that no writer ran in the
+ * meantime, retrying under the read lock if one did.  Readers therefore
+ * never block each other, and only block behind writers that actually
+ * overlap them.  Operations that change the tree hold the write lock.</p>
+ *
+ * <p>Iterators, spliterators and streams work on a snapshot of the items
+ * taken under the read lock.  So do the iterators of range views and the
+ * descending set, whose other reads take the read lock and whose polls
+ * take the write lock.  The static factories and join, and direct access
+ * to the nodes, are not synchronized.</p>
+ */
+public class ConcurrentRedBlackTree extends RedBlackTree {
+
+    /**
+     * A red-black tree of n items is at most 2 log2(n + 1) deep, so no
+     * consistent descent takes more steps than this.
+     */
+    private static final int MAX_DESCENT = 64;
+
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Constructs an empty tree that can only accept Comparables as items.
+     */
+    public ConcurrentRedBlackTree() {
+        this(null);
+    }
+
+    /**
+     * Constructs an empty tree that orders its items according to the
+     * given comparator.
+     */
+    public ConcurrentRedBlackTree(Comparator c) {
+        super(c);
+    }
+
+    /**
+     * Not supported: an optimistic reader may still be walking through a
+     * node after a writer has removed it, so nodes are never reused.
+     *
+     * @exception UnsupportedOperationException always.
+     */
+    public void setNodePool(NodePool pool) {
+        throw new UnsupportedOperationException("Nodes of a concurrent tree cannot be pooled");
+    }
+
+    /**
+     * Returns whether or not the tree contains an object with the given
+     * value.  Does not block unless a writer interferes with the lookup.
+     */
+    public boolean contains(Object data) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            int result = optimisticContains(data);
+            if (result >= 0 && lock.validate(stamp)) {
+                descended(result >>> 1);
+                return (result & 1) == 1;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return super.contains(data);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the number of items in the tree.
+     */
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        BinaryTreeNode r = root;
+        int size = r == null ? 0 : r.getSize();
+        if (lock.validate(stamp)) {
+            return size;
+        }
+        stamp = lock.readLock();
+        try {
+            return super.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int rank(Object data) {
+        long stamp = lock.readLock();
+        try {
+            return super.rank(data);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Object select(int index) {
+        long stamp = lock.readLock();
+        try {
+            return super.select(index);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Object first() {
+        long stamp = lock.readLock();
+        try {
+            return super.first();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Object last() {
+        long stamp = lock.readLock();
+        try {
+            return super.last();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Object lower(Object data) {
+        long stamp = lock.readLock();
+        try {
+            return super.lower(data);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Object floor(Object data) {
+        long stamp = lock.readLock();
+        try {
+            return super.floor(data);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Object ceiling(Object data) {
+        long stamp = lock.readLock();
+        try {
+            return super.ceiling(data);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Object higher(Object data) {
+        long stamp = lock.readLock();
+        try {
+            return super.higher(data);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean add(Object data) {
+        long stamp = lock.writeLock();
+        try {
+            return super.add(data);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean remove(Object data) {
+        long stamp = lock.writeLock();
+        try {
+            return super.remove(data);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes and returns the smallest item, or returns null if the tree
+     * is empty.  The lookup and the removal happen under one write lock.
+     */
+    public Object pollFirst() {
+        long stamp = lock.writeLock();
+        try {
+            BinaryTreeNode n = firstNode(root);
+            if (n == null) {
+                return null;
+            }
+            Object data = n.getData();
+            super.remove(data);
+            return data;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes and returns the largest item, or returns null if the tree
+     * is empty.
+     */
+    public Object pollLast() {
+        long stamp = lock.writeLock();
+        try {
+            BinaryTreeNode n = lastNode(root);
+            if (n == null) {
+                return null;
+            }
+            Object data = n.getData();
+            super.remove(data);
+            return data;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            super.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void union(RedBlackTree other) {
+        RedBlackTree source = stableView(other);
+        long stamp = lock.writeLock();
+        try {
+            super.union(source);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void intersection(RedBlackTree other) {
+        RedBlackTree source = stableView(other);
+        long stamp = lock.writeLock();
+        try {
+            super.intersection(source);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void difference(RedBlackTree other) {
+        RedBlackTree source = stableView(other);
+        long stamp = lock.writeLock();
+        try {
+            super.difference(source);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public RedBlackTree split(Object key) {
+        long stamp = lock.writeLock();
+        try {
+            return super.split(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void removeRange(Object from, Object to) {
+        long stamp = lock.writeLock();
+        try {
+            super.removeRange(from, to);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns a plain red-black tree holding the current items of this
+     * tree.  Takes linear time under the read lock.
+     */
+    public RedBlackTree snapshot() {
+        List<Object> items = snapshotItems();
+        return RedBlackTree.fromSorted(items.iterator(), items.size(), comparator());
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the items.  Removal through
+     * the iterator removes the item from this tree.
+     */
+    public Iterator iterator() {
+        return new SnapshotIterator(snapshotItems(), false);
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the items in descending
+     * order.  Removal through the iterator removes the item from this tree.
+     */
+    public Iterator descendingIterator() {
+        return new SnapshotIterator(snapshotItems(), true);
+    }
+
+    /**
+     * Returns a view of the items in descending order, safe to share
+     * between threads like the tree itself.
+     */
+    public NavigableSet descendingSet() {
+        return new LockedView(super.descendingSet());
+    }
+
+    /**
+     * Returns a view of the items from fromElement to toElement, safe to
+     * share between threads like the tree itself.
+     */
+    public NavigableSet subSet(Object fromElement, boolean fromInclusive,
+                               Object toElement, boolean toInclusive) {
+        return new LockedView(super.subSet(fromElement, fromInclusive, toElement, toInclusive));
+    }
+
+    /**
+     * Returns a view of the items less than (or equal to, if inclusive)
+     * toElement, safe to share between threads like the tree itself.
+     */
+    public NavigableSet headSet(Object toElement, boolean inclusive) {
+        return new LockedView(super.headSet(toElement, inclusive));
+    }
+
+    /**
+     * Returns a view of the items greater than (or equal to, if
+     * inclusive) fromElement, safe to share between threads like the tree
+     * itself.
+     */
+    public NavigableSet tailSet(Object fromElement, boolean inclusive) {
+        return new LockedView(super.tailSet(fromElement, inclusive));
+    }
+
+    /**
+     * Returns a spliterator over a snapshot of the items.
+     */
+    public Spliterator spliterator() {
+        return Spliterators.spliterator(snapshotItems(),
+                Spliterator.DISTINCT | Spliterator.ORDERED);
+    }
+
+    /**
+     * Descends the tree without locking.  Returns twice the number of
+     * nodes visited, plus 1 if an equal item was seen, or -1 if the descent
+     * saw the tree in a state no consistent tree can be in.  The caller
+     * validates the stamp either way.
+     */
+    private int optimisticContains(Object data) {
+        try {
+            BinaryTreeNode n = root;
+            int steps = 0;
+            for (; n != null; steps++) {
+                if (steps > MAX_DESCENT) {
+                    return -1;
+                }
+                int comparisonResult = compare(data, n.getData());
+                if (comparisonResult == 0) {
+                    return (steps + 1) << 1 | 1;
+                }
+                n = comparisonResult < 0 ? n.getLeft() : n.getRight();
+            }
+            return steps << 1;
+        } catch (RuntimeException e) {
+            // A torn read of a node being rewritten; retry under the lock,
+            // where a genuine failure of the comparator will be thrown again.
+            return -1;
+        }
+    }
+
+    private List<Object> snapshotItems() {
+        long stamp = lock.readLock();
+        try {
+            List<Object> items = new ArrayList<Object>(super.size());
+            for (BinaryTreeNode n = firstNode(root); n != null; n = nextNode(n)) {
+                items.add(n.getData());
+            }
+            return items;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Iterator over a list of items taken from the tree, forwards or
+     * backwards, whose remove method removes from the tree.
+     */
+    private class SnapshotIterator implements Iterator {
+        private final ListIterator<Object> items;
+        private final boolean descending;
+        private Object lastReturned;
+        private boolean canRemove = false;
+
+        SnapshotIterator(List<Object> snapshot, boolean descending) {
+            this.items = snapshot.listIterator(descending ? snapshot.size() : 0);
+            this.descending = descending;
+        }
+
+        public boolean hasNext() {
+            return descending ? items.hasPrevious() : items.hasNext();
+        }
+
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = descending ? items.previous() : items.next();
+            canRemove = true;
+            return lastReturned;
+        }
+
+        public void remove() {
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            ConcurrentRedBlackTree.this.remove(lastReturned);
+            canRemove = false;
+        }
+    }
+
+    /**
+     * A range or descending view of the tree, made safe for concurrent use
+     * by locking around the unsynchronized view of BinarySearchTree.
+     * Lookups of single items and additions and removals go through the
+     * tree's own methods, which lock for themselves; the lock is not
+     * reentrant, so the view must not hold it while calling them.
+     */
+    private class LockedView extends AbstractSet implements NavigableSet {
+        private final NavigableSet view;
+
+        LockedView(NavigableSet view) {
+            this.view = view;
+        }
+
+        public Comparator comparator() {
+            return view.comparator();
+        }
+
+        public int size() {
+            long stamp = lock.readLock();
+            try {
+                return view.size();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        public boolean isEmpty() {
+            long stamp = lock.readLock();
+            try {
+                return view.isEmpty();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        public boolean contains(Object o) {
+            return view.contains(o);
+        }
+
+        public boolean add(Object data) {
+            return view.add(data);
+        }
+
+        public boolean remove(Object o) {
+            return view.remove(o);
+        }
+
+        public Iterator iterator() {
+            return new SnapshotIterator(snapshotOf(view), false);
+        }
+
+        public Iterator descendingIterator() {
+            return new SnapshotIterator(snapshotOf(view), true);
+        }
+
+        public Object first() {
+            long stamp = lock.readLock();
+            try {
+                return view.first();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        public Object last() {
+            long stamp = lock.readLock();
+            try {
+                return view.last();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        public Object lower(Object data) {
+            long stamp = lock.readLock();
+            try {
+                return view.lower(data);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        public Object floor(Object data) {
+            long stamp = lock.readLock();
+            try {
+                return view.floor(data);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        public Object ceiling(Object data) {
+            long stamp = lock.readLock();
+            try {
+                return view.ceiling(data);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        public Object higher(Object data) {
+            long stamp = lock.readLock();
+            try {
+                return view.higher(data);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Removes and returns the first item of the view, or returns null
+         * if it is empty.  The lookup and the removal happen under one
+         * write lock.
+         */
+        public Object pollFirst() {
+            long stamp = lock.writeLock();
+            try {
+                if (view.isEmpty()) {
+                    return null;
+                }
+                Object data = view.first();
+                ConcurrentRedBlackTree.super.remove(data);
+                return data;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Removes and returns the last item of the view, or returns null
+         * if it is empty.
+         */
+        public Object pollLast() {
+            long stamp = lock.writeLock();
+            try {
+                if (view.isEmpty()) {
+                    return null;
+                }
+                Object data = view.last();
+                ConcurrentRedBlackTree.super.remove(data);
+                return data;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        public NavigableSet descendingSet() {
+            return new LockedView(view.descendingSet());
+        }
+
+        public NavigableSet subSet(Object fromElement, boolean fromInclusive,
+                                   Object toElement, boolean toInclusive) {
+            return new LockedView(view.subSet(fromElement, fromInclusive, toElement, toInclusive));
+        }
+
+        public NavigableSet headSet(Object toElement, boolean inclusive) {
+            return new LockedView(view.headSet(toElement, inclusive));
+        }
+
+        public NavigableSet tailSet(Object fromElement, boolean inclusive) {
+            return new LockedView(view.tailSet(fromElement, inclusive));
+        }
+
+        public SortedSet subSet(Object fromElement, Object toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        public SortedSet headSet(Object toElement) {
+            return headSet(toElement, false);
+        }
+
+        public SortedSet tailSet(Object fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+
+    /**
+     * Copies the items of a view, in its order, under the read lock.
+     */
+    private List<Object> snapshotOf(NavigableSet view) {
+        long stamp = lock.readLock();
+        try {
+            List<Object> items = new ArrayList<Object>();
+            for (Iterator i = view.iterator(); i.hasNext();) {
+                items.add(i.next());
+            }
+            return items;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns a tree that will not change while this tree's write lock is
+     * held.  Other concurrent trees are snapshotted first rather than
+     * locked, so two trees merging into each other cannot deadlock.
+     */
+    private RedBlackTree stableView(RedBlackTree other) {
+        if (other instanceof ConcurrentRedBlackTree) {
+            return ((ConcurrentRedBlackTree) other).snapshot();
+        }
+        return other;
+    }
+}
@@ -0,0 +1,452 @@
+import java.util.Arrays;
+
+/**
+ * A red-black tree of primitive int keys.  Instead of one object per node,
+ * the keys, the left/right/parent links and the colors are kept in parallel
+ * arrays indexed by node number, so keys are never boxed and the tree costs
+ * a handful of array slots per entry.
+ *
+ * <p>Node 0 is a shared black sentinel standing in for every missing child
+ * (and for the parent of the root), which removes most of the null checks
+ * from the fixup code.  Slots freed by removals are chained through the
+ * left array and reused by later insertions.</p>
+ */
+public class IntRedBlackTree {
+
+    private static final int NIL = 0;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    private boolean[] red;
+
+    /**
+     * Index of the root node, or NIL if the tree is empty.
+     */
+    private int root = NIL;
+
+    /**
+     * Number of keys in the tree.
+     */
+    private int size = 0;
+
+    /**
+     * Next never-used slot.
+     */
+    private int next = 1;
+
+    /**
+     * Head of the list of slots freed by removals, chained through left.
+     */
+    private int free = NIL;
+
+    /**
+     * Constructs an empty tree.
+     */
+    public IntRedBlackTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty tree with room for the given number of keys
+     * before its arrays need to grow.
+     */
+    public IntRedBlackTree(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+        }
+        int length = initialCapacity + 1;
+        keys = new int[length];
+        left = new int[length];
+        right = new int[length];
+        parent = new int[length];
+        red = new boolean[length];
+    }
+
+    /**
+     * Returns the number of keys in the tree.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the tree has no keys.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns whether or not the tree contains the given key.
+     */
+    public boolean contains(int key) {
+        return nodeContaining(key) != NIL;
+    }
+
+    /**
+     * Adds a key to the tree.  Returns false if the key was already
+     * present, in which case the tree is unchanged.
+     */
+    public boolean add(int key) {
+        int p = NIL;
+        int n = root;
+        while (n != NIL) {
+            p = n;
+            if (key == keys[n]) {
+                return false;
+            }
+            n = key < keys[n] ? left[n] : right[n];
+        }
+        int z = allocate(key);
+        parent[z] = p;
+        if (p == NIL) {
+            root = z;
+        } else if (key < keys[p]) {
+            left[p] = z;
+        } else {
+            right[p] = z;
+        }
+        adjustAfterInsertion(z);
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a key from the tree.  Returns false if there was no such
+     * key, in which case the tree is unchanged.
+     */
+    public boolean remove(int key) {
+        int z = nodeContaining(key);
+        if (z == NIL) {
+            return false;
+        }
+        int y = z;
+        boolean removedRed = red[y];
+        int x;
+        if (left[z] == NIL) {
+            x = right[z];
+            transplant(z, x);
+        } else if (right[z] == NIL) {
+            x = left[z];
+            transplant(z, x);
+        } else {
+            // Two children: the successor takes z's place in the tree.
+            y = right[z];
+            while (left[y] != NIL) {
+                y = left[y];
+            }
+            removedRed = red[y];
+            x = right[y];
+            if (parent[y] == z) {
+                parent[x] = y;
+            } else {
+                transplant(y, x);
+                right[y] = right[z];
+                parent[right[y]] = y;
+            }
+            transplant(z, y);
+            left[y] = left[z];
+            parent[left[y]] = y;
+            red[y] = red[z];
+        }
+        if (!removedRed) {
+            adjustAfterRemoval(x);
+        }
+        release(z);
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes every key from the tree, keeping the allocated arrays.
+     */
+    public void clear() {
+        root = NIL;
+        size = 0;
+        next = 1;
+        free = NIL;
+    }
+
+    /**
+     * Returns the keys of the tree in ascending order.
+     */
+    public int[] toArray() {
+        int[] result = new int[size];
+        int i = 0;
+        for (int n = minimum(root); n != NIL; n = successor(n)) {
+            result[i++] = keys[n];
+        }
+        return result;
+    }
+
+    /**
+     * Checks the order of the keys, the parent links, the colors and the
+     * count, for tests.  Returns whether the tree is a valid red-black
+     * tree.
+     */
+    boolean isValidRedBlackTree() {
+        if (red[root] || red[NIL] || (root != NIL && parent[root] != NIL)) {
+            return false;
+        }
+        int[] count = new int[1];
+        return blackHeight(root, false, 0, false, 0, count) >= 0 && count[0] == size;
+    }
+
+    /**
+     * Returns the black height of the subtree, whose keys must lie
+     * strictly between low and high where those bounds are present, or -1
+     * if it is not a valid red-black tree.  Counts its nodes.
+     */
+    private int blackHeight(int n, boolean hasLow, int low, boolean hasHigh, int high,
+                            int[] count) {
+        if (n == NIL) {
+            return 0;
+        }
+        count[0]++;
+        int k = keys[n];
+        int l = left[n];
+        int r = right[n];
+        if ((hasLow && k <= low) || (hasHigh && k >= high)
+                || (l != NIL && parent[l] != n) || (r != NIL && parent[r] != n)
+                || (red[n] && (red[l] || red[r]))) {
+            return -1;
+        }
+        int leftHeight = blackHeight(l, hasLow, low, true, k, count);
+        int rightHeight = blackHeight(r, true, k, hasHigh, high, count);
+        if (leftHeight < 0 || leftHeight != rightHeight) {
+            return -1;
+        }
+        return leftHeight + (red[n] ? 0 : 1);
+    }
+
+    private int nodeContaining(int key) {
+        int n = root;
+        while (n != NIL) {
+            int k = keys[n];
+            if (key == k) {
+                return n;
+            }
+            n = key < k ? left[n] : right[n];
+        }
+        return NIL;
+    }
+
+    private int minimum(int n) {
+        if (n == NIL) {
+            return NIL;
+        }
+        while (left[n] != NIL) {
+            n = left[n];
+        }
+        return n;
+    }
+
+    private int successor(int n) {
+        if (right[n] != NIL) {
+            return minimum(right[n]);
+        }
+        int p = parent[n];
+        while (p != NIL && n == right[p]) {
+            n = p;
+            p = parent[p];
+        }
+        return p;
+    }
+
+    // Slot management.
+
+    private int allocate(int key) {
+        int z;
+        if (free != NIL) {
+            z = free;
+            free = left[z];
+        } else {
+            if (next == keys.length) {
+                grow();
+            }
+            z = next++;
+        }
+        keys[z] = key;
+        left[z] = NIL;
+        right[z] = NIL;
+        red[z] = true;
+        return z;
+    }
+
+    private void release(int z) {
+        left[z] = free;
+        free = z;
+    }
+
+    private void grow() {
+        int length = Math.max(keys.length * 2, DEFAULT_CAPACITY + 1);
+        keys = Arrays.copyOf(keys, length);
+        left = Arrays.copyOf(left, length);
+        right = Arrays.copyOf(right, length);
+        parent = Arrays.copyOf(parent, length);
+        red = Arrays.copyOf(red, length);
+    }
+
+    // Structural helpers.  The sentinel's parent link is written by
+    // transplant so that the removal fixup can climb from it.
+
+    private void transplant(int u, int v) {
+        int p = parent[u];
+        if (p == NIL) {
+            root = v;
+        } else if (u == left[p]) {
+            left[p] = v;
+        } else {
+            right[p] = v;
+        }
+        parent[v] = p;
+    }
+
+    private void rotateLeft(int x) {
+        int y = right[x];
+        right[x] = left[y];
+        if (left[y] != NIL) {
+            parent[left[y]] = x;
+        }
+        int p = parent[x];
+        parent[y] = p;
+        if (p == NIL) {
+            root = y;
+        } else if (x == left[p]) {
+            left[p] = y;
+        } else {
+            right[p] = y;
+        }
+        left[y] = x;
+        parent[x] = y;
+    }
+
+    private void rotateRight(int x) {
+        int y = left[x];
+        left[x] = right[y];
+        if (right[y] != NIL) {
+            parent[right[y]] = x;
+        }
+        int p = parent[x];
+        parent[y] = p;
+        if (p == NIL) {
+            root = y;
+        } else if (x == right[p]) {
+            right[p] = y;
+        } else {
+            left[p] = y;
+        }
+        right[y] = x;
+        parent[x] = y;
+    }
+
+    /**
+     * Classic algorithm for fixing up a tree after inserting a red node.
+     */
+    private void adjustAfterInsertion(int z) {
+        while (red[parent[z]]) {
+            int p = parent[z];
+            int g = parent[p];
+            if (p == left[g]) {
+                int uncle = right[g];
+                if (red[uncle]) {
+                    red[p] = false;
+                    red[uncle] = false;
+                    red[g] = true;
+                    z = g;
+                } else {
+                    if (z == right[p]) {
+                        z = p;
+                        rotateLeft(z);
+                        p = parent[z];
+                    }
+                    red[p] = false;
+                    red[g] = true;
+                    rotateRight(g);
+                }
+            } else {
+                int uncle = left[g];
+                if (red[uncle]) {
+                    red[p] = false;
+                    red[uncle] = false;
+                    red[g] = true;
+                    z = g;
+                } else {
+                    if (z == left[p]) {
+                        z = p;
+                        rotateRight(z);
+                        p = parent[z];
+                    }
+                    red[p] = false;
+                    red[g] = true;
+                    rotateLeft(g);
+                }
+            }
+        }
+        red[root] = false;
+    }
+
+    /**
+     * Classic algorithm for fixing up a tree after removing a black node;
+     * the parameter is the node (possibly the sentinel) that took its place.
+     */
+    private void adjustAfterRemoval(int x) {
+        while (x != root && !red[x]) {
+            int p = parent[x];
+            if (x == left[p]) {
+                int sibling = right[p];
+                if (red[sibling]) {
+                    red[sibling] = false;
+                    red[p] = true;
+                    rotateLeft(p);
+                    sibling = right[p];
+                }
+                if (!red[left[sibling]] && !red[right[sibling]]) {
+                    red[sibling] = true;
+                    x = p;
+                } else {
+                    if (!red[right[sibling]]) {
+                        red[left[sibling]] = false;
+                        red[sibling] = true;
+                        rotateRight(sibling);
+                        sibling = right[p];
+                    }
+                    red[sibling] = red[p];
+                    red[p] = false;
+                    red[right[sibling]] = false;
+                    rotateLeft(p);
+                    x = root;
+                }
+            } else {
+                int sibling = left[p];
+                if (red[sibling]) {
+                    red[sibling] = false;
+                    red[p] = true;
+                    rotateRight(p);
+                    sibling = left[p];
+                }
+                if (!red[left[sibling]] && !red[right[sibling]]) {
+                    red[sibling] = true;
+                    x = p;
+                } else {
+                    if (!red[left[sibling]]) {
+                        red[right[sibling]] = false;
+                        red[sibling] = true;
+                        rotateLeft(sibling);
+                        sibling = left[p];
+                    }
+                    red[sibling] = red[p];
+                    red[p] = false;
+                    red[left[sibling]] = false;
+                    rotateRight(p);
+                    x = root;
+                }
+            }
+        }
+        red[x] = false;
+    }
+}
@@ -7,12 +7,21 @@
  * <p>LinkedBinaryTreeNode objects are pretty mean: if one tries
  * to mix them up with different kinds of binary tree nodes,
  * and exception may be thrown.</p>
+ *
+ * <p>Each node also records the size of the subtree rooted at it.  The
+ * public linking methods keep the sizes of all ancestors up to date.</p>
+ *
+ * <p>The tree classes in this package relink nodes through a separate,
+ * unchecked set of methods.  They skip the walk up the ancestors that
+ * setLeft and setRight do on every call, so a rotation is constant
+ * time.</p>
  */
 public class LinkedBinaryTreeNode<E> implements BinaryTreeNode<E> {
     protected E data;
     protected LinkedBinaryTreeNode<E> parent;
     protected LinkedBinaryTreeNode<E> left;
     protected LinkedBinaryTreeNode<E> right;
+    protected int size = 1;
 
     /**
      * Constructs a node as the root of its own one-element tree.
@@ -37,6 +46,13 @@ public class LinkedBinaryTreeNode<E> implements BinaryTreeNode<E> {
         this.data = data;
     }
 
+    /**
+     * Returns the number of nodes in the tree rooted at this node.
+     */
+    public int getSize() {
+        return size;
+    }
+
     /**
      * Returns the parent of this node, or null if this node is a root.
      */
@@ -74,10 +90,12 @@ public class LinkedBinaryTreeNode<E> implements BinaryTreeNode<E> {
         // Break old links, then reconnect properly.
         if (this.left != null) {
             left.parent = null;
+            addToSizes(this, -left.size);
         }
         if (childNode != null) {
             childNode.removeFromParent();
             childNode.parent = this;
+            addToSizes(this, childNode.size);
         }
         this.left = childNode;
     }
@@ -112,10 +130,12 @@ public class LinkedBinaryTreeNode<E> implements BinaryTreeNode<E> {
         // Break old links, then reconnect properly.
         if (right != null) {
             right.parent = null;
+            addToSizes(this, -right.size);
         }
         if (childNode != null) {
             childNode.removeFromParent();
             childNode.parent = this;
+            addToSizes(this, childNode.size);
         }
         this.right = childNode;
     }
@@ -126,6 +146,7 @@ public class LinkedBinaryTreeNode<E> implements BinaryTreeNode<E> {
      */
     public void removeFromParent() {
         if (parent != null) {
+            addToSizes(parent, -size);
             if (parent.left == this) {
                 parent.left = null;
             } else if (parent.right == this) {
@@ -135,30 +156,162 @@ public class LinkedBinaryTreeNode<E> implements BinaryTreeNode<E> {
         }
     }
 
+    // Unchecked linking for the tree algorithms.  The caller guarantees
+    // that no cycle is created, fixes up the link from the child's old
+    // parent, and keeps subtree sizes right.
+
+    /**
+     * Makes child, which may be null, the left child of this node.
+     */
+    void linkLeft(LinkedBinaryTreeNode<E> child) {
+        left = child;
+        if (child != null) {
+            child.parent = this;
+        }
+    }
+
     /**
-     * Visits the nodes in this tree in preorder.
+     * Makes child, which may be null, the right child of this node.
+     */
+    void linkRight(LinkedBinaryTreeNode<E> child) {
+        right = child;
+        if (child != null) {
+            child.parent = this;
+        }
+    }
+
+    /**
+     * Clears the link from this node to its parent, leaving the parent's
+     * link to this node alone.
+     */
+    void unlinkParent() {
+        parent = null;
+    }
+
+    /**
+     * Drops this node's data and links and makes it a one-node tree
+     * again, ready to be reused.  Links to this node are left alone.
+     */
+    void recycle() {
+        data = null;
+        parent = null;
+        left = null;
+        right = null;
+        size = 1;
+    }
+
+    /**
+     * Recomputes the size of this node's subtree from its children.
+     */
+    void updateSize() {
+        size = 1 + (left == null ? 0 : left.size) + (right == null ? 0 : right.size);
+    }
+
+    /**
+     * Adds delta to the subtree size of the given node, which may be
+     * null, and of all its ancestors.
+     */
+    static void addToSizes(LinkedBinaryTreeNode<?> n, int delta) {
+        for (; n != null; n = n.parent) {
+            n.size += delta;
+        }
+    }
+
+    /**
+     * Visits the nodes in this tree in preorder.  The traversal follows
+     * parent links instead of recursing, so it needs no stack however
+     * deep the tree is.
      */
     public void traversePreorder(BinaryTreeNode.Visitor visitor) {
-        visitor.visit(this);
-        if (left != null) left.traversePreorder(visitor);
-        if (right != null) right.traversePreorder(visitor);
+        LinkedBinaryTreeNode<E> n = this;
+        while (n != null) {
+            visitor.visit(n);
+            if (n.left != null) {
+                n = n.left;
+            } else if (n.right != null) {
+                n = n.right;
+            } else {
+                n = nextPreorderSibling(n);
+            }
+        }
     }
 
     /**
-     * Visits the nodes in this tree in postorder.
+     * Visits the nodes in this tree in postorder.  The next node is found
+     * before the current one is visited, so a visitor may detach the node
+     * it is given.
      */
     public void traversePostorder(Visitor visitor) {
-        if (left != null) left.traversePostorder(visitor);
-        if (right != null) right.traversePostorder(visitor);
-        visitor.visit(this);
+        LinkedBinaryTreeNode<E> n = firstPostorder(this);
+        while (n != null) {
+            LinkedBinaryTreeNode<E> next;
+            if (n == this) {
+                next = null;
+            } else if (n == n.parent.left && n.parent.right != null) {
+                next = firstPostorder(n.parent.right);
+            } else {
+                next = n.parent;
+            }
+            visitor.visit(n);
+            n = next;
+        }
     }
 
     /**
      * Visits the nodes in this tree in inorder.
      */
     public void traverseInorder(Visitor visitor) {
-        if (left != null) left.traverseInorder(visitor);
-        visitor.visit(this);
-        if (right != null) right.traverseInorder(visitor);
+        LinkedBinaryTreeNode<E> n = this;
+        while (n.left != null) {
+            n = n.left;
+        }
+        while (n != null) {
+            LinkedBinaryTreeNode<E> next;
+            if (n.right != null) {
+                next = n.right;
+                while (next.left != null) {
+                    next = next.left;
+                }
+            } else {
+                next = n;
+                while (next != this && next == next.parent.right) {
+                    next = next.parent;
+                }
+                next = (next == this) ? null : next.parent;
+            }
+            visitor.visit(n);
+            n = next;
+        }
+    }
+
+    /**
+     * Climbs from a node whose subtree has been fully visited in preorder
+     * to the next right subtree to visit, staying within this tree.
+     */
+    private LinkedBinaryTreeNode<E> nextPreorderSibling(LinkedBinaryTreeNode<E> n) {
+        while (n != this) {
+            LinkedBinaryTreeNode<E> p = n.parent;
+            if (n == p.left && p.right != null) {
+                return p.right;
+            }
+            n = p;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first node visited by a postorder traversal of the
+     * tree rooted at the given node.
+     */
+    private static <E> LinkedBinaryTreeNode<E> firstPostorder(LinkedBinaryTreeNode<E> n) {
+        while (true) {
+            if (n.left != null) {
+                n = n.left;
+            } else if (n.right != null) {
+                n = n.right;
+            } else {
+                return n;
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,117 @@
+/**
+ * A bounded free list of detached tree nodes, kept for reuse so that a
+ * tree under steady add and remove churn allocates almost nothing.
+ *
+ * <p>A tree with a pool puts every node it unlinks in remove and clear
+ * into the pool, and takes nodes from it before allocating new ones.
+ * Several trees may share a pool, so that the nodes of a cleared tree go
+ * to the next one, as long as they are trees of the same class: a pool
+ * only ever holds nodes of one class.  Like the trees, a pool is not
+ * thread-safe.</p>
+ *
+ * <p>Pooled nodes are chained through their right links and hold no
+ * data, so a pool keeps no items alive.  Nodes must not be pooled while
+ * anything outside the tree can still reach them.</p>
+ */
+public class NodePool {
+
+    private final int capacity;
+    private LinkedBinaryTreeNode<?> free = null;
+    private int size = 0;
+
+    /**
+     * The class of the nodes in the pool, fixed by the first one put in.
+     */
+    private Class<?> nodeClass = null;
+
+    /**
+     * Constructs an empty pool that holds at most capacity nodes.
+     *
+     * @exception IllegalArgumentException if the capacity is negative.
+     */
+    public NodePool(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the number of nodes the pool can hold.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of nodes in the pool.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the pool has room for another node.
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Drops every node in the pool.
+     */
+    public void clear() {
+        free = null;
+        size = 0;
+    }
+
+    /**
+     * Removes a node of exactly the given class from the pool and returns
+     * it holding the given data, unlinked and with a size of one.  Returns
+     * null if the pool is empty or holds nodes of another class.
+     */
+    <E> LinkedBinaryTreeNode<E> take(Class<?> nodeClass, E data) {
+        if (free == null || this.nodeClass != nodeClass) {
+            return null;
+        }
+        // Pooled nodes hold no data, so any of them can take the caller's.
+        LinkedBinaryTreeNode<E> node = (LinkedBinaryTreeNode<E>) free;
+        free = node.right;
+        size--;
+        node.right = null;
+        node.data = data;
+        return node;
+    }
+
+    /**
+     * Puts a node that has left its tree into the pool, clearing its data
+     * and links, or drops it if the pool is full.  Returns whether the
+     * node was kept.
+     *
+     * @exception IllegalArgumentException if the pool holds nodes of
+     * another class.
+     */
+    boolean release(LinkedBinaryTreeNode<?> node) {
+        if (nodeClass == null) {
+            nodeClass = node.getClass();
+        } else if (node.getClass() != nodeClass) {
+            throw new IllegalArgumentException("Pool holds " + nodeClass.getName()
+                    + ", not " + node.getClass().getName());
+        }
+        if (size == capacity) {
+            return false;
+        }
+        node.recycle();
+        push(node);
+        size++;
+        return true;
+    }
+
+    /**
+     * Links a recycled node in front of the free list.
+     */
+    private <E> void push(LinkedBinaryTreeNode<E> node) {
+        node.right = (LinkedBinaryTreeNode<E>) free;
+        free = node;
+    }
+}
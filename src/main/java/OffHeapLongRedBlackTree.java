@@ -0,0 +1,620 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A red-black tree of primitive long keys whose nodes live outside the
+ * Java heap, in direct ByteBuffers.  It works like IntRedBlackTree, with
+ * node numbers in place of references, but the keys, links and colors are
+ * packed into native memory instead of parallel arrays, so however many
+ * keys the tree holds the garbage collector sees only the tree and its
+ * few buffers, and never has to trace or copy a node.
+ *
+ * <p>Each node takes NODE_BYTES bytes: the key, the left, right and parent
+ * node numbers, and the color.  A single buffer can hold at most 2GB, so
+ * nodes are kept in chunks of a fixed number of nodes, and a node number
+ * splits into a chunk and a position in it.  The first chunk starts small
+ * and is copied into a larger one as it fills, like an array; once it is
+ * full size, growing adds a chunk and never copies.  A tree of a hundred
+ * million keys uses about 100 chunks of 24MB.</p>
+ *
+ * <p>Node 0 is a shared black sentinel standing in for every missing child
+ * (and for the parent of the root), as in IntRedBlackTree.  Slots freed by
+ * removals are chained through their left links and reused.  The memory is
+ * given back to the operating system only when the tree becomes
+ * unreachable and its buffers are collected; clear keeps it for reuse.</p>
+ *
+ * <p>Direct buffers are limited as a whole by the JVM option
+ * -XX:MaxDirectMemorySize, which by default is the maximum heap size
+ * (-Xmx), not the free memory of the machine.  A large tree on a small
+ * heap therefore needs the option raised, for example
+ * -XX:MaxDirectMemorySize=4g for about 178 million keys.</p>
+ */
+public class OffHeapLongRedBlackTree {
+
+    /**
+     * Bytes per node.
+     */
+    static final int NODE_BYTES = 24;
+
+    private static final int KEY = 0;
+    private static final int LEFT = 8;
+    private static final int RIGHT = 12;
+    private static final int PARENT = 16;
+    private static final int COLOR = 20;
+
+    private static final int NIL = 0;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Node numbers per chunk, as a power of two.
+     */
+    private static final int DEFAULT_CHUNK_SHIFT = 20;
+
+    private final int chunkShift;
+    private final int chunkMask;
+
+    /**
+     * The chunks holding the nodes.  Every chunk but the first always has
+     * room for a full chunk of nodes.
+     */
+    private ByteBuffer[] chunks;
+
+    /**
+     * Number of chunks in use.
+     */
+    private int chunkCount;
+
+    /**
+     * Number of node slots in the allocated chunks.
+     */
+    private long capacity;
+
+    /**
+     * Node number of the root, or NIL if the tree is empty.
+     */
+    private int root = NIL;
+
+    /**
+     * Number of keys in the tree.
+     */
+    private int size = 0;
+
+    /**
+     * Next never-used slot.
+     */
+    private int next = 1;
+
+    /**
+     * Head of the list of slots freed by removals, chained through left.
+     */
+    private int free = NIL;
+
+    /**
+     * Constructs an empty tree.
+     */
+    public OffHeapLongRedBlackTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty tree with room for the given number of keys
+     * before it needs more memory.
+     */
+    public OffHeapLongRedBlackTree(int initialCapacity) {
+        this(initialCapacity, DEFAULT_CHUNK_SHIFT);
+    }
+
+    /**
+     * Constructs an empty tree with 2^chunkShift nodes per chunk.  Small
+     * chunks are for tests of the chunking.
+     */
+    OffHeapLongRedBlackTree(int initialCapacity, int chunkShift) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+        }
+        if (initialCapacity == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Capacity too large: " + initialCapacity);
+        }
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1 << chunkShift) - 1;
+        int nodes = initialCapacity + 1;
+        int chunkNodes = 1 << chunkShift;
+        chunks = new ByteBuffer[Math.max(1, (int) (((long) nodes + chunkNodes - 1) >>> chunkShift))];
+        if (nodes <= chunkNodes) {
+            addChunk(nodes);
+        } else {
+            while (capacity < nodes) {
+                addChunk(chunkNodes);
+            }
+        }
+        // The sentinel: black, with no children.
+        setLeft(NIL, NIL);
+        setRight(NIL, NIL);
+        setParent(NIL, NIL);
+        setRed(NIL, false);
+    }
+
+    /**
+     * Returns the number of keys in the tree.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the tree has no keys.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of bytes of native memory held by the tree,
+     * including free slots.
+     */
+    public long allocatedBytes() {
+        return capacity * NODE_BYTES;
+    }
+
+    /**
+     * Returns whether or not the tree contains the given key.
+     */
+    public boolean contains(long key) {
+        return nodeContaining(key) != NIL;
+    }
+
+    /**
+     * Adds a key to the tree.  Returns false if the key was already
+     * present, in which case the tree is unchanged.
+     *
+     * @exception OutOfMemoryError if the tree needs another buffer and the
+     * direct memory limit is reached; the tree is unchanged.
+     */
+    public boolean add(long key) {
+        int p = NIL;
+        int n = root;
+        while (n != NIL) {
+            p = n;
+            long k = key(n);
+            if (key == k) {
+                return false;
+            }
+            n = key < k ? left(n) : right(n);
+        }
+        int z = allocate(key);
+        setParent(z, p);
+        if (p == NIL) {
+            root = z;
+        } else if (key < key(p)) {
+            setLeft(p, z);
+        } else {
+            setRight(p, z);
+        }
+        adjustAfterInsertion(z);
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a key from the tree.  Returns false if there was no such
+     * key, in which case the tree is unchanged.
+     */
+    public boolean remove(long key) {
+        int z = nodeContaining(key);
+        if (z == NIL) {
+            return false;
+        }
+        int y = z;
+        boolean removedRed = isRed(y);
+        int x;
+        if (left(z) == NIL) {
+            x = right(z);
+            transplant(z, x);
+        } else if (right(z) == NIL) {
+            x = left(z);
+            transplant(z, x);
+        } else {
+            // Two children: the successor takes z's place in the tree.
+            y = right(z);
+            while (left(y) != NIL) {
+                y = left(y);
+            }
+            removedRed = isRed(y);
+            x = right(y);
+            if (parent(y) == z) {
+                setParent(x, y);
+            } else {
+                transplant(y, x);
+                setRight(y, right(z));
+                setParent(right(y), y);
+            }
+            transplant(z, y);
+            setLeft(y, left(z));
+            setParent(left(y), y);
+            setRed(y, isRed(z));
+        }
+        if (!removedRed) {
+            adjustAfterRemoval(x);
+        }
+        release(z);
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes every key from the tree, keeping the allocated memory.
+     */
+    public void clear() {
+        root = NIL;
+        size = 0;
+        next = 1;
+        free = NIL;
+    }
+
+    /**
+     * Returns the keys of the tree in ascending order.
+     */
+    public long[] toArray() {
+        long[] result = new long[size];
+        int i = 0;
+        for (int n = minimum(root); n != NIL; n = successor(n)) {
+            result[i++] = key(n);
+        }
+        return result;
+    }
+
+    /**
+     * Checks the order of the keys, the links, the colors and the count,
+     * for tests.  Returns whether the tree is a valid red-black tree.
+     */
+    boolean isValidRedBlackTree() {
+        if (isRed(root) || isRed(NIL) || (root != NIL && parent(root) != NIL)) {
+            return false;
+        }
+        int[] count = new int[1];
+        return blackHeight(root, false, 0, false, 0, count) >= 0 && count[0] == size;
+    }
+
+    /**
+     * Returns the black height of the subtree, whose keys must lie
+     * strictly between low and high where those bounds are present, or -1
+     * if it is not a valid red-black tree.  Counts its nodes.
+     */
+    private int blackHeight(int n, boolean hasLow, long low, boolean hasHigh, long high,
+                            int[] count) {
+        if (n == NIL) {
+            return 0;
+        }
+        count[0]++;
+        long k = key(n);
+        int l = left(n);
+        int r = right(n);
+        if ((hasLow && k <= low) || (hasHigh && k >= high)
+                || (l != NIL && parent(l) != n) || (r != NIL && parent(r) != n)
+                || (isRed(n) && (isRed(l) || isRed(r)))) {
+            return -1;
+        }
+        int leftHeight = blackHeight(l, hasLow, low, true, k, count);
+        int rightHeight = blackHeight(r, true, k, hasHigh, high, count);
+        if (leftHeight < 0 || leftHeight != rightHeight) {
+            return -1;
+        }
+        return leftHeight + (isRed(n) ? 0 : 1);
+    }
+
+    private int nodeContaining(long key) {
+        int n = root;
+        while (n != NIL) {
+            long k = key(n);
+            if (key == k) {
+                return n;
+            }
+            n = key < k ? left(n) : right(n);
+        }
+        return NIL;
+    }
+
+    private int minimum(int n) {
+        if (n == NIL) {
+            return NIL;
+        }
+        while (left(n) != NIL) {
+            n = left(n);
+        }
+        return n;
+    }
+
+    private int successor(int n) {
+        if (right(n) != NIL) {
+            return minimum(right(n));
+        }
+        int p = parent(n);
+        while (p != NIL && n == right(p)) {
+            n = p;
+            p = parent(p);
+        }
+        return p;
+    }
+
+    // Node fields.  A node number selects a chunk with its high bits and a
+    // node within the chunk with its low bits.
+
+    private ByteBuffer chunk(int n) {
+        return chunks[n >>> chunkShift];
+    }
+
+    private int offset(int n, int field) {
+        return (n & chunkMask) * NODE_BYTES + field;
+    }
+
+    private long key(int n) {
+        return chunk(n).getLong(offset(n, KEY));
+    }
+
+    private void setKey(int n, long key) {
+        chunk(n).putLong(offset(n, KEY), key);
+    }
+
+    private int left(int n) {
+        return chunk(n).getInt(offset(n, LEFT));
+    }
+
+    private void setLeft(int n, int child) {
+        chunk(n).putInt(offset(n, LEFT), child);
+    }
+
+    private int right(int n) {
+        return chunk(n).getInt(offset(n, RIGHT));
+    }
+
+    private void setRight(int n, int child) {
+        chunk(n).putInt(offset(n, RIGHT), child);
+    }
+
+    private int parent(int n) {
+        return chunk(n).getInt(offset(n, PARENT));
+    }
+
+    private void setParent(int n, int p) {
+        chunk(n).putInt(offset(n, PARENT), p);
+    }
+
+    private boolean isRed(int n) {
+        return chunk(n).getInt(offset(n, COLOR)) != 0;
+    }
+
+    private void setRed(int n, boolean red) {
+        chunk(n).putInt(offset(n, COLOR), red ? 1 : 0);
+    }
+
+    // Slot management.
+
+    private int allocate(long key) {
+        int z;
+        if (free != NIL) {
+            z = free;
+            free = left(z);
+        } else {
+            if (next == capacity) {
+                grow();
+            }
+            z = next++;
+        }
+        setKey(z, key);
+        setLeft(z, NIL);
+        setRight(z, NIL);
+        setRed(z, true);
+        return z;
+    }
+
+    private void release(int z) {
+        setLeft(z, free);
+        free = z;
+    }
+
+    /**
+     * Makes room for at least one more node: doubles the first chunk while
+     * it is smaller than a full chunk, and adds a chunk after that.
+     */
+    private void grow() {
+        if (capacity == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Tree is full");
+        }
+        int chunkNodes = 1 << chunkShift;
+        if (chunkCount == 1 && capacity < chunkNodes) {
+            int nodes = (int) Math.min(Math.max(capacity * 2, DEFAULT_CAPACITY + 1), chunkNodes);
+            ByteBuffer old = chunks[0];
+            ByteBuffer copy = allocateChunk(nodes);
+            old.clear();
+            copy.put(old);
+            chunks[0] = copy;
+            capacity = nodes;
+        } else {
+            if (chunkCount == chunks.length) {
+                ByteBuffer[] larger = new ByteBuffer[chunkCount * 2];
+                System.arraycopy(chunks, 0, larger, 0, chunkCount);
+                chunks = larger;
+            }
+            // The last node number must stay a positive int.
+            addChunk((int) Math.min(chunkNodes, Integer.MAX_VALUE - capacity));
+        }
+    }
+
+    private void addChunk(int nodes) {
+        chunks[chunkCount++] = allocateChunk(nodes);
+        capacity += nodes;
+    }
+
+    private static ByteBuffer allocateChunk(int nodes) {
+        try {
+            return ByteBuffer.allocateDirect(nodes * NODE_BYTES).order(ByteOrder.nativeOrder());
+        } catch (OutOfMemoryError e) {
+            OutOfMemoryError hint = new OutOfMemoryError("Cannot allocate " + nodes * NODE_BYTES
+                    + " bytes of direct memory for tree nodes; raise -XX:MaxDirectMemorySize");
+            hint.initCause(e);
+            throw hint;
+        }
+    }
+
+    // Structural helpers.  The sentinel's parent link is written by
+    // transplant so that the removal fixup can climb from it.
+
+    private void transplant(int u, int v) {
+        int p = parent(u);
+        if (p == NIL) {
+            root = v;
+        } else if (u == left(p)) {
+            setLeft(p, v);
+        } else {
+            setRight(p, v);
+        }
+        setParent(v, p);
+    }
+
+    private void rotateLeft(int x) {
+        int y = right(x);
+        int yLeft = left(y);
+        setRight(x, yLeft);
+        if (yLeft != NIL) {
+            setParent(yLeft, x);
+        }
+        int p = parent(x);
+        setParent(y, p);
+        if (p == NIL) {
+            root = y;
+        } else if (x == left(p)) {
+            setLeft(p, y);
+        } else {
+            setRight(p, y);
+        }
+        setLeft(y, x);
+        setParent(x, y);
+    }
+
+    private void rotateRight(int x) {
+        int y = left(x);
+        int yRight = right(y);
+        setLeft(x, yRight);
+        if (yRight != NIL) {
+            setParent(yRight, x);
+        }
+        int p = parent(x);
+        setParent(y, p);
+        if (p == NIL) {
+            root = y;
+        } else if (x == right(p)) {
+            setRight(p, y);
+        } else {
+            setLeft(p, y);
+        }
+        setRight(y, x);
+        setParent(x, y);
+    }
+
+    /**
+     * Classic algorithm for fixing up a tree after inserting a red node.
+     */
+    private void adjustAfterInsertion(int z) {
+        while (isRed(parent(z))) {
+            int p = parent(z);
+            int g = parent(p);
+            if (p == left(g)) {
+                int uncle = right(g);
+                if (isRed(uncle)) {
+                    setRed(p, false);
+                    setRed(uncle, false);
+                    setRed(g, true);
+                    z = g;
+                } else {
+                    if (z == right(p)) {
+                        z = p;
+                        rotateLeft(z);
+                        p = parent(z);
+                    }
+                    setRed(p, false);
+                    setRed(g, true);
+                    rotateRight(g);
+                }
+            } else {
+                int uncle = left(g);
+                if (isRed(uncle)) {
+                    setRed(p, false);
+                    setRed(uncle, false);
+                    setRed(g, true);
+                    z = g;
+                } else {
+                    if (z == left(p)) {
+                        z = p;
+                        rotateRight(z);
+                        p = parent(z);
+                    }
+                    setRed(p, false);
+                    setRed(g, true);
+                    rotateLeft(g);
+                }
+            }
+        }
+        setRed(root, false);
+    }
+
+    /**
+     * Classic algorithm for fixing up a tree after removing a black node;
+     * the parameter is the node (possibly the sentinel) that took its place.
+     */
+    private void adjustAfterRemoval(int x) {
+        while (x != root && !isRed(x)) {
+            int p = parent(x);
+            if (x == left(p)) {
+                int sibling = right(p);
+                if (isRed(sibling)) {
+                    setRed(sibling, false);
+                    setRed(p, true);
+                    rotateLeft(p);
+                    sibling = right(p);
+                }
+                if (!isRed(left(sibling)) && !isRed(right(sibling))) {
+                    setRed(sibling, true);
+                    x = p;
+                } else {
+                    if (!isRed(right(sibling))) {
+                        setRed(left(sibling), false);
+                        setRed(sibling, true);
+                        rotateRight(sibling);
+                        sibling = right(p);
+                    }
+                    setRed(sibling, isRed(p));
+                    setRed(p, false);
+                    setRed(right(sibling), false);
+                    rotateLeft(p);
+                    x = root;
+                }
+            } else {
+                int sibling = left(p);
+                if (isRed(sibling)) {
+                    setRed(sibling, false);
+                    setRed(p, true);
+                    rotateRight(p);
+                    sibling = left(p);
+                }
+                if (!isRed(left(sibling)) && !isRed(right(sibling))) {
+                    setRed(sibling, true);
+                    x = p;
+                } else {
+                    if (!isRed(left(sibling))) {
+                        setRed(right(sibling), false);
+                        setRed(sibling, true);
+                        rotateLeft(sibling);
+                        sibling = left(p);
+                    }
+                    setRed(sibling, isRed(p));
+                    setRed(p, false);
+                    setRed(left(sibling), false);
+                    rotateRight(p);
+                    x = root;
+                }
+            }
+        }
+        setRed(x, false);
+    }
+}
@@ -0,0 +1,317 @@
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable red-black tree.  Adding or removing an item returns a new
+ * tree that shares every untouched subtree with the old one, so each
+ * update allocates O(log n) nodes and any tree value can serve as a
+ * snapshot for as long as it is referenced.
+ *
+ * <p>Updates are built from the same split and join primitives as
+ * RedBlackTree's set operations, here on immutable nodes that copy the
+ * path instead of relinking it.  Nodes cache their black height and the
+ * size of their subtree.</p>
+ */
+public final class PersistentRedBlackTree<E> implements Iterable<E> {
+
+    /**
+     * The nodes of a persistent tree, which are never modified.
+     */
+    private static final class Node<E> {
+        final E data;
+        final Node<E> left;
+        final Node<E> right;
+        final boolean isRed;
+        final int blackHeight;
+        final int size;
+
+        Node(Node<E> left, E data, boolean isRed, Node<E> right) {
+            this.data = data;
+            this.left = left;
+            this.right = right;
+            this.isRed = isRed;
+            this.blackHeight = blackHeightOf(left) + (isRed ? 0 : 1);
+            this.size = 1 + sizeOf(left) + sizeOf(right);
+        }
+    }
+
+    /**
+     * The result of splitting a tree at a key.
+     */
+    private static final class Split<E> {
+        Node<E> left;
+        Node<E> right;
+        boolean found;
+        E data;
+    }
+
+    private final Comparator<E> comparator;
+    private final Node<E> root;
+
+    /**
+     * Constructs an empty tree that can only accept Comparables as items.
+     */
+    public PersistentRedBlackTree() {
+        this(null);
+    }
+
+    /**
+     * Constructs an empty tree that orders its items according to the
+     * given comparator.
+     */
+    public PersistentRedBlackTree(Comparator<E> c) {
+        this(c, null);
+    }
+
+    private PersistentRedBlackTree(Comparator<E> comparator, Node<E> root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    /**
+     * Returns the number of items in the tree.
+     */
+    public int size() {
+        return sizeOf(root);
+    }
+
+    /**
+     * Returns whether or not the tree contains an object with the given
+     * value.
+     */
+    public boolean contains(E data) {
+        return nodeContaining(data) != null;
+    }
+
+    /**
+     * Returns a tree holding the items of this one plus the given item.
+     * If this tree has an item that compares equal to it, the new tree
+     * holds the given item instead.
+     */
+    public PersistentRedBlackTree<E> add(E data) {
+        Node<E> existing = nodeContaining(data);
+        if (existing != null && existing.data == data) {
+            return this;
+        }
+        Split<E> split = split(root, data);
+        return withRoot(join(split.left, data, split.right));
+    }
+
+    /**
+     * Returns a tree holding the items of this one except the one that
+     * compares equal to the given value.  Returns this tree if there is
+     * no such item.
+     */
+    public PersistentRedBlackTree<E> remove(E data) {
+        if (nodeContaining(data) == null) {
+            return this;
+        }
+        Split<E> split = split(root, data);
+        return withRoot(join(split.left, split.right));
+    }
+
+    /**
+     * Returns an iterator over the items of the tree in ascending order.
+     * The iterator keeps a stack of the nodes still to be visited, since
+     * persistent nodes have no parent links.
+     */
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private final Deque<Node<E>> stack = new ArrayDeque<Node<E>>();
+
+            {
+                pushLeftSpine(root);
+            }
+
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            public E next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node<E> n = stack.pop();
+                pushLeftSpine(n.right);
+                return n.data;
+            }
+
+            private void pushLeftSpine(Node<E> n) {
+                for (; n != null; n = n.left) {
+                    stack.push(n);
+                }
+            }
+        };
+    }
+
+    private PersistentRedBlackTree<E> withRoot(Node<E> newRoot) {
+        if (newRoot != null && newRoot.isRed) {
+            newRoot = new Node<E>(newRoot.left, newRoot.data, false, newRoot.right);
+        }
+        return new PersistentRedBlackTree<E>(comparator, newRoot);
+    }
+
+    private int compare(E x, E y) {
+        if (comparator == null) {
+            return ((Comparable<E>) x).compareTo(y);
+        } else {
+            return comparator.compare(x, y);
+        }
+    }
+
+    private Node<E> nodeContaining(E data) {
+        for (Node<E> n = root; n != null;) {
+            int comparisonResult = compare(data, n.data);
+            if (comparisonResult == 0) {
+                return n;
+            }
+            n = comparisonResult < 0 ? n.left : n.right;
+        }
+        return null;
+    }
+
+    // Split and join, as in RedBlackTree but copying instead of relinking.
+
+    private Split<E> split(Node<E> t, E key) {
+        if (t == null) {
+            return new Split<E>();
+        }
+        int comparisonResult = compare(key, t.data);
+        if (comparisonResult == 0) {
+            Split<E> split = new Split<E>();
+            split.left = t.left;
+            split.right = t.right;
+            split.found = true;
+            split.data = t.data;
+            return split;
+        } else if (comparisonResult < 0) {
+            Split<E> split = split(t.left, key);
+            split.right = join(split.right, t.data, t.right);
+            return split;
+        } else {
+            Split<E> split = split(t.right, key);
+            split.left = join(t.left, t.data, split.left);
+            return split;
+        }
+    }
+
+    private static <E> Node<E> join(Node<E> left, E pivot, Node<E> right) {
+        left = blacken(left);
+        right = blacken(right);
+        int leftHeight = blackHeightOf(left);
+        int rightHeight = blackHeightOf(right);
+        if (leftHeight > rightHeight) {
+            Node<E> t = joinRight(left, pivot, right);
+            return (t.isRed && isRed(t.right)) ? blacken(t) : t;
+        } else if (rightHeight > leftHeight) {
+            Node<E> t = joinLeft(left, pivot, right);
+            return (t.isRed && isRed(t.left)) ? blacken(t) : t;
+        } else {
+            return new Node<E>(left, pivot, true, right);
+        }
+    }
+
+    private static <E> Node<E> join(Node<E> left, Node<E> right) {
+        if (left == null) {
+            return right;
+        }
+        Split<E> split = splitLast(left);
+        return join(split.left, split.data, right);
+    }
+
+    private static <E> Node<E> joinRight(Node<E> t, E pivot, Node<E> r) {
+        if (!isRed(t) && blackHeightOf(t) == blackHeightOf(r)) {
+            return new Node<E>(t, pivot, true, r);
+        }
+        Node<E> right = joinRight(t.right, pivot, r);
+        if (!t.isRed && right.isRed && isRed(right.right)) {
+            // Rotate left, recoloring the outer red node black.
+            return new Node<E>(new Node<E>(t.left, t.data, false, right.left),
+                    right.data, true, blacken(right.right));
+        }
+        return new Node<E>(t.left, t.data, t.isRed, right);
+    }
+
+    private static <E> Node<E> joinLeft(Node<E> l, E pivot, Node<E> t) {
+        if (!isRed(t) && blackHeightOf(t) == blackHeightOf(l)) {
+            return new Node<E>(l, pivot, true, t);
+        }
+        Node<E> left = joinLeft(l, pivot, t.left);
+        if (!t.isRed && left.isRed && isRed(left.left)) {
+            // Rotate right, recoloring the outer red node black.
+            return new Node<E>(blacken(left.left), left.data, true,
+                    new Node<E>(left.right, t.data, false, t.right));
+        }
+        return new Node<E>(left, t.data, t.isRed, t.right);
+    }
+
+    /**
+     * Removes the largest item from a tree, returning the rest of the
+     * tree as the left part of the result.
+     */
+    private static <E> Split<E> splitLast(Node<E> t) {
+        if (t.right == null) {
+            Split<E> split = new Split<E>();
+            split.left = t.left;
+            split.found = true;
+            split.data = t.data;
+            return split;
+        }
+        Split<E> split = splitLast(t.right);
+        split.left = join(t.left, t.data, split.left);
+        return split;
+    }
+
+    /**
+     * Checks the order of the items, the colors, and the black height and
+     * size cached in every node, for tests.  Returns whether the tree is a
+     * valid red-black tree.
+     */
+    boolean isValidRedBlackTree() {
+        return !isRed(root) && blackHeight(root, null, null) >= 0;
+    }
+
+    /**
+     * Returns the black height of the subtree, whose items must lie
+     * strictly between low and high where those are not null, or -1 if
+     * the subtree is not a valid red-black tree or a node caches a wrong
+     * black height or size.
+     */
+    private int blackHeight(Node<E> n, Node<E> low, Node<E> high) {
+        if (n == null) {
+            return 0;
+        }
+        if ((low != null && compare(low.data, n.data) >= 0)
+                || (high != null && compare(n.data, high.data) >= 0)
+                || (n.isRed && (isRed(n.left) || isRed(n.right)))
+                || n.size != 1 + sizeOf(n.left) + sizeOf(n.right)) {
+            return -1;
+        }
+        int left = blackHeight(n.left, low, n);
+        int right = blackHeight(n.right, n, high);
+        int height = left + (n.isRed ? 0 : 1);
+        if (left < 0 || left != right || n.blackHeight != height) {
+            return -1;
+        }
+        return height;
+    }
+
+    private static <E> Node<E> blacken(Node<E> n) {
+        return isRed(n) ? new Node<E>(n.left, n.data, false, n.right) : n;
+    }
+
+    private static boolean isRed(Node<?> n) {
+        return n != null && n.isRed;
+    }
+
+    private static int blackHeightOf(Node<?> n) {
+        return n == null ? 0 : n.blackHeight;
+    }
+
+    private static int sizeOf(Node<?> n) {
+        return n == null ? 0 : n.size;
+    }
+}
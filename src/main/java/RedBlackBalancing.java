@@ -0,0 +1,120 @@
+/**
+ * Red-black balancing, for RedBlackTree as well as any BalancedSearchTree
+ * built with it.  The rank of a node is its color: RED for red, 0 for
+ * black.  These are the classic fixups, with the mirror-image cases
+ * folded together by passing the side.  Removal keeps track of the parent
+ * of the doubly black position instead of using the removed node as a
+ * sentinel, since the node is already unlinked.
+ */
+final class RedBlackBalancing implements BalancingPolicy {
+
+    static final int RED = 1;
+
+    public <E> int afterInsertion(BalancedSearchTree<E> tree, BalancedSearchTree.Node<E> node) {
+        tree.setRank(node, RED);
+        int iterations = 0;
+        BalancedSearchTree.Node<E> n = node;
+        BalancedSearchTree.Node<E> parent = BalancedSearchTree.parentNode(n);
+        while (isRed(parent)) {
+            iterations++;
+            // A red parent is not the root, so the grandparent is a node.
+            BalancedSearchTree.Node<E> grandparent = BalancedSearchTree.parentNode(parent);
+            boolean parentLeft = grandparent.getLeft() == parent;
+            BalancedSearchTree.Node<E> uncle = BalancedSearchTree.childOf(grandparent, !parentLeft);
+            if (isRed(uncle)) {
+                tree.setRank(parent, 0);
+                tree.setRank(uncle, 0);
+                tree.setRank(grandparent, RED);
+                n = grandparent;
+                parent = BalancedSearchTree.parentNode(n);
+            } else {
+                if (n == BalancedSearchTree.childOf(parent, !parentLeft)) {
+                    // Inner grandchild: rotate it up to the outside.
+                    n = parent;
+                    parent = tree.rotate(parent, parentLeft);
+                }
+                tree.setRank(parent, 0);
+                tree.setRank(grandparent, RED);
+                tree.rotate(grandparent, !parentLeft);
+                break;
+            }
+        }
+        tree.setRank(tree.rootNode(), 0);
+        return iterations;
+    }
+
+    public <E> int afterRemoval(BalancedSearchTree<E> tree, BalancedSearchTree.Node<E> removed,
+                                BalancedSearchTree.Node<E> parent, boolean left) {
+        if (isRed(removed)) {
+            return 0;
+        }
+        int iterations = 0;
+        BalancedSearchTree.Node<E> n = parent == null
+                ? tree.rootNode() : BalancedSearchTree.childOf(parent, left);
+        while (parent != null && !isRed(n)) {
+            iterations++;
+            // n is doubly black, so its sibling is a node.
+            BalancedSearchTree.Node<E> sibling = BalancedSearchTree.childOf(parent, !left);
+            if (isRed(sibling)) {
+                tree.setRank(sibling, 0);
+                tree.setRank(parent, RED);
+                tree.rotate(parent, left);
+                sibling = BalancedSearchTree.childOf(parent, !left);
+            }
+            if (!isRed(BalancedSearchTree.leftNode(sibling))
+                    && !isRed(BalancedSearchTree.rightNode(sibling))) {
+                tree.setRank(sibling, RED);
+                n = parent;
+                parent = BalancedSearchTree.parentNode(n);
+                left = parent != null && parent.getLeft() == n;
+            } else {
+                if (!isRed(BalancedSearchTree.childOf(sibling, !left))) {
+                    tree.setRank(BalancedSearchTree.childOf(sibling, left), 0);
+                    tree.setRank(sibling, RED);
+                    sibling = tree.rotate(sibling, !left);
+                }
+                tree.setRank(sibling, parent.rank);
+                tree.setRank(parent, 0);
+                tree.setRank(BalancedSearchTree.childOf(sibling, !left), 0);
+                tree.rotate(parent, left);
+                n = tree.rootNode();
+                parent = null;
+            }
+        }
+        if (n != null) {
+            tree.setRank(n, 0);
+        }
+        return iterations;
+    }
+
+    public <E> boolean isBalanced(BalancedSearchTree.Node<E> root) {
+        return !isRed(root) && blackHeight(root) >= 0;
+    }
+
+    /**
+     * Returns the black height of the subtree, or -1 if it has a red node
+     * with a red child or paths with different numbers of black nodes.
+     */
+    private static <E> int blackHeight(BalancedSearchTree.Node<E> n) {
+        if (n == null) {
+            return 0;
+        }
+        if (n.rank != 0 && n.rank != RED) {
+            return -1;
+        }
+        BalancedSearchTree.Node<E> left = BalancedSearchTree.leftNode(n);
+        BalancedSearchTree.Node<E> right = BalancedSearchTree.rightNode(n);
+        if (isRed(n) && (isRed(left) || isRed(right))) {
+            return -1;
+        }
+        int leftHeight = blackHeight(left);
+        if (leftHeight < 0 || leftHeight != blackHeight(right)) {
+            return -1;
+        }
+        return leftHeight + (isRed(n) ? 0 : 1);
+    }
+
+    private static boolean isRed(BalancedSearchTree.Node<?> n) {
+        return n != null && n.rank == RED;
+    }
+}
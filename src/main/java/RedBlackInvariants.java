@@ -0,0 +1,277 @@
+/**
+ * Checks that a RedBlackTree satisfies the red-black and search tree
+ * invariants, and says which one fails and where.
+ *
+ * <p>The check is a single iterative walk through the parent links that
+ * visits each node on the way down, between its subtrees and on the way
+ * up, so every invariant is tested in one pass with a running black
+ * depth and no stack or per-node allocation.  Only a failing check
+ * allocates, to return its Violation.</p>
+ */
+public final class RedBlackInvariants {
+
+    /**
+     * The properties that are checked, in the order a node is checked
+     * for them.
+     */
+    public enum Invariant {
+        RED_ROOT("the root is red"),
+        PARENT_LINK("a child's parent link does not point back at its parent"),
+        RED_RED("a red node has a red child"),
+        BLACK_HEIGHT("paths from the root to a missing child differ in black nodes"),
+        ORDER("an item is not greater than the one before it in order"),
+        SIZE("a subtree size does not match the sizes of its children");
+
+        private final String description;
+
+        Invariant(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * A failed invariant together with the node where it was detected: the
+     * red child for RED_RED, the child with the wrong parent link for
+     * PARENT_LINK, the node with the missing child whose path has the wrong
+     * black count for BLACK_HEIGHT (or, from checkPath, the node whose two
+     * sides differ), and otherwise the offending node itself.
+     */
+    public static final class Violation {
+        private final Invariant invariant;
+        private final BinaryTreeNode node;
+
+        Violation(Invariant invariant, BinaryTreeNode node) {
+            this.invariant = invariant;
+            this.node = node;
+        }
+
+        public Invariant getInvariant() {
+            return invariant;
+        }
+
+        public BinaryTreeNode getNode() {
+            return node;
+        }
+
+        public String toString() {
+            return invariant + " at node " + node.getData() + ": " + invariant.getDescription();
+        }
+    }
+
+    private RedBlackInvariants() {
+    }
+
+    /**
+     * Returns whether the tree satisfies every invariant.
+     */
+    public static boolean isValid(RedBlackTree tree) {
+        return check(tree) == null;
+    }
+
+    /**
+     * Returns the first violation found in the tree, or null if there is
+     * none.  An empty tree is valid.
+     */
+    public static Violation check(RedBlackTree tree) {
+        BinaryTreeNode root = tree.getRoot();
+        if (root == null) {
+            return null;
+        }
+        if (isRed(root)) {
+            return new Violation(Invariant.RED_ROOT, root);
+        }
+        BinaryTreeNode n = root;
+        BinaryTreeNode from = null;
+        boolean down = true;
+        int blackDepth = 1;
+        int leafBlackDepth = -1;
+        Object previous = null;
+        boolean hasPrevious = false;
+        while (true) {
+            BinaryTreeNode left = n.getLeft();
+            BinaryTreeNode right = n.getRight();
+            if (down) {
+                // First visit: go into the left subtree if there is one.
+                if (left != null) {
+                    Invariant broken = checkLink(n, left);
+                    if (broken != null) {
+                        return new Violation(broken, left);
+                    }
+                    blackDepth += isRed(left) ? 0 : 1;
+                    n = left;
+                    continue;
+                }
+                if (leafBlackDepth < 0) {
+                    leafBlackDepth = blackDepth;
+                } else if (blackDepth != leafBlackDepth) {
+                    return new Violation(Invariant.BLACK_HEIGHT, n);
+                }
+            }
+            if (down || from == left) {
+                // Inorder visit: check the ordering, then go right.
+                Object data = n.getData();
+                if (hasPrevious && tree.compare(previous, data) >= 0) {
+                    return new Violation(Invariant.ORDER, n);
+                }
+                previous = data;
+                hasPrevious = true;
+                if (right != null) {
+                    Invariant broken = checkLink(n, right);
+                    if (broken != null) {
+                        return new Violation(broken, right);
+                    }
+                    blackDepth += isRed(right) ? 0 : 1;
+                    n = right;
+                    down = true;
+                    continue;
+                }
+                if (blackDepth != leafBlackDepth) {
+                    return new Violation(Invariant.BLACK_HEIGHT, n);
+                }
+            }
+            // Last visit: both subtrees are done.
+            if (n.getSize() != 1 + sizeOf(left) + sizeOf(right)) {
+                return new Violation(Invariant.SIZE, n);
+            }
+            if (n == root) {
+                return null;
+            }
+            blackDepth -= isRed(n) ? 0 : 1;
+            from = n;
+            n = n.getParent();
+            down = false;
+        }
+    }
+
+    /**
+     * Checks only the part of the tree that an insertion or removal can
+     * have changed, on the assumption that the tree was valid before it:
+     * the path from the given node up to the root, where the fixup
+     * recolors and rotates, and the children of the nodes on that path,
+     * where rotations leave the nodes they move down.  Each node on the
+     * path is checked against the largest item on its left and the
+     * smallest on its right, and for equal black heights below it.  The
+     * black height of the side the path did not come up from is measured
+     * down its left spine, so the check takes O(log^2 n) steps for a tree
+     * of n items rather than the O(n) of check.
+     */
+    static Violation checkPath(RedBlackTree tree, BinaryTreeNode from) {
+        BinaryTreeNode root = tree.getRoot();
+        if (root == null) {
+            return null;
+        }
+        if (isRed(root)) {
+            return new Violation(Invariant.RED_ROOT, root);
+        }
+        BinaryTreeNode below = null;
+        int belowBlackHeight = 0;
+        for (BinaryTreeNode n = from; ; n = n.getParent()) {
+            BinaryTreeNode left = n.getLeft();
+            BinaryTreeNode right = n.getRight();
+            if (below != null && below != left && below != right) {
+                return new Violation(Invariant.PARENT_LINK, below);
+            }
+            Violation violation = checkNode(n);
+            if (violation == null && left != below) {
+                violation = checkBeside(left);
+            }
+            if (violation == null && right != below) {
+                violation = checkBeside(right);
+            }
+            if (violation != null) {
+                return violation;
+            }
+            if (left != null
+                    && tree.compare(BinarySearchTree.lastNode(left).getData(), n.getData()) >= 0) {
+                return new Violation(Invariant.ORDER, n);
+            }
+            if (right != null
+                    && tree.compare(n.getData(), BinarySearchTree.firstNode(right).getData()) >= 0) {
+                return new Violation(Invariant.ORDER, BinarySearchTree.firstNode(right));
+            }
+            int leftBlackHeight = left == below ? belowBlackHeight : blackHeight(left);
+            int rightBlackHeight = right == below ? belowBlackHeight : blackHeight(right);
+            if (leftBlackHeight != rightBlackHeight) {
+                return new Violation(Invariant.BLACK_HEIGHT, n);
+            }
+            if (n.getParent() == null) {
+                return n == root ? null : new Violation(Invariant.PARENT_LINK, n);
+            }
+            below = n;
+            belowBlackHeight = leftBlackHeight + (isRed(n) ? 0 : 1);
+        }
+    }
+
+    /**
+     * Checks a node's links to its children and its size.
+     */
+    private static Violation checkNode(BinaryTreeNode n) {
+        BinaryTreeNode left = n.getLeft();
+        BinaryTreeNode right = n.getRight();
+        Invariant broken;
+        if (left != null && (broken = checkLink(n, left)) != null) {
+            return new Violation(broken, left);
+        }
+        if (right != null && (broken = checkLink(n, right)) != null) {
+            return new Violation(broken, right);
+        }
+        if (n.getSize() != 1 + sizeOf(left) + sizeOf(right)) {
+            return new Violation(Invariant.SIZE, n);
+        }
+        return null;
+    }
+
+    /**
+     * Checks a child of a node on the path, which a rotation may have
+     * moved: its own links and size, and that its subtrees have equal
+     * black heights.
+     */
+    private static Violation checkBeside(BinaryTreeNode n) {
+        if (n == null) {
+            return null;
+        }
+        Violation violation = checkNode(n);
+        if (violation == null && blackHeight(n.getLeft()) != blackHeight(n.getRight())) {
+            violation = new Violation(Invariant.BLACK_HEIGHT, n);
+        }
+        return violation;
+    }
+
+    /**
+     * Counts the black nodes down the left spine of a subtree.
+     */
+    private static int blackHeight(BinaryTreeNode n) {
+        int h = 0;
+        for (; n != null; n = n.getLeft()) {
+            if (!isRed(n)) {
+                h++;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Checks the link from a node to one of its children.
+     */
+    private static Invariant checkLink(BinaryTreeNode parent, BinaryTreeNode child) {
+        if (child.getParent() != parent) {
+            return Invariant.PARENT_LINK;
+        }
+        if (isRed(parent) && isRed(child)) {
+            return Invariant.RED_RED;
+        }
+        return null;
+    }
+
+    private static boolean isRed(BinaryTreeNode n) {
+        return ((RedBlackTree.Node) n).isRed();
+    }
+
+    private static int sizeOf(BinaryTreeNode n) {
+        return n == null ? 0 : n.getSize();
+    }
+}
@@ -1,12 +1,31 @@
 
 
 import java.awt.*;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
- * A simple red-black tree class.
+ * A simple red-black tree class.  It is a BalancedSearchTree whose policy
+ * is always BalancingPolicy.RED_BLACK, which does the rebalancing after
+ * each insertion and removal; this class adds the set operations, split,
+ * join, bulk loading and invariant checking, which work on colors.
  */
-public class RedBlackTree extends BinarySearchTree {
+public class RedBlackTree extends BalancedSearchTree {
+
+    /**
+     * Set operations on subtrees smaller than this are not forked.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 11;
+
+    /**
+     * Whether every change is followed by a check of the invariants.
+     */
+    private boolean checkingInvariants = false;
 
     /**
      * Constructs an empty RedBlackTree that can only accept Comparables as
@@ -21,214 +40,789 @@ public class RedBlackTree extends BinarySearchTree {
      * given comparator.
      */
     public RedBlackTree(Comparator c) {
-        super(c);
+        super(BalancingPolicy.RED_BLACK, c);
+    }
+
+    /**
+     * Returns a red-black tree holding the given items, which must already
+     * be in strictly ascending order.  The tree is perfectly balanced and
+     * all black except for the bottom level when that level is incomplete,
+     * so it is built in linear time with no comparisons or rotations.
+     */
+    public static <E> RedBlackTree fromSorted(E[] items, Comparator<E> comparator) {
+        return fromSorted(Arrays.asList(items).iterator(), items.length, comparator);
+    }
+
+    /**
+     * Returns a red-black tree holding the first size items of the given
+     * iterator, which must be in strictly ascending order.
+     */
+    public static <E> RedBlackTree fromSorted(Iterator<? extends E> items, int size,
+                                              Comparator<E> comparator) {
+        RedBlackTree tree = new RedBlackTree(comparator);
+        tree.buildFromSorted(items, size);
+        return tree;
+    }
+
+    /**
+     * Turns checking of the red-black invariants after every change on or
+     * off.  It is off by default.  With checking on, an insertion or
+     * removal checks just the path it rebalanced and the nodes its
+     * rotations moved, which takes O(log^2 n) steps instead of the O(n) of
+     * RedBlackInvariants.check, so long runs of operations on large trees
+     * stay fast.  Operations that rebuild whole subtrees (the set
+     * operations, split, join and removeRange) check the whole tree.  The
+     * operation that breaks an invariant throws an IllegalStateException
+     * naming it.
+     */
+    public void setCheckingInvariants(boolean checking) {
+        checkingInvariants = checking;
+    }
+
+    /**
+     * Returns whether every change is followed by a check of the
+     * invariants.
+     */
+    public boolean isCheckingInvariants() {
+        return checkingInvariants;
     }
 
     /**
      * The nodes in a red-black tree store a color together with the actual data
-     * in the node.
+     * in the node.  The color is the node's rank under the red-black
+     * policy.  A node keeps no reference to its tree, so a node pool
+     * shared between trees does not keep a tree that released nodes into
+     * it reachable.
      */
-    public class Node extends LinkedBinaryTreeNode {
-        boolean isRed = false;
+    public static class Node extends BalancedSearchTree.Node {
 
         public Node(Object data) {
             super(data);
         }
+
+        /**
+         * Returns whether the node is red.
+         */
+        public boolean isRed() {
+            return rank == RedBlackBalancing.RED;
+        }
+
+        /**
+         * Colors the node red or black.  For building trees node by node;
+         * the change is not reported to the tree's metrics listener.
+         */
+        public void setRed(boolean red) {
+            rank = red ? RedBlackBalancing.RED : 0;
+        }
     }
 
     /**
      * Adds a single data item to the tree. If there is already an item in the
      * tree that compares equal to the item being inserted, it is "overwritten"
      * by the new item. Overrides BinarySearchTree.add because the tree needs to
-     * be adjusted after insertion.
+     * be adjusted after insertion.  Returns false if an item was overwritten.
      */
-    public void add(Object data) {
-        if (root == null) {
-            root = new Node(data);
-        }
-        BinaryTreeNode n = root;
-        while (true) {
-            int comparisonResult = compare(data, n.getData());
+    public boolean add(Object data) {
+        BinaryTreeNode parent = null;
+        int comparisonResult = 0;
+        int depth = 0;
+        for (BinaryTreeNode n = root; n != null; depth++) {
+            comparisonResult = compare(data, n.getData());
             if (comparisonResult == 0) {
                 n.setData(data);
-                return;
-            } else if (comparisonResult < 0) {
-                if (n.getLeft() == null) {
-                    n.setLeft(new Node(data));
-                    adjustAfterInsertion((Node) n.getLeft());
-                    break;
-                }
-                n = n.getLeft();
-            } else { // comparisonResult > 0
-                if (n.getRight() == null) {
-                    n.setRight(new Node(data));
-                    adjustAfterInsertion((Node) n.getRight());
-                    break;
-                }
-                n = n.getRight();
+                descended(depth + 1);
+                return false;
             }
+            parent = n;
+            n = comparisonResult < 0 ? n.getLeft() : n.getRight();
         }
+        descended(depth);
+        insertNode(parent, newNode(data), comparisonResult < 0);
+        return true;
     }
 
     /**
      * Removes the node containing the given value. Does nothing if there is no
-     * such node.
+     * such node.  Returns whether an item was removed.
      */
-    public void remove(Object data) {
-        Node node = (Node) nodeContaining(data);
+    public boolean remove(Object data) {
+        BinaryTreeNode node = nodeContaining(data);
         if (node == null) {
             // No such object, do nothing.
-            return;
-        } else if (node.getLeft() != null && node.getRight() != null) {
+            return false;
+        }
+        removeNode(node);
+        return true;
+    }
+
+    /**
+     * Links a new node into the tree below parent, as its left or right
+     * child, and rebalances.  A null parent makes the node the root of an
+     * empty tree.  The chosen slot must be empty and must be where the
+     * node's data belongs; this is the second half of add, for callers
+     * that have already done the descent.
+     */
+    protected void insertNode(BinaryTreeNode parent, BinaryTreeNode node, boolean left) {
+        if (parent == null) {
+            modCount++;
+            root = node;
+        } else {
+            attachLeaf(parent, node, left);
+        }
+        // As in BalancedSearchTree.add, a new root goes through the policy
+        // too, which blackens it, so both report the same fixups.
+        int iterations = getBalancingPolicy().afterInsertion(this, (Node) node);
+        if (metrics != null) {
+            metrics.insertionFixup(iterations);
+        }
+        if (checkingInvariants) {
+            checkPathFrom(node);
+        }
+    }
+
+    /**
+     * Removes the given node of this tree and rebalances.  The second half
+     * of remove, for callers that have already found the node.  A node
+     * with two children stays in the tree holding its predecessor's item,
+     * and the predecessor's node is removed instead.
+     */
+    protected void removeNode(BinaryTreeNode n) {
+        Node node = (Node) n;
+        modCount++;
+        if (node.getLeft() != null && node.getRight() != null) {
             // Node has two children, Copy predecessor data in.
             BinaryTreeNode predecessor = predecessor(node);
-            node.setData(predecessor.getData());
+            copyItem(predecessor, node);
             node = (Node) predecessor;
         }
         // At this point node has zero or one child
+        Node parent = parentOf(node);
+        boolean left = parent != null && parent.getLeft() == node;
         Node pullUp = leftOf(node) == null ? rightOf(node) : leftOf(node);
-        if (pullUp != null) {
-            // Splice out node, and adjust if pullUp is a double black.
-            if (node == root) {
-                setRoot(pullUp);
-            } else if (node.getParent().getLeft() == node) {
-                node.getParent().setLeft(pullUp);
-            } else {
-                node.getParent().setRight(pullUp);
-            }
-            if (isBlack(node)) {
-                adjustAfterRemoval(pullUp);
+        spliceOut(node, pullUp);
+        // The policy has nothing to fix after removing a red node or the
+        // last one, but is run anyway to report the fixup, as in
+        // BalancedSearchTree.remove.
+        reportRemovalFixup(getBalancingPolicy().afterRemoval(this, node, parent, left));
+        if (checkingInvariants && root != null) {
+            checkPathFrom(pullUp != null ? pullUp : parent);
+        }
+        releaseNode(node);
+    }
+
+    private void reportRemovalFixup(int iterations) {
+        if (metrics != null) {
+            metrics.removalFixup(iterations);
+        }
+    }
+
+    private void checkPathFrom(BinaryTreeNode node) {
+        failOn(RedBlackInvariants.checkPath(this, node));
+    }
+
+    private void checkWholeTree() {
+        if (checkingInvariants) {
+            failOn(RedBlackInvariants.check(this));
+        }
+    }
+
+    private static void failOn(RedBlackInvariants.Violation violation) {
+        if (violation != null) {
+            throw new IllegalStateException("Red-black invariant broken: " + violation);
+        }
+    }
+
+    /**
+     * Creates the colored nodes used by this tree, reusing one from the
+     * node pool if there is one.
+     */
+    protected BinaryTreeNode newNode(Object data) {
+        Node node = (Node) reusedNode(Node.class, data);
+        if (node == null) {
+            return new Node(data);
+        }
+        node.setRed(false);
+        return node;
+    }
+
+    /**
+     * A tree built from sorted input is all black except for the nodes
+     * of an incomplete bottom level, which are red.
+     */
+    protected void builtOnBottomLevel(BinaryTreeNode node) {
+        ((Node) node).setRed(true);
+    }
+
+    /**
+     * Adds every item of the other tree to this one.  Items of this tree
+     * are kept where both trees have an equal item.  The other tree is
+     * not modified.
+     *
+     * <p>Each item of the other tree is first ranked in this one, with
+     * O(m log(n/m + 1)) comparisons for trees of sizes m &lt;= n, while
+     * neither tree is changed.  This tree is then split at those ranks
+     * and joined back together with the new items, going by position
+     * alone, in O(m log(n/m + 1)) time when the other tree is the
+     * smaller.  The items of the other tree are listed first, in time
+     * linear in its size; this tree is never copied.  Independent parts
+     * are ranked and merged in parallel on the common fork/join pool.
+     * Since every comparison is made before this tree is taken apart, if
+     * the comparator throws an exception this tree is left unchanged.</p>
+     */
+    public void union(RedBlackTree other) {
+        applySetOperation(SetOperation.UNION, other);
+    }
+
+    /**
+     * Removes from this tree every item that has no equal item in the
+     * other tree, which is not modified.  Runs like union.
+     */
+    public void intersection(RedBlackTree other) {
+        applySetOperation(SetOperation.INTERSECTION, other);
+    }
+
+    /**
+     * Removes from this tree every item that has an equal item in the
+     * other tree, which is not modified.  Runs like union.
+     */
+    public void difference(RedBlackTree other) {
+        applySetOperation(SetOperation.DIFFERENCE, other);
+    }
+
+    /**
+     * Removes from this tree every item greater than or equal to the
+     * given key and returns them in a new tree with the same comparator.
+     * Takes time proportional to the height of the tree.  If the
+     * comparator throws an exception the tree is left unchanged.
+     */
+    public RedBlackTree split(Object key) {
+        // The comparator is only called by rank, before the tree is taken
+        // apart, so if it throws the tree is left as it was.
+        int index = rank(key);
+        Node t = (Node) root;
+        setRoot(null);
+        Split split = splitAt(t, blackHeight(t), index);
+        setBlackRoot(split.left);
+        RedBlackTree result = new RedBlackTree(comparator());
+        result.setBlackRoot(split.right);
+        result.checkingInvariants = checkingInvariants;
+        checkWholeTree();
+        result.checkWholeTree();
+        return result;
+    }
+
+    /**
+     * Returns a tree holding the items of left, the pivot and the items of
+     * right, using the comparator of left.  Both trees are emptied.  Takes
+     * time proportional to the difference of the heights of the trees.
+     *
+     * @exception IllegalArgumentException if some item of left is not less
+     * than the pivot, or some item of right is not greater than it.
+     */
+    public static RedBlackTree join(RedBlackTree left, Object pivot, RedBlackTree right) {
+        RedBlackTree result = new RedBlackTree(left.comparator());
+        BinaryTreeNode last = lastNode(left.root);
+        BinaryTreeNode first = firstNode(right.root);
+        if ((last != null && result.compare(last.getData(), pivot) >= 0)
+                || (first != null && result.compare(pivot, first.getData()) >= 0)) {
+            throw new IllegalArgumentException("Trees overlap the pivot");
+        }
+        Node l = (Node) left.root;
+        Node r = (Node) right.root;
+        left.setRoot(null);
+        right.setRoot(null);
+        Subtree joined = result.join(l, result.blackHeight(l), (Node) result.newNode(pivot),
+                r, result.blackHeight(r));
+        result.setBlackRoot(joined.root);
+        result.checkingInvariants = left.checkingInvariants || right.checkingInvariants;
+        result.checkWholeTree();
+        return result;
+    }
+
+    /**
+     * Removes every item that is greater than or equal to from and less
+     * than to.  The tree is split at both ends of the range and the outer
+     * parts are joined, so this takes time proportional to the height of
+     * the tree however many items are removed.  If the comparator throws
+     * an exception the tree is left unchanged.
+     *
+     * @exception IllegalArgumentException if from is greater than to.
+     */
+    public void removeRange(Object from, Object to) {
+        int comparisonResult = compare(from, to);
+        if (comparisonResult > 0) {
+            throw new IllegalArgumentException("from is greater than to");
+        } else if (comparisonResult == 0) {
+            return;
+        }
+        // As in split, all comparisons are done before the tree is taken
+        // apart.
+        int fromIndex = rank(from);
+        int toIndex = rank(to);
+        Node t = (Node) root;
+        setRoot(null);
+        Split lower = splitAt(t, blackHeight(t), fromIndex);
+        Split upper = splitAt(lower.right, lower.rightBlackHeight, toIndex - fromIndex);
+        setBlackRoot(join(lower.left, lower.leftBlackHeight,
+                upper.right, upper.rightBlackHeight).root);
+        checkWholeTree();
+    }
+
+    private void applySetOperation(SetOperation operation, RedBlackTree other) {
+        // All comparisons are made here, on the trees as they are; the
+        // merge below goes by position alone and cannot fail midway.
+        Object[] items = other.toArray();
+        int[] ranks = new int[items.length];
+        boolean[] found = new boolean[items.length];
+        ForkJoinPool.commonPool().invoke(
+                new RankTask((Node) root, 0, items, ranks, found, 0, items.length));
+        // Union inserts the items this tree lacks; intersection keeps, and
+        // difference removes, the items both trees have.
+        boolean wanted = operation != SetOperation.UNION;
+        int count = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (found[i] == wanted) {
+                items[count] = items[i];
+                ranks[count] = ranks[i];
+                count++;
             }
-        } else if (node == root) {
-            // Nothing to pull up when deleting a root means we emptied the tree
-            setRoot(null);
-        } else {
-            // The node being deleted acts as a double black sentinel
-            if (isBlack(node)) {
-                adjustAfterRemoval(node);
+        }
+        if (count == 0 && operation != SetOperation.INTERSECTION) {
+            return;
+        }
+        Node[] nodes = null;
+        if (operation == SetOperation.UNION) {
+            nodes = new Node[count];
+            for (int i = 0; i < count; i++) {
+                nodes[i] = (Node) newNode(items[i]);
             }
-            node.removeFromParent();
         }
+        Node t = (Node) root;
+        setRoot(null);
+        Subtree result = ForkJoinPool.commonPool().invoke(
+                new SetOperationTask(operation, t, blackHeight(t), nodes, ranks, 0, count, 0));
+        setBlackRoot(result.root);
+        checkWholeTree();
     }
 
+    /**
+     * Installs a detached subtree as the whole tree, coloring its root black.
+     */
+    private void setBlackRoot(Node n) {
+        setColor(n, false);
+        setRoot(n);
+    }
+
+    // Join-based algorithms.  They work on detached subtrees, each passed
+    // along with its black height (the number of black nodes on every path
+    // from its root down to a null link), and never touch the tree's root.
+
+    private enum SetOperation { UNION, INTERSECTION, DIFFERENCE }
 
     /**
-     * Classic algorithm for fixing up a tree after inserting a node.
+     * A detached subtree and its black height.
      */
-    private void adjustAfterInsertion(Node n) {
-        // Step 1: color the node red
-        setColor(n, true);
+    private static final class Subtree {
+        final Node root;
+        final int blackHeight;
 
-        // Step 2: Correct double red problems, if they exist
-        if (n != null && n != root && isRed(parentOf(n))) {
+        Subtree(Node root, int blackHeight) {
+            this.root = root;
+            this.blackHeight = blackHeight;
+        }
+    }
 
-            // Step 2a (simplest): Recolor, and move up to see if more work
-            // needed
-            if (isRed(siblingOf(parentOf(n)))) {
-                setColor(parentOf(n), false);
-                setColor(siblingOf(parentOf(n)), false);
-                setColor(grandparentOf(n), true);
-                adjustAfterInsertion(grandparentOf(n));
-            }
+    /**
+     * The result of splitting a subtree at a position: the items before
+     * it, the detached node holding the item at it (if that was taken
+     * out), and the items after.
+     */
+    private static final class Split {
+        Node left;
+        int leftBlackHeight;
+        Node found;
+        Node right;
+        int rightBlackHeight;
+    }
+
+    private final class RankTask extends RecursiveAction {
+        private final Node t;
+        private final int offset;
+        private final Object[] items;
+        private final int[] ranks;
+        private final boolean[] found;
+        private final int from;
+        private final int to;
+
+        RankTask(Node t, int offset, Object[] items, int[] ranks, boolean[] found,
+                 int from, int to) {
+            this.t = t;
+            this.offset = offset;
+            this.items = items;
+            this.ranks = ranks;
+            this.found = found;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            rankItems(t, offset, items, ranks, found, from, to);
+        }
+    }
 
-            // Step 2b: Restructure for a parent who is the left child of the
-            // grandparent. This will require a single right rotation if n is
-            // also
-            // a left child, or a left-right rotation otherwise.
-            else if (parentOf(n) == leftOf(grandparentOf(n))) {
-                if (n == rightOf(parentOf(n))) {
-                    rotateLeft(n = parentOf(n));
-                }
-                setColor(parentOf(n), false);
-                setColor(grandparentOf(n), true);
-                rotateRight(grandparentOf(n));
+    /**
+     * Ranks the ascending items[from, to), which all fall within the
+     * subtree t, whose first item is at position offset in the tree.  For
+     * each item it records how many items of the tree are less than it,
+     * and whether the tree has an equal one.  Each node on the way splits
+     * the items it is given by binary search, so ranking m items among n
+     * takes O(m log(n/m + 1)) comparisons.  Nothing is changed.
+     */
+    private void rankItems(Node t, int offset, Object[] items, int[] ranks, boolean[] found,
+                           int from, int to) {
+        if (from == to) {
+            return;
+        }
+        if (t == null) {
+            Arrays.fill(ranks, from, to, offset);
+            return;
+        }
+        // The first of the items that is not less than the node's.
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(items[middle], t.getData()) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
             }
+        }
+        int rank = offset + sizeOf(t.getLeft());
+        int next = low;
+        if (low < to && compare(items[low], t.getData()) == 0) {
+            ranks[low] = rank;
+            found[low] = true;
+            next++;
+        }
+        if (to - from > SEQUENTIAL_THRESHOLD) {
+            ForkJoinTask.invokeAll(
+                    new RankTask(leftOf(t), offset, items, ranks, found, from, low),
+                    new RankTask(rightOf(t), rank + 1, items, ranks, found, next, to));
+        } else {
+            rankItems(leftOf(t), offset, items, ranks, found, from, low);
+            rankItems(rightOf(t), rank + 1, items, ranks, found, next, to);
+        }
+    }
+
+    private final class SetOperationTask extends RecursiveTask<Subtree> {
+        private final SetOperation operation;
+        private final Node t;
+        private final int h;
+        private final Node[] nodes;
+        private final int[] ranks;
+        private final int from;
+        private final int to;
+        private final int offset;
+
+        SetOperationTask(SetOperation operation, Node t, int h, Node[] nodes, int[] ranks,
+                         int from, int to, int offset) {
+            this.operation = operation;
+            this.t = t;
+            this.h = h;
+            this.nodes = nodes;
+            this.ranks = ranks;
+            this.from = from;
+            this.to = to;
+            this.offset = offset;
+        }
+
+        protected Subtree compute() {
+            return setOperation(operation, t, h, nodes, ranks, from, to, offset);
+        }
+    }
+
+    /**
+     * Applies an operation to a detached subtree, consuming it, without
+     * comparing items.  ranks[from, to) are ascending positions in the
+     * whole tree, offset is the position of the subtree's first item.
+     * Union inserts nodes[i] at position ranks[i]; intersection keeps,
+     * and difference removes, the items at those positions.  The subtree
+     * is split at the middle position, the two sides are done
+     * recursively, in parallel when they are large, and joined.
+     */
+    private Subtree setOperation(SetOperation operation, Node t, int h, Node[] nodes, int[] ranks,
+                                 int from, int to, int offset) {
+        if (from == to) {
+            return operation == SetOperation.INTERSECTION ? new Subtree(null, 0) : new Subtree(t, h);
+        }
+        int middle = (from + to) >>> 1;
+        Split split;
+        Node pivot;
+        int rightOffset;
+        if (operation == SetOperation.UNION) {
+            split = splitAt(t, h, ranks[middle] - offset);
+            pivot = nodes[middle];
+            rightOffset = ranks[middle];
+        } else {
+            split = splitAround(t, h, ranks[middle] - offset);
+            pivot = operation == SetOperation.INTERSECTION ? split.found : null;
+            rightOffset = ranks[middle] + 1;
+        }
+
+        Subtree left;
+        Subtree right;
+        if (to - from > SEQUENTIAL_THRESHOLD) {
+            SetOperationTask leftTask = new SetOperationTask(operation, split.left,
+                    split.leftBlackHeight, nodes, ranks, from, middle, offset);
+            SetOperationTask rightTask = new SetOperationTask(operation, split.right,
+                    split.rightBlackHeight, nodes, ranks, middle + 1, to, rightOffset);
+            ForkJoinTask.invokeAll(leftTask, rightTask);
+            left = leftTask.join();
+            right = rightTask.join();
+        } else {
+            left = setOperation(operation, split.left, split.leftBlackHeight,
+                    nodes, ranks, from, middle, offset);
+            right = setOperation(operation, split.right, split.rightBlackHeight,
+                    nodes, ranks, middle + 1, to, rightOffset);
+        }
+
+        if (pivot != null) {
+            return join(left.root, left.blackHeight, pivot, right.root, right.blackHeight);
+        }
+        return join(left.root, left.blackHeight, right.root, right.blackHeight);
+    }
 
-            // Step 2c: Restructure for a parent who is the right child of the
-            // grandparent. This will require a single left rotation if n is
-            // also
-            // a right child, or a right-left rotation otherwise.
-            else if (parentOf(n) == rightOf(grandparentOf(n))) {
-                if (n == leftOf(parentOf(n))) {
-                    rotateRight(n = parentOf(n));
-                }
-                setColor(parentOf(n), false);
-                setColor(grandparentOf(n), true);
-                rotateLeft(grandparentOf(n));
+    /**
+     * Splits a detached subtree of the given black height into its first
+     * index items and the rest, going by the subtree sizes alone, without
+     * comparing items.  The subtree is consumed, and the split's found
+     * node is always null.  Takes time proportional to its height.
+     */
+    private Split splitAt(Node t, int h, int index) {
+        if (t == null) {
+            return new Split();
+        }
+        int childHeight = childBlackHeight(t, h);
+        int leftSize = sizeOf(t.getLeft());
+        Node left = detachLeft(t);
+        Node right = detachRight(t);
+        if (index <= leftSize) {
+            Split split = splitAt(left, childHeight, index);
+            Subtree joined = join(split.right, split.rightBlackHeight, t, right, childHeight);
+            split.right = joined.root;
+            split.rightBlackHeight = joined.blackHeight;
+            return split;
+        } else {
+            Split split = splitAt(right, childHeight, index - leftSize - 1);
+            Subtree joined = join(left, childHeight, t, split.left, split.leftBlackHeight);
+            split.left = joined.root;
+            split.leftBlackHeight = joined.blackHeight;
+            return split;
+        }
+    }
+
+    /**
+     * Like splitAt, but takes the item at the index, which must be within
+     * the subtree, out as the split's found node.
+     */
+    private Split splitAround(Node t, int h, int index) {
+        int childHeight = childBlackHeight(t, h);
+        int leftSize = sizeOf(t.getLeft());
+        Node left = detachLeft(t);
+        Node right = detachRight(t);
+        if (index == leftSize) {
+            Split split = new Split();
+            split.left = left;
+            split.leftBlackHeight = childHeight;
+            split.found = t;
+            split.right = right;
+            split.rightBlackHeight = childHeight;
+            return split;
+        } else if (index < leftSize) {
+            Split split = splitAround(left, childHeight, index);
+            Subtree joined = join(split.right, split.rightBlackHeight, t, right, childHeight);
+            split.right = joined.root;
+            split.rightBlackHeight = joined.blackHeight;
+            return split;
+        } else {
+            Split split = splitAround(right, childHeight, index - leftSize - 1);
+            Subtree joined = join(left, childHeight, t, split.left, split.leftBlackHeight);
+            split.left = joined.root;
+            split.leftBlackHeight = joined.blackHeight;
+            return split;
+        }
+    }
+
+    /**
+     * Joins two detached subtrees, all of whose items are less than
+     * (respectively greater than) the item of the detached, childless pivot
+     * node.  Takes time proportional to the difference of the black heights.
+     */
+    private Subtree join(Node left, int leftHeight, Node pivot, Node right, int rightHeight) {
+        // Black roots keep the descent below simple.
+        if (isRed(left)) {
+            left.setRed(false);
+            leftHeight++;
+        }
+        if (isRed(right)) {
+            right.setRed(false);
+            rightHeight++;
+        }
+        if (leftHeight > rightHeight) {
+            Node t = joinRight(left, leftHeight, pivot, right, rightHeight);
+            if (isRed(t) && isRed(rightOf(t))) {
+                t.setRed(false);
+                return new Subtree(t, leftHeight + 1);
+            }
+            return new Subtree(t, leftHeight);
+        } else if (rightHeight > leftHeight) {
+            Node t = joinLeft(left, leftHeight, pivot, right, rightHeight);
+            if (isRed(t) && isRed(leftOf(t))) {
+                t.setRed(false);
+                return new Subtree(t, rightHeight + 1);
             }
+            return new Subtree(t, rightHeight);
+        } else {
+            return new Subtree(link(left, pivot, right, true), leftHeight);
         }
+    }
 
-        // Step 3: Color the root black
-        setColor((Node) root, false);
-    }
-
-    /**
-     * Classic algorithm for fixing up a tree after removing a node; the
-     * parameter to this method is the node that was pulled up to where the
-     * removed node was.
-     */
-    private void adjustAfterRemoval(Node n) {
-        while (n != root && isBlack(n)) {
-            if (n == leftOf(parentOf(n))) {
-                // Pulled up node is a left child
-                Node sibling = rightOf(parentOf(n));
-                if (isRed(sibling)) {
-                    setColor(sibling, false);
-                    setColor(parentOf(n), true);
-                    rotateLeft(parentOf(n));
-                    sibling = rightOf(parentOf(n));
-                }
-                if (isBlack(leftOf(sibling)) && isBlack(rightOf(sibling))) {
-                    setColor(sibling, true);
-                    n = parentOf(n);
-                } else {
-                    if (isBlack(rightOf(sibling))) {
-                        setColor(leftOf(sibling), false);
-                        setColor(sibling, true);
-                        rotateRight(sibling);
-                        sibling = rightOf(parentOf(n));
-                    }
-                    setColor(sibling, colorOf(parentOf(n)));
-                    setColor(parentOf(n), false);
-                    setColor(rightOf(sibling), false);
-                    rotateLeft(parentOf(n));
-                    n = (Node) root;
-                }
-            } else {
-                // pulled up node is a right child
-                Node sibling = leftOf(parentOf(n));
-                if (isRed(sibling)) {
-                    setColor(sibling, false);
-                    setColor(parentOf(n), true);
-                    rotateRight(parentOf(n));
-                    sibling = leftOf(parentOf(n));
-                }
-                if (isBlack(leftOf(sibling)) && isBlack(rightOf(sibling))) {
-                    setColor(sibling, true);
-                    n = parentOf(n);
-                } else {
-                    if (isBlack(leftOf(sibling))) {
-                        setColor(rightOf(sibling), false);
-                        setColor(sibling, true);
-                        rotateLeft(sibling);
-                        sibling = leftOf(parentOf(n));
-                    }
-                    setColor(sibling, colorOf(parentOf(n)));
-                    setColor(parentOf(n), false);
-                    setColor(leftOf(sibling), false);
-                    rotateRight(parentOf(n));
-                    n = (Node) root;
-                }
+    /**
+     * Joins two detached subtrees without a pivot by taking the largest
+     * item of the left one as the pivot.
+     */
+    private Subtree join(Node left, int leftHeight, Node right, int rightHeight) {
+        if (left == null) {
+            return new Subtree(right, rightHeight);
+        }
+        Split split = splitLast(left, leftHeight);
+        return join(split.left, split.leftBlackHeight, split.found, right, rightHeight);
+    }
+
+    /**
+     * Descends the right spine of the taller tree t to the black node whose
+     * black height matches the shorter tree r, and hangs pivot there as a
+     * red node; double reds are rotated away on the way back up.
+     */
+    private Node joinRight(Node t, int h, Node pivot, Node r, int rh) {
+        if (isBlack(t) && h == rh) {
+            return link(t, pivot, r, true);
+        }
+        Node right = detachRight(t);
+        t.setRight(joinRight(right, childBlackHeight(t, h), pivot, r, rh));
+        if (isBlack(t) && isRed(rightOf(t)) && isRed(rightOf(rightOf(t)))) {
+            setColor(rightOf(rightOf(t)), false);
+            return rotateLeftDetached(t);
+        }
+        return t;
+    }
+
+    /**
+     * Mirror image of joinRight, for a taller right tree.
+     */
+    private Node joinLeft(Node l, int lh, Node pivot, Node t, int h) {
+        if (isBlack(t) && h == lh) {
+            return link(l, pivot, t, true);
+        }
+        Node left = detachLeft(t);
+        t.setLeft(joinLeft(l, lh, pivot, left, childBlackHeight(t, h)));
+        if (isBlack(t) && isRed(leftOf(t)) && isRed(leftOf(leftOf(t)))) {
+            setColor(leftOf(leftOf(t)), false);
+            return rotateRightDetached(t);
+        }
+        return t;
+    }
+
+    /**
+     * Removes the largest item from a detached subtree.  The result's
+     * found node is the detached node that held it.
+     */
+    private Split splitLast(Node t, int h) {
+        int childHeight = childBlackHeight(t, h);
+        Node left = detachLeft(t);
+        Node right = detachRight(t);
+        if (right == null) {
+            Split split = new Split();
+            split.left = left;
+            split.leftBlackHeight = childHeight;
+            split.found = t;
+            return split;
+        }
+        Split split = splitLast(right, childHeight);
+        Subtree joined = join(left, childHeight, t, split.left, split.leftBlackHeight);
+        split.left = joined.root;
+        split.leftBlackHeight = joined.blackHeight;
+        return split;
+    }
+
+    private Node link(Node left, Node pivot, Node right, boolean red) {
+        pivot.setRed(red);
+        if (left != null) {
+            pivot.setLeft(left);
+        }
+        if (right != null) {
+            pivot.setRight(right);
+        }
+        return pivot;
+    }
+
+    private Node rotateLeftDetached(Node n) {
+        Node x = rightOf(n);
+        n.setRight(leftOf(x));
+        x.setLeft(n);
+        return x;
+    }
+
+    private Node rotateRightDetached(Node n) {
+        Node x = leftOf(n);
+        n.setLeft(rightOf(x));
+        x.setRight(n);
+        return x;
+    }
+
+    private Node detachLeft(Node n) {
+        Node left = leftOf(n);
+        if (left != null) {
+            n.setLeft(null);
+        }
+        return left;
+    }
+
+    private Node detachRight(Node n) {
+        Node right = rightOf(n);
+        if (right != null) {
+            n.setRight(null);
+        }
+        return right;
+    }
+
+    /**
+     * Returns the black height of the subtrees below a node whose own
+     * subtree has black height h.
+     */
+    private int childBlackHeight(Node n, int h) {
+        return isBlack(n) ? h - 1 : h;
+    }
+
+    /**
+     * Computes the black height of a subtree by walking its left spine.
+     */
+    private int blackHeight(Node n) {
+        int h = 0;
+        for (; n != null; n = leftOf(n)) {
+            if (isBlack(n)) {
+                h++;
             }
         }
-        setColor(n, false);
+        return h;
     }
 
     // The following helpers dramatically simplify the code by getting
     // all the null pointer checking out of the adjustment methods.
 
     private boolean colorOf(Node n) {
-        return n == null ? false : n.isRed;
+        return n == null ? false : n.isRed();
     }
 
     private boolean isRed(Node n) {
@@ -240,25 +834,15 @@ public class RedBlackTree extends BinarySearchTree {
     }
 
     private void setColor(Node n, boolean c) {
-        if (n != null)
-            n.isRed = c;
+        if (n != null) {
+            setRank(n, c ? RedBlackBalancing.RED : 0);
+        }
     }
 
     private Node parentOf(Node n) {
         return n == null ? null : (Node) n.getParent();
     }
 
-    private Node grandparentOf(Node n) {
-        return (n == null || n.getParent() == null) ? null : (Node) n
-                .getParent().getParent();
-    }
-
-    private Node siblingOf(Node n) {
-        return (n == null || n.getParent() == null) ? null : (n == n
-                .getParent().getLeft()) ? (Node) n.getParent().getRight()
-                : (Node) n.getParent().getLeft();
-    }
-
     private Node leftOf(Node n) {
         return n == null ? null : (Node) n.getLeft();
     }
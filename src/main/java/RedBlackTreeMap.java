@@ -0,0 +1,333 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A sorted map kept in a red-black tree whose nodes are the entries
+ * themselves: each node holds its key as the tree's data and the value
+ * in a field of its own.  Lookups compare the key against node data
+ * directly, with no entry objects to allocate or follow.
+ *
+ * <p>Balancing is done by RedBlackTree.  The map runs its own descent
+ * and hands the tree the spot it found, so get, put, computeIfAbsent and
+ * merge each walk the tree once.  Iteration is in ascending key order and
+ * fail-fast.</p>
+ */
+public class RedBlackTreeMap<K, V> extends AbstractMap<K, V> {
+
+    private final Tree<K, V> tree;
+
+    private transient Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * Constructs an empty map whose keys must be Comparable.
+     */
+    public RedBlackTreeMap() {
+        this(null);
+    }
+
+    /**
+     * Constructs an empty map that orders its keys according to the given
+     * comparator.
+     */
+    public RedBlackTreeMap(Comparator<? super K> c) {
+        tree = new Tree<K, V>(c);
+    }
+
+    /**
+     * Returns the comparator used to order the keys, or null if they are
+     * in their natural order.
+     */
+    public Comparator<? super K> comparator() {
+        return tree.comparator();
+    }
+
+    public int size() {
+        return tree.size();
+    }
+
+    public boolean containsKey(Object key) {
+        return tree.entryFor(key) != null;
+    }
+
+    public V get(Object key) {
+        Entry<K, V> e = tree.entryFor(key);
+        return e == null ? null : e.value;
+    }
+
+    /**
+     * Associates the value with the key, returning the value previously
+     * associated with it, or null if there was none.
+     */
+    public V put(K key, V value) {
+        BinaryTreeNode parent = null;
+        int comparisonResult = 0;
+        for (BinaryTreeNode n = tree.root; n != null;) {
+            comparisonResult = tree.compare(key, n.getData());
+            if (comparisonResult == 0) {
+                return ((Entry<K, V>) n).setValue(value);
+            }
+            parent = n;
+            n = comparisonResult < 0 ? n.getLeft() : n.getRight();
+        }
+        tree.insertNode(parent, new Entry<K, V>(key, value), comparisonResult < 0);
+        return null;
+    }
+
+    /**
+     * Returns the value for the key, first computing and storing it if
+     * there is none.  The tree is descended once: if the key is missing,
+     * the new entry goes where the lookup stopped.
+     *
+     * @exception ConcurrentModificationException if the mapping function
+     * changed this map.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        BinaryTreeNode parent = null;
+        int comparisonResult = 0;
+        for (BinaryTreeNode n = tree.root; n != null;) {
+            comparisonResult = tree.compare(key, n.getData());
+            if (comparisonResult == 0) {
+                Entry<K, V> e = (Entry<K, V>) n;
+                if (e.value == null) {
+                    e.value = callMappingFunction(mappingFunction, key);
+                }
+                return e.value;
+            }
+            parent = n;
+            n = comparisonResult < 0 ? n.getLeft() : n.getRight();
+        }
+        V value = callMappingFunction(mappingFunction, key);
+        if (value != null) {
+            tree.insertNode(parent, new Entry<K, V>(key, value), comparisonResult < 0);
+        }
+        return value;
+    }
+
+    /**
+     * Stores the value for the key if it has none, or else combines the
+     * old and new values with the remapping function, removing the entry
+     * if the function returns null.  Descends the tree once.
+     *
+     * @exception ConcurrentModificationException if the remapping function
+     * changed this map.
+     */
+    public V merge(K key, V value,
+                   BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        BinaryTreeNode parent = null;
+        int comparisonResult = 0;
+        for (BinaryTreeNode n = tree.root; n != null;) {
+            comparisonResult = tree.compare(key, n.getData());
+            if (comparisonResult == 0) {
+                Entry<K, V> e = (Entry<K, V>) n;
+                if (e.value == null) {
+                    e.value = value;
+                    return value;
+                }
+                int expectedModCount = tree.modCount;
+                V newValue = remappingFunction.apply(e.value, value);
+                if (tree.modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (newValue == null) {
+                    tree.removeNode(e);
+                } else {
+                    e.value = newValue;
+                }
+                return newValue;
+            }
+            parent = n;
+            n = comparisonResult < 0 ? n.getLeft() : n.getRight();
+        }
+        tree.insertNode(parent, new Entry<K, V>(key, value), comparisonResult < 0);
+        return value;
+    }
+
+    /**
+     * Removes the entry for the key, returning its value, or null if
+     * there was no entry.
+     */
+    public V remove(Object key) {
+        Entry<K, V> e = tree.entryFor(key);
+        if (e == null) {
+            return null;
+        }
+        V value = e.value;
+        tree.removeNode(e);
+        return value;
+    }
+
+    public void clear() {
+        tree.clear();
+    }
+
+    /**
+     * Returns a view of the entries in ascending key order.  The entries
+     * are the tree's nodes, so setValue writes through to the map.
+     */
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es = entrySet;
+        if (es == null) {
+            es = new EntrySet();
+            entrySet = es;
+        }
+        return es;
+    }
+
+    private V callMappingFunction(Function<? super K, ? extends V> mappingFunction, K key) {
+        int expectedModCount = tree.modCount;
+        V value = mappingFunction.apply(key);
+        if (tree.modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+        return value;
+    }
+
+    /**
+     * The red-black tree holding the entries.  It and its entries are
+     * static, so that an entry refers to nothing but its key, value and
+     * links.
+     */
+    private static class Tree<K, V> extends RedBlackTree {
+
+        Tree(Comparator c) {
+            super(c);
+        }
+
+        Entry<K, V> entryFor(Object key) {
+            return (Entry<K, V>) nodeContaining(key);
+        }
+
+        /**
+         * The predecessor's value moves along with its key.
+         */
+        protected void copyItem(BinaryTreeNode source, BinaryTreeNode target) {
+            super.copyItem(source, target);
+            ((Entry<K, V>) target).value = ((Entry<K, V>) source).value;
+        }
+    }
+
+    /**
+     * A tree node that is also a map entry: the key is the node's data.
+     */
+    private static class Entry<K, V> extends RedBlackTree.Node implements Map.Entry<K, V> {
+        V value;
+
+        Entry(K key, V value) {
+            super(key);
+            this.value = value;
+        }
+
+        public K getKey() {
+            return (K) getData();
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public V setValue(V value) {
+            V oldValue = this.value;
+            this.value = value;
+            return oldValue;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return Objects.equals(getKey(), e.getKey()) && Objects.equals(value, e.getValue());
+        }
+
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(value);
+        }
+
+        public String toString() {
+            return getKey() + "=" + value;
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        public int size() {
+            return tree.size();
+        }
+
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            Entry<K, V> e = tree.entryFor(entry.getKey());
+            return e != null && Objects.equals(e.value, entry.getValue());
+        }
+
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            tree.removeNode(tree.entryFor(((Map.Entry<?, ?>) o).getKey()));
+            return true;
+        }
+
+        public void clear() {
+            tree.clear();
+        }
+
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    /**
+     * Walks the entries in key order through parent links.  Removing a
+     * node with two children moves its predecessor's entry into it, which
+     * leaves the next node in place.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private BinaryTreeNode next = BinarySearchTree.firstNode(tree.root);
+        private Entry<K, V> lastReturned = null;
+        private int expectedModCount = tree.modCount;
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            if (tree.modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            lastReturned = (Entry<K, V>) next;
+            next = BinarySearchTree.nextNode(next);
+            return lastReturned;
+        }
+
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (tree.modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            tree.removeNode(lastReturned);
+            lastReturned = null;
+            expectedModCount = tree.modCount;
+        }
+    }
+}
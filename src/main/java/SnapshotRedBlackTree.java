@@ -0,0 +1,74 @@
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A mutable set backed by a PersistentRedBlackTree published through an
+ * atomic reference.  Writers replace the tree with a compare-and-set,
+ * retrying if another writer got there first.  Readers never block, and
+ * snapshot returns the current tree in constant time; later updates
+ * leave it unchanged.
+ */
+public class SnapshotRedBlackTree<E> {
+
+    private final AtomicReference<PersistentRedBlackTree<E>> current;
+
+    /**
+     * Constructs an empty tree that can only accept Comparables as items.
+     */
+    public SnapshotRedBlackTree() {
+        this(null);
+    }
+
+    /**
+     * Constructs an empty tree that orders its items according to the
+     * given comparator.
+     */
+    public SnapshotRedBlackTree(Comparator<E> c) {
+        current = new AtomicReference<PersistentRedBlackTree<E>>(new PersistentRedBlackTree<E>(c));
+    }
+
+    /**
+     * Returns the current contents of the tree as an immutable tree.
+     */
+    public PersistentRedBlackTree<E> snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Returns whether or not the tree contains an object with the given
+     * value.
+     */
+    public boolean contains(E data) {
+        return current.get().contains(data);
+    }
+
+    /**
+     * Returns the number of items in the tree.
+     */
+    public int size() {
+        return current.get().size();
+    }
+
+    /**
+     * Adds a single data item to the tree.  If there is already an item
+     * in the tree that compares equal to the item being inserted, it is
+     * "overwritten" by the new item.
+     */
+    public void add(E data) {
+        PersistentRedBlackTree<E> tree;
+        do {
+            tree = current.get();
+        } while (!current.compareAndSet(tree, tree.add(data)));
+    }
+
+    /**
+     * Removes the item that compares equal to the given value.  Does
+     * nothing if there is no such item.
+     */
+    public void remove(E data) {
+        PersistentRedBlackTree<E> tree;
+        do {
+            tree = current.get();
+        } while (!current.compareAndSet(tree, tree.remove(data)));
+    }
+}
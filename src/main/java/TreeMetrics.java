@@ -0,0 +1,172 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A thread-safe metrics listener that keeps running totals and
+ * histograms of the work trees report, and can publish them as an MXBean
+ * on the platform MBean server.
+ *
+ * <p>Counters are LongAdders, so threads updating the same metrics do not
+ * contend on a single memory location.  One instance can be shared by
+ * several trees to get combined figures.  Reading the counters while
+ * trees are being updated gives values that are each accurate but not
+ * necessarily consistent with one another.</p>
+ */
+public class TreeMetrics implements TreeMetricsListener, TreeMetricsMXBean {
+
+    /**
+     * Histograms count values up to this one separately and larger values
+     * together.  A red-black tree of n items is at most 2 log2(n + 1)
+     * deep, so only degenerate trees overflow.
+     */
+    private static final int HISTOGRAM_LIMIT = 64;
+
+    private final LongAdder descents = new LongAdder();
+    private final LongAdder comparisons = new LongAdder();
+    private final LongAccumulator maxDescentDepth = new LongAccumulator(Math::max, 0);
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder recolors = new LongAdder();
+    private final LongAdder insertionFixups = new LongAdder();
+    private final LongAdder removalFixups = new LongAdder();
+    private final LongAdder fixupIterations = new LongAdder();
+    private final LongAdder[] descentDepths = newHistogram();
+    private final LongAdder[] fixupLengths = newHistogram();
+
+    private ObjectName registeredName;
+
+    public void descended(int depth) {
+        descents.increment();
+        comparisons.add(depth);
+        maxDescentDepth.accumulate(depth);
+        record(descentDepths, depth);
+    }
+
+    public void rotated() {
+        rotations.increment();
+    }
+
+    public void recolored() {
+        recolors.increment();
+    }
+
+    public void insertionFixup(int iterations) {
+        insertionFixups.increment();
+        fixupIterations.add(iterations);
+        record(fixupLengths, iterations);
+    }
+
+    public void removalFixup(int iterations) {
+        removalFixups.increment();
+        fixupIterations.add(iterations);
+        record(fixupLengths, iterations);
+    }
+
+    public long getDescents() {
+        return descents.sum();
+    }
+
+    public long getComparisons() {
+        return comparisons.sum();
+    }
+
+    public long getMaxDescentDepth() {
+        return maxDescentDepth.get();
+    }
+
+    public long getRotations() {
+        return rotations.sum();
+    }
+
+    public long getRecolors() {
+        return recolors.sum();
+    }
+
+    public long getInsertionFixups() {
+        return insertionFixups.sum();
+    }
+
+    public long getRemovalFixups() {
+        return removalFixups.sum();
+    }
+
+    public long getFixupIterations() {
+        return fixupIterations.sum();
+    }
+
+    public long[] getDescentDepthHistogram() {
+        return snapshot(descentDepths);
+    }
+
+    public long[] getFixupIterationHistogram() {
+        return snapshot(fixupLengths);
+    }
+
+    public void reset() {
+        descents.reset();
+        comparisons.reset();
+        maxDescentDepth.reset();
+        rotations.reset();
+        recolors.reset();
+        insertionFixups.reset();
+        removalFixups.reset();
+        fixupIterations.reset();
+        for (int i = 0; i <= HISTOGRAM_LIMIT; i++) {
+            descentDepths[i].reset();
+            fixupLengths[i].reset();
+        }
+    }
+
+    /**
+     * Publishes these metrics on the platform MBean server under the name
+     * "rb-tree:type=TreeMetrics,name=" followed by the given name, and
+     * returns the full object name.
+     *
+     * @exception JMException if the name is malformed or already taken.
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (registeredName != null) {
+            throw new IllegalStateException("Already registered as " + registeredName);
+        }
+        ObjectName objectName = new ObjectName("rb-tree:type=TreeMetrics,name="
+                + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registeredName = objectName;
+        return objectName;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server.  Does nothing
+     * if they are not registered.
+     */
+    public synchronized void unregister() throws JMException {
+        if (registeredName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean(registeredName);
+            registeredName = null;
+        }
+    }
+
+    private static LongAdder[] newHistogram() {
+        LongAdder[] buckets = new LongAdder[HISTOGRAM_LIMIT + 1];
+        for (int i = 0; i <= HISTOGRAM_LIMIT; i++) {
+            buckets[i] = new LongAdder();
+        }
+        return buckets;
+    }
+
+    private static void record(LongAdder[] buckets, int value) {
+        buckets[Math.min(value, HISTOGRAM_LIMIT)].increment();
+    }
+
+    private static long[] snapshot(LongAdder[] buckets) {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+}
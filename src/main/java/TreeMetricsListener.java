@@ -0,0 +1,40 @@
+/**
+ * Receives counts of the work done inside a tree, for finding out why a
+ * workload is slow.  Attach one with BinarySearchTree.setMetricsListener.
+ *
+ * <p>Trees tally per-operation counts in local variables and make at most
+ * one call per event after the work is done, so a listener is never
+ * called from inside a descent loop.  With no listener attached each
+ * call site costs a null check.  Listeners on trees shared between
+ * threads must be thread-safe; TreeMetrics is.</p>
+ */
+public interface TreeMetricsListener {
+
+    /**
+     * A lookup or insertion visited depth nodes, comparing the key with
+     * each, before finding its item or falling off the tree.
+     */
+    void descended(int depth);
+
+    /**
+     * A single rotation was done.
+     */
+    void rotated();
+
+    /**
+     * A node changed color, or, in a BalancedSearchTree, rank.
+     */
+    void recolored();
+
+    /**
+     * The rebalancing after an insertion ran for the given number of
+     * iterations, each moving up the tree by up to two levels.
+     */
+    void insertionFixup(int iterations);
+
+    /**
+     * The rebalancing after a removal ran for the given number of
+     * iterations, each moving up the tree by one level.
+     */
+    void removalFixup(int iterations);
+}
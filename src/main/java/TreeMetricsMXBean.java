@@ -0,0 +1,33 @@
+/**
+ * The management interface of TreeMetrics, as seen through JMX.
+ * Histograms are arrays of counts in which element i counts the
+ * operations with value i, and the last element counts every larger
+ * value.
+ */
+public interface TreeMetricsMXBean {
+
+    long getDescents();
+
+    long getComparisons();
+
+    long getMaxDescentDepth();
+
+    long getRotations();
+
+    long getRecolors();
+
+    long getInsertionFixups();
+
+    long getRemovalFixups();
+
+    long getFixupIterations();
+
+    long[] getDescentDepthHistogram();
+
+    long[] getFixupIterationHistogram();
+
+    /**
+     * Sets every counter and histogram back to zero.
+     */
+    void reset();
+}
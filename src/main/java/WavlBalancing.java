@@ -0,0 +1,123 @@
+/**
+ * Weak AVL balancing, from Haeupler, Sen and Tarjan, "Rank-Balanced
+ * Trees".  Every node has a rank, a missing child having rank -1; the
+ * rank difference between a node and each child is 1 or 2, and leaves
+ * have rank 0.  With insertions only the tree is an AVL tree; removals
+ * never rotate more than twice, and the height stays below 2 log n.
+ *
+ * <p>Insertion promotes up the tree while a node has a child of equal
+ * rank and a sibling one below it, and then does a single or double
+ * rotation.  Removal demotes while a node has a child three ranks below
+ * it, and then does a single or double rotation.</p>
+ */
+final class WavlBalancing implements BalancingPolicy {
+
+    public <E> int afterInsertion(BalancedSearchTree<E> tree, BalancedSearchTree.Node<E> node) {
+        tree.setRank(node, 0);
+        int iterations = 0;
+        BalancedSearchTree.Node<E> n = node;
+        BalancedSearchTree.Node<E> parent = BalancedSearchTree.parentNode(n);
+        while (parent != null && parent.rank == n.rank) {
+            iterations++;
+            boolean left = parent.getLeft() == n;
+            BalancedSearchTree.Node<E> sibling = BalancedSearchTree.childOf(parent, !left);
+            if (parent.rank - rankOf(sibling) == 1) {
+                tree.setRank(parent, parent.rank + 1);
+                n = parent;
+                parent = BalancedSearchTree.parentNode(n);
+                continue;
+            }
+            // The sibling is two ranks below the parent: rotate.
+            BalancedSearchTree.Node<E> inner = BalancedSearchTree.childOf(n, !left);
+            if (n.rank - rankOf(inner) == 2) {
+                tree.rotate(parent, !left);
+                tree.setRank(parent, parent.rank - 1);
+            } else {
+                tree.rotate(n, left);
+                tree.rotate(parent, !left);
+                tree.setRank(inner, inner.rank + 1);
+                tree.setRank(n, n.rank - 1);
+                tree.setRank(parent, parent.rank - 1);
+            }
+            break;
+        }
+        return iterations;
+    }
+
+    public <E> int afterRemoval(BalancedSearchTree<E> tree, BalancedSearchTree.Node<E> removed,
+                                BalancedSearchTree.Node<E> parent, boolean left) {
+        if (parent == null) {
+            return 0;
+        }
+        int iterations = 0;
+        BalancedSearchTree.Node<E> n = BalancedSearchTree.childOf(parent, left);
+        if (parent.rank == 1 && parent.getLeft() == null && parent.getRight() == null) {
+            // A leaf of rank 1 is two ranks above both its missing children.
+            iterations++;
+            tree.setRank(parent, 0);
+            n = parent;
+            parent = BalancedSearchTree.parentNode(n);
+            left = parent != null && parent.getLeft() == n;
+        }
+        while (parent != null && parent.rank - rankOf(n) == 3) {
+            iterations++;
+            BalancedSearchTree.Node<E> sibling = BalancedSearchTree.childOf(parent, !left);
+            // The sibling of a child three ranks down is at least two
+            // ranks down, so it is a node.
+            if (parent.rank - sibling.rank == 2) {
+                tree.setRank(parent, parent.rank - 1);
+            } else if (sibling.rank - rankOf(BalancedSearchTree.leftNode(sibling)) == 2
+                    && sibling.rank - rankOf(BalancedSearchTree.rightNode(sibling)) == 2) {
+                tree.setRank(sibling, sibling.rank - 1);
+                tree.setRank(parent, parent.rank - 1);
+            } else {
+                BalancedSearchTree.Node<E> outer = BalancedSearchTree.childOf(sibling, !left);
+                if (sibling.rank - rankOf(outer) == 1) {
+                    tree.rotate(parent, left);
+                    tree.setRank(sibling, sibling.rank + 1);
+                    if (parent.getLeft() == null && parent.getRight() == null) {
+                        // Demoting by one would leave a leaf of rank 1.
+                        tree.setRank(parent, parent.rank - 2);
+                    } else {
+                        tree.setRank(parent, parent.rank - 1);
+                    }
+                } else {
+                    BalancedSearchTree.Node<E> inner = BalancedSearchTree.childOf(sibling, left);
+                    tree.rotate(sibling, !left);
+                    tree.rotate(parent, left);
+                    tree.setRank(inner, inner.rank + 2);
+                    tree.setRank(sibling, sibling.rank - 1);
+                    tree.setRank(parent, parent.rank - 2);
+                }
+                break;
+            }
+            n = parent;
+            parent = BalancedSearchTree.parentNode(n);
+            left = parent != null && parent.getLeft() == n;
+        }
+        return iterations;
+    }
+
+    public <E> boolean isBalanced(BalancedSearchTree.Node<E> root) {
+        return isRankBalanced(root);
+    }
+
+    private static <E> boolean isRankBalanced(BalancedSearchTree.Node<E> n) {
+        if (n == null) {
+            return true;
+        }
+        BalancedSearchTree.Node<E> left = BalancedSearchTree.leftNode(n);
+        BalancedSearchTree.Node<E> right = BalancedSearchTree.rightNode(n);
+        int leftDifference = n.rank - rankOf(left);
+        int rightDifference = n.rank - rankOf(right);
+        return leftDifference >= 1 && leftDifference <= 2
+                && rightDifference >= 1 && rightDifference <= 2
+                && (left != null || right != null || n.rank == 0)
+                && isRankBalanced(left)
+                && isRankBalanced(right);
+    }
+
+    private static int rankOf(BalancedSearchTree.Node<?> n) {
+        return BalancedSearchTree.rankOf(n, -1);
+    }
+}
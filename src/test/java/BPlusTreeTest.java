@@ -0,0 +1,60 @@
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.generator.Size;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JQF.class)
+public class BPlusTreeTest {
+
+    @Fuzz
+    public void testReplay(@From(OperationLogGenerator.class) OperationLog log,
+                           @InRange(minInt=3, maxInt=8) int order) {
+        // Small orders make the operations split and merge nodes often.
+        BPlusTree<Integer> tree = new BPlusTree<>(Comparator.<Integer>naturalOrder(), order);
+        TreeSet<Integer> expected = SetChecks.checkReplay(log, tree, BPlusTree::isValidBPlusTree);
+        for (int key = -OperationLogGenerator.K; key <= OperationLogGenerator.K; key++) {
+            assertEquals(expected.contains(key), tree.contains(key));
+        }
+        if (!expected.isEmpty()) {
+            assertEquals(expected.first(), tree.first());
+            assertEquals(expected.last(), tree.last());
+        }
+    }
+
+    @Fuzz
+    public void testRange(@Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> keys,
+                          @InRange(minInt=-100, maxInt=100) int from,
+                          @InRange(minInt=0, maxInt=100) int length,
+                          @InRange(minInt=3, maxInt=8) int order) {
+        BPlusTree<Integer> tree = new BPlusTree<>(Comparator.<Integer>naturalOrder(), order);
+        TreeSet<Integer> expected = new TreeSet<>();
+        tree.addAll(keys);
+        expected.addAll(keys);
+        List<Integer> range = new ArrayList<>();
+        tree.iterator(from, from + length).forEachRemaining(range::add);
+        assertEquals(new ArrayList<>(expected.subSet(from, from + length)), range);
+        range.clear();
+        tree.iterator(null, from).forEachRemaining(range::add);
+        assertEquals(new ArrayList<>(expected.headSet(from)), range);
+        range.clear();
+        tree.iterator(from, null).forEachRemaining(range::add);
+        assertEquals(new ArrayList<>(expected.tailSet(from)), range);
+    }
+
+    @Fuzz
+    public void testIteratorRemove(@Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> keys,
+                                   @InRange(minInt=-100, maxInt=100) int threshold,
+                                   @InRange(minInt=3, maxInt=8) int order) {
+        SetChecks.checkIteratorRemove(keys, new BPlusTree<>(Comparator.<Integer>naturalOrder(), order),
+                key -> key < threshold && key % 2 != 0, BPlusTree::isValidBPlusTree);
+    }
+}
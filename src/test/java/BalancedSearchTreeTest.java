@@ -0,0 +1,60 @@
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.generator.Size;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JQF.class)
+public class BalancedSearchTreeTest {
+
+    private static final BalancingPolicy[] POLICIES = {
+        BalancingPolicy.RED_BLACK, BalancingPolicy.AVL, BalancingPolicy.WAVL
+    };
+
+    @Fuzz
+    public void testReplay(@From(OperationLogGenerator.class) OperationLog log,
+                           @InRange(minInt=0, maxInt=2) int policy) {
+        SetChecks.checkReplay(log, new BalancedSearchTree<>(POLICIES[policy]),
+                BalancedSearchTree::isValidBalancedTree);
+    }
+
+    @Fuzz
+    public void testRedBlackMetrics(@From(OperationLogGenerator.class) OperationLog log) {
+        // RedBlackTree rebalances through the same policy, so the same
+        // operations must report the same work to the metrics listener.
+        TreeMetrics expected = new TreeMetrics();
+        TreeMetrics actual = new TreeMetrics();
+        BalancedSearchTree<Integer> balanced = new BalancedSearchTree<>(BalancingPolicy.RED_BLACK);
+        balanced.setMetricsListener(expected);
+        RedBlackTree tree = new RedBlackTree();
+        tree.setMetricsListener(actual);
+        for (int i = 0; i < log.size(); i++) {
+            int key = log.key(i);
+            if (log.opcode(i) == OperationLog.ADD) {
+                assertEquals(balanced.add(key), tree.add(key));
+            } else {
+                assertEquals(balanced.remove(key), tree.remove(key));
+            }
+        }
+        assertEquals(expected.getInsertionFixups(), actual.getInsertionFixups());
+        assertEquals(expected.getRemovalFixups(), actual.getRemovalFixups());
+        assertArrayEquals(expected.getFixupIterationHistogram(), actual.getFixupIterationHistogram());
+        assertEquals(expected.getRotations(), actual.getRotations());
+        assertEquals(expected.getRecolors(), actual.getRecolors());
+        assertArrayEquals(expected.getDescentDepthHistogram(), actual.getDescentDepthHistogram());
+    }
+
+    @Fuzz
+    public void testIteratorRemove(@Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> keys,
+                                   @InRange(minInt=-100, maxInt=100) int threshold,
+                                   @InRange(minInt=0, maxInt=2) int policy) {
+        SetChecks.checkIteratorRemove(keys, new BalancedSearchTree<>(POLICIES[policy]),
+                key -> key < threshold && key % 2 != 0, BalancedSearchTree::isValidBalancedTree);
+    }
+}
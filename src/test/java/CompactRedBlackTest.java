@@ -0,0 +1,77 @@
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.generator.Size;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JQF.class)
+public class CompactRedBlackTest {
+
+    @Fuzz
+    public void testReplay(@From(OperationLogGenerator.class) OperationLog log) {
+        CompactRedBlackTree<Integer> tree = new CompactRedBlackTree<>();
+        TreeSet<Integer> expected = SetChecks.checkReplay(log, tree, CompactRedBlackTree::isValidRedBlackTree);
+        if (!expected.isEmpty()) {
+            assertEquals(expected.first(), tree.first());
+            assertEquals(expected.last(), tree.last());
+        }
+    }
+
+    @Fuzz
+    public void testIteratorRemove(@Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> keys,
+                                   @InRange(minInt=-100, maxInt=100) int threshold) {
+        SetChecks.checkIteratorRemove(keys, new CompactRedBlackTree<>(), key -> key < threshold,
+                CompactRedBlackTree::isValidRedBlackTree);
+    }
+
+    @Fuzz
+    public void testNoOpUpdatesWhileIterating(@Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> keys,
+                                              @Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> updates) {
+        // Between steps of an iteration, adds a key that is present or
+        // removes one that is absent.  They may recolor and rotate, so the
+        // iterator must either carry on correctly or fail fast; after a
+        // failure the iteration resumes from a new iterator.
+        CompactRedBlackTree<Integer> tree = new CompactRedBlackTree<>();
+        TreeSet<Integer> expected = new TreeSet<>();
+        tree.addAll(keys);
+        expected.addAll(keys);
+        List<Integer> visited = new ArrayList<>();
+        Iterator<Integer> i = tree.iterator();
+        for (int key : updates) {
+            if (expected.contains(key)) {
+                assertFalse(tree.add(key));
+            } else {
+                assertFalse(tree.remove(key));
+            }
+            assertTrue(tree.isValidRedBlackTree());
+            if (!i.hasNext()) {
+                continue;
+            }
+            try {
+                visited.add(i.next());
+            } catch (ConcurrentModificationException e) {
+                i = tree.iterator();
+                if (!visited.isEmpty()) {
+                    Integer lastVisited = visited.get(visited.size() - 1);
+                    while (i.hasNext() && i.next() < lastVisited) {
+                        // Skip the items already visited.
+                    }
+                }
+            }
+        }
+        i.forEachRemaining(visited::add);
+        assertEquals(new ArrayList<>(expected), visited);
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(tree));
+    }
+}
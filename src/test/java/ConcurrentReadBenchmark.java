@@ -0,0 +1,112 @@
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how lookups on a ConcurrentRedBlackTree scale with the number
+ * of reader threads, against a RedBlackTree behind a single lock.
+ *
+ * <p>For each thread count the readers look up random keys in a tree of
+ * bench.sizes items (the first size given) for bench.millis
+ * milliseconds, after the same time of warmup.  With bench.writer=true a
+ * further thread keeps adding and removing keys, so that optimistic
+ * reads fail now and then and fall back to the read lock.  The result is
+ * the total lookups per microsecond across all readers; on a machine with
+ * enough cores the concurrent tree should grow with the readers while the
+ * locked one stays flat.</p>
+ *
+ * <p>The thread counts are set with bench.threads, by default 1,2,4,8.</p>
+ */
+public class ConcurrentReadBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int n = Integer.parseInt(System.getProperty("bench.sizes", "1000000").split(",")[0]);
+        long millis = Long.getLong("bench.millis", 500L);
+        boolean writer = Boolean.getBoolean("bench.writer");
+        String[] threadCounts = System.getProperty("bench.threads", "1,2,4,8").split(",");
+
+        ConcurrentRedBlackTree concurrent = new ConcurrentRedBlackTree();
+        RedBlackTree plain = new RedBlackTree();
+        Random random = new Random(n);
+        for (int i = 0; i < n; i++) {
+            int key = random.nextInt(2 * n);
+            concurrent.add(key);
+            plain.add(key);
+        }
+        Set<Object> locked = Collections.synchronizedSet(plain);
+
+        System.out.printf("%-24s %8s %14s%n", "tree", "readers", "lookups/us");
+        for (String count : threadCounts) {
+            int readers = Integer.parseInt(count.trim());
+            report("ConcurrentRedBlackTree", readers,
+                    measure(concurrent, readers, n, millis, writer));
+            report("synchronized", readers, measure(locked, readers, n, millis, writer));
+        }
+    }
+
+    private static void report(String name, int readers, double rate) {
+        System.out.printf("%-24s %8d %14.2f%n", name, readers, rate);
+    }
+
+    /**
+     * Runs the readers, and the writer if asked for, for a warmup period
+     * and then a measured one.  Returns lookups per microsecond during
+     * the measured period.
+     */
+    private static double measure(final Set<Object> set, int readers, final int n,
+                                  long millis, boolean writer)
+            throws InterruptedException {
+        final AtomicLong lookups = new AtomicLong();
+        final long warmupEnd = System.nanoTime() + millis * 1000000L;
+        final long end = warmupEnd + millis * 1000000L;
+        final CountDownLatch done = new CountDownLatch(readers);
+        for (int r = 0; r < readers; r++) {
+            final Random random = new Random(r);
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    long counted = 0;
+                    long found = 0;
+                    long now;
+                    while ((now = System.nanoTime()) < end) {
+                        for (int i = 0; i < 1000; i++) {
+                            if (set.contains(random.nextInt(2 * n))) {
+                                found++;
+                            }
+                        }
+                        if (now >= warmupEnd) {
+                            counted += 1000;
+                        }
+                    }
+                    lookups.addAndGet(counted);
+                    Microbenchmark.sink += found;
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Thread churn = null;
+        if (writer) {
+            churn = new Thread(new Runnable() {
+                public void run() {
+                    Random random = new Random(-1);
+                    while (System.nanoTime() < end) {
+                        int key = random.nextInt(2 * n);
+                        if (!set.remove(key)) {
+                            set.add(key);
+                        }
+                    }
+                }
+            });
+            churn.setDaemon(true);
+            churn.start();
+        }
+        done.await();
+        if (churn != null) {
+            churn.join();
+        }
+        return lookups.get() / (millis * 1000.0);
+    }
+}
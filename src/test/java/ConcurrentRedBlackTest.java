@@ -0,0 +1,200 @@
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JQF.class)
+public class ConcurrentRedBlackTest {
+
+    /**
+     * Keys below zero are added before the threads start and never
+     * removed; keys from ABSENT up are never added.
+     */
+    private static final int STABLE = 200;
+    private static final int ABSENT = 1000000;
+    private static final int WRITER_RANGE = 500;
+
+    @Fuzz
+    public void testReplay(@From(OperationLogGenerator.class) OperationLog log) {
+        ConcurrentRedBlackTree tree = new ConcurrentRedBlackTree(Comparator.naturalOrder());
+        TreeSet<Integer> expected = SetChecks.checkReplay(log, tree, RedBlackInvariants::isValid);
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(tree.snapshot()));
+        List<Object> descending = new ArrayList<>();
+        tree.descendingIterator().forEachRemaining(descending::add);
+        assertEquals(new ArrayList<>(expected.descendingSet()), descending);
+        for (int key = -OperationLogGenerator.K; key <= OperationLogGenerator.K; key++) {
+            assertEquals(expected.contains(key), tree.contains(key));
+            assertEquals(expected.lower(key), tree.lower(key));
+            assertEquals(expected.ceiling(key), tree.ceiling(key));
+        }
+        checkView(expected.subSet(-20, true, 20, false), tree.subSet(-20, true, 20, false));
+        checkView(expected.headSet(0, true), tree.headSet(0, true));
+        checkView(expected.tailSet(0, false), tree.tailSet(0, false));
+        checkView(expected.descendingSet(), tree.descendingSet());
+        checkView(expected.descendingSet().headSet(10, true), tree.descendingSet().headSet(10, true));
+        // The snapshot iterator removes from the tree, and is not
+        // disturbed by the removals.
+        for (Iterator<?> i = tree.iterator(); i.hasNext();) {
+            Integer key = (Integer) i.next();
+            if (key % 2 != 0) {
+                i.remove();
+                expected.remove(key);
+            }
+        }
+        assertTrue(RedBlackInvariants.isValid(tree));
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(tree));
+        while (!expected.isEmpty()) {
+            assertEquals(expected.pollFirst(), tree.pollFirst());
+            assertEquals(expected.pollLast(), tree.pollLast());
+        }
+        assertNull(tree.pollFirst());
+        assertTrue(tree.isEmpty());
+    }
+
+    @Fuzz
+    public void testConcurrentChurn(@InRange(minInt=1, maxInt=4) int writers,
+                                    @InRange(minInt=1, maxInt=4) int readers,
+                                    long seed) throws InterruptedException {
+        // Each writer churns its own range of keys while the readers check
+        // that lookups and snapshots always see the keys that never change.
+        ConcurrentRedBlackTree tree = new ConcurrentRedBlackTree(Comparator.naturalOrder());
+        for (int key = -STABLE; key < 0; key++) {
+            tree.add(key);
+        }
+        List<TreeSet<Integer>> written = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch writing = new CountDownLatch(writers);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            TreeSet<Integer> expected = new TreeSet<>();
+            written.add(expected);
+            Random random = new Random(seed + w);
+            int base = w * WRITER_RANGE;
+            threads.add(thread(failure, start, () -> {
+                try {
+                    NavigableSet<Object> range = tree.subSet(base, true, base + WRITER_RANGE, false);
+                    for (int i = 0; i < 5000; i++) {
+                        int key = base + random.nextInt(WRITER_RANGE);
+                        if (i % 100 == 0) {
+                            // Only this writer changes the range.
+                            assertEquals(expected.pollFirst(), range.pollFirst());
+                        } else if (random.nextBoolean()) {
+                            assertEquals(expected.add(key), tree.add(key));
+                        } else {
+                            assertEquals(expected.remove(key), tree.remove(key));
+                        }
+                    }
+                } finally {
+                    writing.countDown();
+                }
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            Random random = new Random(~seed - r);
+            NavigableSet<Object> stableKeys = tree.headSet(0, false);
+            threads.add(thread(failure, start, () -> {
+                for (int i = 0; writing.getCount() > 0 || i < 100; i++) {
+                    assertEquals(STABLE, stableKeys.size());
+                    assertEquals(-STABLE, stableKeys.first());
+                    assertEquals(-1, stableKeys.last());
+                    assertTrue(tree.contains(-1 - random.nextInt(STABLE)));
+                    assertFalse(tree.contains(ABSENT + random.nextInt(STABLE)));
+                    assertTrue(tree.size() >= STABLE);
+                    if (i % 50 == 25) {
+                        List<Object> items = new ArrayList<>(stableKeys);
+                        assertEquals(STABLE, items.size());
+                        assertEquals(-STABLE, items.get(0));
+                    }
+                    if (i % 50 == 0) {
+                        int stable = 0;
+                        Integer previous = null;
+                        for (Object item : tree) {
+                            Integer key = (Integer) item;
+                            assertTrue(previous == null || previous < key);
+                            if (key < 0) {
+                                stable++;
+                            }
+                            previous = key;
+                        }
+                        assertEquals(STABLE, stable);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Worker thread failed", failure.get());
+        }
+
+        assertTrue(RedBlackInvariants.isValid(tree));
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int key = -STABLE; key < 0; key++) {
+            expected.add(key);
+        }
+        for (TreeSet<Integer> keys : written) {
+            expected.addAll(keys);
+        }
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(tree));
+        assertEquals(expected.size(), tree.size());
+    }
+
+    /**
+     * Compares a view of the tree with the same view of a TreeSet, and
+     * polls both empty.
+     */
+    private static void checkView(NavigableSet<Integer> expected, NavigableSet<Object> view) {
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(view));
+        assertEquals(expected.size(), view.size());
+        assertEquals(expected.isEmpty(), view.isEmpty());
+        List<Object> descending = new ArrayList<>();
+        view.descendingIterator().forEachRemaining(descending::add);
+        assertEquals(new ArrayList<>(expected.descendingSet()), descending);
+        for (int key = -OperationLogGenerator.K; key <= OperationLogGenerator.K; key++) {
+            assertEquals(expected.contains(key), view.contains(key));
+            assertEquals(expected.floor(key), view.floor(key));
+            assertEquals(expected.higher(key), view.higher(key));
+        }
+        while (!expected.isEmpty()) {
+            assertEquals(expected.first(), view.first());
+            assertEquals(expected.pollFirst(), view.pollFirst());
+            assertEquals(expected.pollLast(), view.pollLast());
+        }
+        assertNull(view.pollFirst());
+        assertTrue(view.isEmpty());
+    }
+
+    private static Thread thread(AtomicReference<Throwable> failure, CountDownLatch start,
+                                 Runnable body) {
+        return new Thread(() -> {
+            try {
+                start.await();
+                body.run();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        });
+    }
+}
@@ -0,0 +1,419 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a fuzz test in several worker JVMs at once, one per core by
+ * default, so a campaign's throughput grows with the number of cores.
+ *
+ * <p>JQF reads its seeds only when it starts, so the campaign runs in
+ * epochs.  In each epoch every worker fuzzes for a fixed time, seeded
+ * with the shared corpus.  Between epochs the new corpus entries and
+ * failures of all workers are merged into the shared ones, which are
+ * kept by content so that an input found by several workers is stored
+ * once.  Everything lives under
+ * target/fuzz-results/TEST_CLASS/TEST_METHOD/campaign:</p>
+ *
+ * <pre>
+ * corpus/               the shared corpus
+ * failures/             every failing input found so far
+ * worker-K/epoch-E/     what worker K wrote in epoch E
+ * summary.txt           the latest summary
+ * </pre>
+ *
+ * <p>While the campaign runs it prints a summary of executions,
+ * throughput, valid inputs, corpus size, failures and coverage for each
+ * worker and in total.  The total coverage is the union of the workers'
+ * coverage, not the sum.  A worker reports coverage as indices into
+ * Zest's coverage map, which JQF's agent derives from the name and
+ * bytecode of each instrumented class, so workers started on the same
+ * classpath agree on them and the union counts a branch covered by
+ * several workers once.  The map is hashed, so two branches may share an
+ * index, in the union as in each worker's own count.</p>
+ *
+ * <p>The agent of JQF 1.1 reads class files up to Java 11.  On a newer
+ * JDK it cannot instrument a test class whose stack frames involve JDK
+ * classes, and then no worker reports any coverage; compile the tests
+ * with --release 8 or run on JDK 11.</p>
+ *
+ * <p>Run it on the test classpath, as</p>
+ *
+ * <pre>
+ * FuzzCampaign TEST_CLASS TEST_METHOD [WORKERS [EPOCH_SECONDS [EPOCHS]]]
+ * </pre>
+ *
+ * <p>The optional arguments may instead be given as the properties
+ * campaign.workers, campaign.epoch and campaign.epochs, which default to
+ * one worker per core and 10 epochs of 60 seconds.  The campaign profile
+ * passes them that way, so that a worker count not given on the command
+ * line is left to the number of cores:</p>
+ *
+ * <pre>
+ * mvn -Pcampaign verify -Dcampaign.class=RedBlackTest -Dcampaign.method=testAdd
+ * </pre>
+ */
+public class FuzzCampaign {
+
+    /**
+     * Classes that JQF's agent must not instrument: the JDK, JQF itself
+     * and the libraries it runs on.  These are the defaults of JQF's own
+     * launch scripts.
+     */
+    private static final String EXCLUDES = "java/,com/sun/,sun/,jdk/,javax/,org/junit/,"
+            + "org/hamcrest/,edu/berkeley/cs/jqf/,janala/,org/objectweb/asm/,"
+            + "com/pholser/junit/quickcheck/,ru/vyarus/,org/javaruntype/,ognl/,"
+            + "org/slf4j/,org/apache/,com/google/";
+
+    private static final long REPORT_INTERVAL_MILLIS = 5000;
+
+    /**
+     * Workers get this long past the end of an epoch to exit by
+     * themselves before they are killed.
+     */
+    private static final long GRACE_MILLIS = 30000;
+
+    private final String testClass;
+    private final String testMethod;
+    private final int workers;
+    private final int epochSeconds;
+    private final Path directory;
+    private final Path corpus;
+    private final Path failures;
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Totals of the epochs each worker has finished.
+     */
+    private final WorkerStats[] finished;
+    private final BitSet coverage = new BitSet();
+
+    public FuzzCampaign(String testClass, String testMethod, int workers, int epochSeconds) {
+        this(testClass, testMethod, workers, epochSeconds,
+                Paths.get("target", "fuzz-results", testClass, testMethod, "campaign"));
+    }
+
+    FuzzCampaign(String testClass, String testMethod, int workers, int epochSeconds,
+                 Path directory) {
+        if (workers < 1 || epochSeconds < 1) {
+            throw new IllegalArgumentException("workers and epoch seconds must be positive");
+        }
+        this.testClass = testClass;
+        this.testMethod = testMethod;
+        this.workers = workers;
+        this.epochSeconds = epochSeconds;
+        this.directory = directory;
+        corpus = directory.resolve("corpus");
+        failures = directory.resolve("failures");
+        finished = new WorkerStats[workers];
+        for (int k = 0; k < workers; k++) {
+            finished[k] = new WorkerStats();
+        }
+    }
+
+    /**
+     * Runs the given number of epochs, printing summaries to out.
+     */
+    public void run(int epochs, PrintStream out) throws IOException, InterruptedException {
+        Files.createDirectories(corpus);
+        Files.createDirectories(failures);
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            Process[] processes = new Process[workers];
+            for (int k = 0; k < workers; k++) {
+                processes[k] = startWorker(k, epoch);
+            }
+            long deadline = System.currentTimeMillis() + epochSeconds * 1000L + GRACE_MILLIS;
+            for (int k = 0; k < workers; k++) {
+                while (!processes[k].waitFor(REPORT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (System.currentTimeMillis() > deadline) {
+                        processes[k].destroyForcibly().waitFor();
+                        break;
+                    }
+                    report(epoch, epochs, out);
+                }
+            }
+            for (int k = 0; k < workers; k++) {
+                Path output = workerDirectory(k, epoch);
+                finished[k].add(WorkerStats.read(output));
+                merge(output.resolve("corpus"), corpus);
+                merge(output.resolve("failures"), failures);
+            }
+            report(epoch + 1, epochs, out);
+        }
+    }
+
+    private Process startWorker(int k, int epoch) throws IOException {
+        Path output = workerDirectory(k, epoch);
+        Files.createDirectories(output);
+        String classpath = System.getProperty("java.class.path");
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xbootclasspath/a:" + instrumentationClasspath(classpath));
+        command.add("-javaagent:" + instrumentationJar(classpath));
+        command.add("-Djanala.excludes=" + System.getProperty("campaign.excludes", EXCLUDES));
+        command.add("-cp");
+        command.add(classpath);
+        command.add(FuzzWorker.class.getName());
+        command.add(testClass);
+        command.add(testMethod);
+        command.add(output.toString());
+        command.add(corpus.toString());
+        command.add(Integer.toString(epochSeconds));
+        File log = output.resolve("worker.out").toFile();
+        return new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(log).start();
+    }
+
+    private Path workerDirectory(int k, int epoch) {
+        return directory.resolve("worker-" + k).resolve("epoch-" + epoch);
+    }
+
+    private Path coverageFile(int k, int epoch) {
+        return workerDirectory(k, epoch).resolve(FuzzWorker.COVERAGE_FILE);
+    }
+
+    /**
+     * Returns the jqf-instrument jar, which holds the agent.
+     */
+    private static String instrumentationJar(String classpath) {
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (new File(entry).getName().startsWith("jqf-instrument")) {
+                return entry;
+            }
+        }
+        throw new IllegalStateException("jqf-instrument is not on the classpath");
+    }
+
+    /**
+     * Returns the agent and the ASM jars it needs, which go on the boot
+     * class path so that the agent can see them from any class loader.
+     */
+    private static String instrumentationClasspath(String classpath) {
+        StringBuilder sb = new StringBuilder(instrumentationJar(classpath));
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (new File(entry).getName().startsWith("asm")) {
+                sb.append(File.pathSeparator).append(entry);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the executions per second of all workers together in a
+     * finished epoch, over the time from when the first began fuzzing to
+     * when the last stopped.  Unlike the sum of the workers' own rates
+     * this does not count workers that took turns, on fewer cores than
+     * workers, as running at once.
+     */
+    double throughput(int epoch) throws IOException {
+        long executions = 0;
+        long start = Long.MAX_VALUE;
+        long end = 0;
+        for (int k = 0; k < workers; k++) {
+            WorkerStats stats = WorkerStats.read(workerDirectory(k, epoch));
+            if (stats.executions > 0) {
+                executions += stats.executions;
+                start = Math.min(start, stats.start);
+                end = Math.max(end, stats.start + stats.millis);
+            }
+        }
+        return end <= start ? 0 : executions * 1000.0 / (end - start);
+    }
+
+    /**
+     * Returns the size of the union of the workers' coverage.
+     */
+    int coverage() {
+        return coverage.cardinality();
+    }
+
+    /**
+     * Copies the files of one directory into another, named by a digest
+     * of their contents, skipping those that are already there.  Returns
+     * how many were new.
+     */
+    static int merge(Path from, Path to) throws IOException {
+        if (!Files.isDirectory(from)) {
+            return 0;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        int added = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(from)) {
+            for (Path file : files) {
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                byte[] bytes = Files.readAllBytes(file);
+                StringBuilder name = new StringBuilder();
+                for (byte b : digest.digest(bytes)) {
+                    name.append(String.format("%02x", b));
+                }
+                Path target = to.resolve(name.toString());
+                if (!Files.exists(target)) {
+                    Files.write(target, bytes);
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Prints the summary and saves it as summary.txt.
+     */
+    private void report(int epochsDone, int epochs, PrintStream out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        long elapsed = (System.currentTimeMillis() - startTime) / 1000;
+        sb.append(String.format("%s#%s: %d workers, %d of %d epochs of %d s, %d:%02d:%02d elapsed%n",
+                testClass, testMethod, workers, epochsDone, epochs, epochSeconds,
+                elapsed / 3600, elapsed / 60 % 60, elapsed % 60));
+        sb.append(String.format("%-8s %14s %10s %7s %8s %9s %9s%n",
+                "worker", "executions", "execs/s", "valid%", "corpus", "failures", "coverage"));
+        WorkerStats total = new WorkerStats();
+        double totalRate = 0;
+        for (int k = 0; k < workers; k++) {
+            WorkerStats stats = new WorkerStats();
+            stats.add(finished[k]);
+            WorkerStats current = null;
+            if (epochsDone < epochs) {
+                current = WorkerStats.read(workerDirectory(k, epochsDone));
+                stats.add(current);
+            }
+            if (epochsDone > 0) {
+                readCoverage(coverageFile(k, epochsDone - 1), coverage);
+            }
+            readCoverage(coverageFile(k, epochsDone), coverage);
+            // The current rate of a running worker, else its average.
+            double rate = current != null && current.millis > 0
+                    ? current.rate() : stats.rate();
+            totalRate += rate;
+            total.add(stats);
+            sb.append(String.format("%-8d %,14d %,10.0f %7.1f %8d %9d %9d%n",
+                    k, stats.executions, rate, stats.validPercent(), stats.corpus,
+                    stats.failures, stats.coverage));
+        }
+        sb.append(String.format("%-8s %,14d %,10.0f %7.1f %8d %9d %9d%n",
+                "total", total.executions, totalRate, total.validPercent(),
+                count(corpus), count(failures), coverage.cardinality()));
+        sb.append("(total corpus and failures are the shared, deduplicated sets; "
+                + "total coverage is the union)").append(System.lineSeparator());
+        out.print(sb);
+        out.println();
+        Files.write(directory.resolve("summary.txt"), sb.toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * Adds the indices in a coverage file written by a worker to the
+     * union.  A file that does not exist yet adds nothing.
+     */
+    static void readCoverage(Path file, BitSet coverage) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            for (int i = in.readInt(); i > 0; i--) {
+                coverage.set(in.readInt());
+            }
+        } catch (NoSuchFileException e) {
+            // The worker has not written it yet.
+        }
+    }
+
+    private static int count(Path directory) throws IOException {
+        int n = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path ignored : files) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The counts a worker writes to its stats file, or their sum over
+     * several epochs.  Start is the time the worker began fuzzing, and is
+     * not added up.
+     */
+    static final class WorkerStats {
+        long executions;
+        long valid;
+        long failures;
+        long start;
+        long millis;
+        long corpus;
+        long coverage;
+
+        static WorkerStats read(Path workerDirectory) throws IOException {
+            WorkerStats stats = new WorkerStats();
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(
+                    workerDirectory.resolve(FuzzWorker.STATS_FILE))) {
+                properties.load(in);
+            } catch (NoSuchFileException e) {
+                return stats;
+            }
+            stats.executions = Long.parseLong(properties.getProperty("executions", "0"));
+            stats.valid = Long.parseLong(properties.getProperty("valid", "0"));
+            stats.failures = Long.parseLong(properties.getProperty("failures", "0"));
+            stats.start = Long.parseLong(properties.getProperty("start", "0"));
+            stats.millis = Long.parseLong(properties.getProperty("millis", "0"));
+            stats.corpus = Long.parseLong(properties.getProperty("corpus", "0"));
+            stats.coverage = Long.parseLong(properties.getProperty("coverage", "0"));
+            return stats;
+        }
+
+        /**
+         * Adds another epoch's counts.  Corpus and coverage are
+         * cumulative within a worker, so the larger is kept.
+         */
+        void add(WorkerStats other) {
+            executions += other.executions;
+            valid += other.valid;
+            failures += other.failures;
+            millis += other.millis;
+            corpus = Math.max(corpus, other.corpus);
+            coverage = Math.max(coverage, other.coverage);
+        }
+
+        double rate() {
+            return millis == 0 ? 0 : executions * 1000.0 / millis;
+        }
+
+        double validPercent() {
+            return executions == 0 ? 0 : valid * 100.0 / executions;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2 || args.length > 5) {
+            System.err.println("Usage: FuzzCampaign TEST_CLASS TEST_METHOD [WORKERS [EPOCH_SECONDS [EPOCHS]]]");
+            System.exit(2);
+        }
+        // An unset or empty property leaves the default.
+        int cores = Runtime.getRuntime().availableProcessors();
+        int workers = args.length > 2 ? Integer.parseInt(args[2])
+                : Integer.getInteger("campaign.workers", cores);
+        int epochSeconds = args.length > 3 ? Integer.parseInt(args[3])
+                : Integer.getInteger("campaign.epoch", 60);
+        int epochs = args.length > 4 ? Integer.parseInt(args[4])
+                : Integer.getInteger("campaign.epochs", 10);
+        new FuzzCampaign(args[0], args[1], workers, epochSeconds).run(epochs, System.out);
+    }
+}
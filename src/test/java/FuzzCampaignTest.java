@@ -0,0 +1,203 @@
+import com.pholser.junit.quickcheck.generator.InRange;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JQF.class)
+public class FuzzCampaignTest {
+
+    private static final int CONTENTS = 8;
+    private static final int COVERAGE_MAP_SIZE = 1 << 16;
+
+    @Fuzz
+    public void testMerge(List<Integer> found, List<Integer> shared) throws IOException {
+        // Inputs are named by content in the shared directory, so inputs
+        // with the same content, from one worker or from the shared set
+        // already, are kept once.
+        Path root = Files.createTempDirectory("FuzzCampaignTest");
+        try {
+            Path from = Files.createDirectory(root.resolve("from"));
+            Path to = Files.createDirectory(root.resolve("to"));
+            Files.createDirectory(from.resolve("subdirectory"));
+            Set<Integer> before = new HashSet<>();
+            for (int i = 0; i < shared.size(); i++) {
+                int content = Math.floorMod(shared.get(i), CONTENTS);
+                Files.write(root.resolve("seed-" + i), content(content));
+                before.add(content);
+            }
+            FuzzCampaign.merge(root, to);
+            for (int i = 0; i < found.size(); i++) {
+                Files.write(from.resolve("id_" + i), content(Math.floorMod(found.get(i), CONTENTS)));
+            }
+            Set<Integer> after = new HashSet<>(before);
+            for (int content : found) {
+                after.add(Math.floorMod(content, CONTENTS));
+            }
+
+            assertEquals(after.size() - before.size(), FuzzCampaign.merge(from, to));
+            assertEquals(0, FuzzCampaign.merge(from, to));
+            assertEquals(0, FuzzCampaign.merge(root.resolve("missing"), to));
+            Set<String> merged = new HashSet<>();
+            try (Stream<Path> files = Files.list(to)) {
+                for (Path file : files.collect(Collectors.toList())) {
+                    merged.add(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+                }
+            }
+            assertEquals(after.stream().map(c -> new String(content(c), StandardCharsets.UTF_8))
+                    .collect(Collectors.toSet()), merged);
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Fuzz
+    public void testWorkerStats(@InRange(minLong=0, maxLong=1000000) long executions,
+                                @InRange(minLong=0, maxLong=1000000) long valid,
+                                @InRange(minLong=0, maxLong=1000) long failures,
+                                @InRange(minLong=0, maxLong=2000000000000L) long start,
+                                @InRange(minLong=0, maxLong=100000) long millis,
+                                @InRange(minLong=0, maxLong=1000) long corpus,
+                                @InRange(minLong=0, maxLong=1000) long coverage,
+                                @InRange(minLong=0, maxLong=1000) long laterCorpus,
+                                @InRange(minLong=0, maxLong=1000) long laterCoverage)
+            throws IOException {
+        Path root = Files.createTempDirectory("FuzzCampaignTest");
+        try {
+            FuzzCampaign.WorkerStats missing = FuzzCampaign.WorkerStats.read(root);
+            assertStats(missing, 0, 0, 0, 0, 0, 0, 0);
+            assertEquals(0, missing.rate(), 0);
+            assertEquals(0, missing.validPercent(), 0);
+
+            writeStats(root, executions, valid, failures, start, millis, corpus, coverage);
+            FuzzCampaign.WorkerStats first = FuzzCampaign.WorkerStats.read(root);
+            assertStats(first, executions, valid, failures, start, millis, corpus, coverage);
+            assertEquals(millis == 0 ? 0 : executions * 1000.0 / millis, first.rate(), 1e-9);
+            assertEquals(executions == 0 ? 0 : valid * 100.0 / executions,
+                    first.validPercent(), 1e-9);
+
+            // Executions and time add up over epochs; a worker's corpus
+            // and coverage carry over, so the larger is kept.
+            writeStats(root, 1, 1, 1, start + millis, 1, laterCorpus, laterCoverage);
+            FuzzCampaign.WorkerStats total = new FuzzCampaign.WorkerStats();
+            total.add(first);
+            total.add(FuzzCampaign.WorkerStats.read(root));
+            assertStats(total, executions + 1, valid + 1, failures + 1, 0, millis + 1,
+                    Math.max(corpus, laterCorpus), Math.max(coverage, laterCoverage));
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Fuzz
+    public void testThroughput(@InRange(minLong=1, maxLong=1000000) long executions,
+                               @InRange(minLong=1, maxLong=1000000) long otherExecutions,
+                               @InRange(minLong=0, maxLong=100000) long offset,
+                               @InRange(minLong=1, maxLong=100000) long millis,
+                               @InRange(minLong=1, maxLong=100000) long otherMillis)
+            throws IOException {
+        // Two workers that fuzzed over overlapping or separate times, and
+        // one that never got to fuzz.
+        Path root = Files.createTempDirectory("FuzzCampaignTest");
+        try {
+            FuzzCampaign campaign = new FuzzCampaign("Test", "test", 3, 1, root);
+            long start = 1000000;
+            writeStats(Files.createDirectories(root.resolve("worker-0").resolve("epoch-0")),
+                    executions, executions, 0, start, millis, 0, 0);
+            writeStats(Files.createDirectories(root.resolve("worker-1").resolve("epoch-0")),
+                    otherExecutions, 0, 0, start + offset, otherMillis, 0, 0);
+            writeStats(Files.createDirectories(root.resolve("worker-2").resolve("epoch-0")),
+                    0, 0, 0, 0, 0, 0, 0);
+            long end = Math.max(start + millis, start + offset + otherMillis);
+            assertEquals((executions + otherExecutions) * 1000.0 / (end - start),
+                    campaign.throughput(0), 1e-9);
+            assertEquals(0, campaign.throughput(1), 0);
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Fuzz
+    public void testCoverageUnion(List<Integer> first, List<Integer> second) throws IOException {
+        Path root = Files.createTempDirectory("FuzzCampaignTest");
+        try {
+            BitSet expected = new BitSet();
+            BitSet union = new BitSet();
+            FuzzCampaign.readCoverage(root.resolve("missing"), union);
+            assertEquals(expected, union);
+            int k = 0;
+            for (List<Integer> covered : Arrays.asList(first, first, second)) {
+                Set<Integer> indices = new HashSet<>();
+                for (int index : covered) {
+                    indices.add(Math.floorMod(index, COVERAGE_MAP_SIZE));
+                }
+                for (int index : indices) {
+                    expected.set(index);
+                }
+                Path file = root.resolve("coverage-" + k++);
+                FuzzWorker.writeCoverage(file, new ArrayList<>(indices));
+                FuzzCampaign.readCoverage(file, union);
+                assertEquals(expected, union);
+            }
+        } finally {
+            delete(root);
+        }
+    }
+
+    private static byte[] content(int content) {
+        return ("input " + content).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeStats(Path directory, long executions, long valid, long failures,
+                                   long start, long millis, long corpus, long coverage)
+            throws IOException {
+        Properties stats = new Properties();
+        stats.setProperty("executions", Long.toString(executions));
+        stats.setProperty("valid", Long.toString(valid));
+        stats.setProperty("failures", Long.toString(failures));
+        stats.setProperty("start", Long.toString(start));
+        stats.setProperty("millis", Long.toString(millis));
+        stats.setProperty("corpus", Long.toString(corpus));
+        stats.setProperty("coverage", Long.toString(coverage));
+        try (OutputStream out = Files.newOutputStream(directory.resolve(FuzzWorker.STATS_FILE))) {
+            stats.store(out, null);
+        }
+    }
+
+    private static void assertStats(FuzzCampaign.WorkerStats stats, long executions, long valid,
+                                    long failures, long start, long millis, long corpus,
+                                    long coverage) {
+        assertEquals(executions, stats.executions);
+        assertEquals(valid, stats.valid);
+        assertEquals(failures, stats.failures);
+        assertEquals(start, stats.start);
+        assertEquals(millis, stats.millis);
+        assertEquals(corpus, stats.corpus);
+        assertEquals(coverage, stats.coverage);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+}
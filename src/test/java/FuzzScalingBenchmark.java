@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures how the throughput of a FuzzCampaign grows with the number of
+ * workers.
+ *
+ * <p>For each worker count it runs a fresh campaign of one epoch of
+ * bench.seconds seconds (30 by default) on the given test, with no
+ * shared corpus to start from, and prints the total executions per
+ * second, the speedup over the first count, and the corpus and coverage
+ * the workers reached together.  The throughput is taken over the time
+ * any worker was fuzzing, so workers that start one after another on a
+ * busy machine are not counted as running at once.  Each worker is a
+ * JVM of its own, so on a machine with enough cores the throughput
+ * should grow about linearly until the workers outnumber the cores.
+ * The campaigns are kept under
+ * target/fuzz-results/TEST_CLASS/TEST_METHOD/scaling-N.</p>
+ *
+ * <p>The worker counts are set with bench.threads, by default 1,2,4,8.
+ * Run it on the test classpath, as</p>
+ *
+ * <pre>
+ * FuzzScalingBenchmark TEST_CLASS TEST_METHOD
+ * </pre>
+ */
+public class FuzzScalingBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 2) {
+            System.err.println("Usage: FuzzScalingBenchmark TEST_CLASS TEST_METHOD");
+            System.exit(2);
+        }
+        int seconds = Integer.getInteger("bench.seconds", 30);
+        String[] workerCounts = System.getProperty("bench.threads", "1,2,4,8").split(",");
+        PrintStream discard = new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+        });
+
+        System.out.printf("%8s %10s %8s %8s %9s%n",
+                "workers", "execs/s", "speedup", "corpus", "coverage");
+        double base = 0;
+        for (String count : workerCounts) {
+            int workers = Integer.parseInt(count.trim());
+            Path directory = Paths.get("target", "fuzz-results", args[0], args[1],
+                    "scaling-" + workers);
+            delete(directory);
+            FuzzCampaign campaign = new FuzzCampaign(args[0], args[1], workers, seconds,
+                    directory);
+            campaign.run(1, discard);
+            double rate = campaign.throughput(0);
+            if (base == 0) {
+                base = rate;
+            }
+            long corpus;
+            try (Stream<Path> files = Files.list(directory.resolve("corpus"))) {
+                corpus = files.count();
+            }
+            System.out.printf("%8d %,10.0f %8.2f %8d %9d%n",
+                    workers, rate, base == 0 ? 0 : rate / base, corpus, campaign.coverage());
+        }
+    }
+
+    /**
+     * Deletes what an earlier run left, so that its corpus does not seed
+     * this one.
+     */
+    private static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import edu.berkeley.cs.jqf.fuzz.ei.ZestGuidance;
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Properties;
+
+/**
+ * One worker of a FuzzCampaign.  It fuzzes a test with Zest for a fixed
+ * time, seeded with the campaign's shared corpus, and keeps a stats file
+ * and a coverage file up to date in its output directory for the
+ * campaign to read.  Zest only records its own statistics when it has a
+ * console, which a worker does not.
+ *
+ * <p>Runs in a JVM started by FuzzCampaign with JQF's instrumentation
+ * agent, as</p>
+ *
+ * <pre>
+ * FuzzWorker TEST_CLASS TEST_METHOD OUTPUT_DIR SEED_DIR SECONDS
+ * </pre>
+ */
+public class FuzzWorker extends ZestGuidance {
+
+    static final String STATS_FILE = "worker.stats";
+    static final String COVERAGE_FILE = "coverage";
+
+    private static final long WRITE_INTERVAL_MILLIS = 1000;
+
+    private final File outputDirectory;
+    private final long durationMillis;
+    private long startTime;
+    private long lastWrite;
+    private long executions;
+    private long valid;
+    private long invalid;
+    private long failures;
+    private long timeouts;
+
+    /**
+     * Zest's own time limit would start now, before the instrumented
+     * classes have loaded, which on a cold JVM can take most of a short
+     * epoch; the worker's clock starts at the first input instead.
+     */
+    FuzzWorker(String testName, Duration duration, File outputDirectory, File[] seeds)
+            throws IOException {
+        super(testName, null, outputDirectory, seeds);
+        this.outputDirectory = outputDirectory;
+        this.durationMillis = duration.toMillis();
+    }
+
+    @Override
+    public boolean hasInput() {
+        long now = System.currentTimeMillis();
+        if (startTime == 0) {
+            startTime = now;
+            lastWrite = now;
+        }
+        return now - startTime < durationMillis && super.hasInput();
+    }
+
+    @Override
+    public void handleResult(Result result, Throwable error) {
+        super.handleResult(result, error);
+        executions++;
+        switch (result) {
+        case SUCCESS:
+            valid++;
+            break;
+        case INVALID:
+            invalid++;
+            break;
+        case FAILURE:
+            failures++;
+            break;
+        default:
+            timeouts++;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastWrite >= WRITE_INTERVAL_MILLIS) {
+            lastWrite = now;
+            writeStats(now);
+        }
+    }
+
+    /**
+     * Replaces the stats and coverage files.  Each is written to a
+     * temporary file and moved into place, so readers never see half of
+     * one.
+     */
+    void writeStats(long now) {
+        Properties stats = new Properties();
+        stats.setProperty("executions", Long.toString(executions));
+        stats.setProperty("valid", Long.toString(valid));
+        stats.setProperty("invalid", Long.toString(invalid));
+        stats.setProperty("failures", Long.toString(failures));
+        stats.setProperty("timeouts", Long.toString(timeouts));
+        stats.setProperty("start", Long.toString(startTime));
+        stats.setProperty("millis", Long.toString(now - startTime));
+        String[] corpus = new File(outputDirectory, "corpus").list();
+        stats.setProperty("corpus", Integer.toString(corpus == null ? 0 : corpus.length));
+        Collection<?> covered = getTotalCoverage().getCovered();
+        stats.setProperty("coverage", Integer.toString(covered.size()));
+        try {
+            Path statsFile = new File(outputDirectory, STATS_FILE).toPath();
+            Path temporary = statsFile.resolveSibling(STATS_FILE + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                stats.store(out, null);
+            }
+            Files.move(temporary, statsFile, StandardCopyOption.REPLACE_EXISTING);
+
+            writeCoverage(new File(outputDirectory, COVERAGE_FILE).toPath(), covered);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Replaces a coverage file with the given indices of Zest's coverage
+     * map: their count, then each of them.  FuzzCampaign.readCoverage
+     * reads it back.
+     */
+    static void writeCoverage(Path coverageFile, Collection<?> covered) throws IOException {
+        Path temporary = coverageFile.resolveSibling(coverageFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(covered.size());
+            for (Object index : covered) {
+                out.writeInt((Integer) index);
+            }
+        }
+        Files.move(temporary, coverageFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 5) {
+            System.err.println("Usage: FuzzWorker TEST_CLASS TEST_METHOD OUTPUT_DIR SEED_DIR SECONDS");
+            System.exit(2);
+        }
+        String testClass = args[0];
+        String testMethod = args[1];
+        File outputDirectory = new File(args[2]);
+        File[] seeds = new File(args[3]).listFiles(File::isFile);
+        if (seeds == null) {
+            seeds = new File[0];
+        }
+        Arrays.sort(seeds);
+        Duration duration = Duration.ofSeconds(Long.parseLong(args[4]));
+
+        FuzzWorker guidance = new FuzzWorker(testClass + "#" + testMethod, duration,
+                outputDirectory, seeds);
+        GuidedFuzzing.run(testClass, testMethod, guidance, System.out);
+        guidance.writeStats(System.currentTimeMillis());
+        // Fuzzed code may have left non-daemon threads behind.
+        System.exit(0);
+    }
+}
@@ -0,0 +1,341 @@
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.internal.ParameterTypeContext;
+import com.pholser.junit.quickcheck.internal.generator.GeneratorRepository;
+import com.pholser.junit.quickcheck.internal.generator.ServiceLoaderGeneratorSource;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.junit.quickcheck.NonTrackingGenerationStatus;
+import org.junit.internal.AssumptionViolatedException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the generators and the fuzz properties on their own, without
+ * JQF's instrumentation or guidance, so that the execution rates JQF
+ * reports can be split into what the generator, the tested operation and
+ * the validity checks each cost.
+ *
+ * <p>Each generator is run in a tight loop from a seeded
+ * SourceOfRandomness, and each of its trees is checked with
+ * RedBlackInvariants.  Each @Fuzz property of RedBlackTest and
+ * RedBlackDirectTest is run the same way, with its arguments generated
+ * as JQF would generate them, on a test instance whose
+ * isValidRedBlackTree is timed separately.  For every one the harness
+ * reports inputs per second, the share of valid inputs (those that pass
+ * the validity assumption), failures, bytes allocated per input, and
+ * microseconds per input spent generating, in the operation itself and
+ * validating.  RedBlackGenerator checks its tree after every step as it
+ * builds it, and that checking counts as generation.  Properties that
+ * check invariants other than through isValidRedBlackTree, such as
+ * testReplay, count their checking as operation.</p>
+ *
+ * <p>The timing probes cost a few tens of nanoseconds each, which is
+ * small next to an input but not next to the validation of a tiny
+ * tree.  The run length is set with the bench.warmup, bench.iterations
+ * and bench.millis properties of Microbenchmark, and bench.filter and
+ * bench.seed select the targets and the random seed, so it runs through
+ * the benchmark profile:</p>
+ *
+ * <pre>
+ * mvn -Pbenchmark verify -Dbench.class=GeneratorThroughput
+ * </pre>
+ */
+public class GeneratorThroughput {
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    /**
+     * The time and memory one phase of the inputs has taken so far.
+     */
+    static final class Phase {
+        long nanos;
+        long bytes;
+        private long startNanos;
+        private long startBytes;
+
+        void start() {
+            startBytes = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        void stop() {
+            nanos += System.nanoTime() - startNanos;
+            bytes += allocatedBytes() - startBytes;
+        }
+    }
+
+    /**
+     * The totals for one generator or property.
+     */
+    static final class Score {
+        final Phase generation = new Phase();
+        final Phase operation = new Phase();
+        final Phase validation = new Phase();
+        long inputs;
+        long valid;
+        long failures;
+        Throwable firstFailure;
+    }
+
+    /**
+     * Something to measure: run generates one input, and tests it if the
+     * target is a property.
+     */
+    interface Target {
+        void run(SourceOfRandomness random, GenerationStatus status, Score score);
+    }
+
+    private final long warmupMillis = Integer.getInteger("bench.warmup", 3)
+            * Long.getLong("bench.millis", 500L);
+    private final long measureMillis = Integer.getInteger("bench.iterations", 5)
+            * Long.getLong("bench.millis", 500L);
+    private final String filter = System.getProperty("bench.filter", "");
+    private final long seed = Long.getLong("bench.seed", 42L);
+    private final List<String> results = new ArrayList<String>();
+
+    /**
+     * The score of the target being measured, for the test instances to
+     * time their validity checks against.
+     */
+    private Score current;
+
+    private final RedBlackTest redBlackTest = new RedBlackTest() {
+        @Override
+        public boolean isValidRedBlackTree(RedBlackTree tree) {
+            current.validation.start();
+            try {
+                return super.isValidRedBlackTree(tree);
+            } finally {
+                current.validation.stop();
+            }
+        }
+    };
+
+    private final RedBlackDirectTest redBlackDirectTest = new RedBlackDirectTest() {
+        @Override
+        public boolean isValidRedBlackTree(RedBlackTree tree) {
+            current.validation.start();
+            try {
+                return super.isValidRedBlackTree(tree);
+            } finally {
+                current.validation.stop();
+            }
+        }
+    };
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the bytes the current thread has allocated so far, or 0 if
+     * the JVM does not count them.
+     */
+    static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns a target that generates trees and checks each with
+     * RedBlackInvariants.
+     */
+    static Target generator(Generator<RedBlackTree> generator) {
+        return new Target() {
+            public void run(SourceOfRandomness random, GenerationStatus status, Score score) {
+                score.generation.start();
+                RedBlackTree tree = generator.generate(random, status);
+                score.generation.stop();
+                // Checking is all a generator's operation does.
+                score.operation.start();
+                score.validation.start();
+                boolean valid = RedBlackInvariants.isValid(tree);
+                score.validation.stop();
+                score.operation.stop();
+                score.inputs++;
+                score.valid += valid ? 1 : 0;
+            }
+        };
+    }
+
+    /**
+     * Returns a target that runs the given @Fuzz method of the test
+     * instance.  The arguments come from the generators JQF would pick
+     * for the method's parameters, annotations included.
+     */
+    static Target property(Object test, Method method, SourceOfRandomness random) {
+        GeneratorRepository repository = new GeneratorRepository(random)
+                .register(new ServiceLoaderGeneratorSource());
+        Parameter[] parameters = method.getParameters();
+        List<Generator<?>> generators = new ArrayList<Generator<?>>();
+        for (Parameter parameter : parameters) {
+            ParameterTypeContext context = new ParameterTypeContext(parameter.getName(),
+                    parameter.getAnnotatedType(),
+                    method.getDeclaringClass().getName() + '.' + method.getName())
+                    .allowMixedTypes(true)
+                    .annotate(parameter);
+            Generator<?> generator = repository.generatorFor(context);
+            generator.provide(repository);
+            generator.configure(context.annotatedType());
+            generators.add(generator);
+        }
+        return new Target() {
+            public void run(SourceOfRandomness random, GenerationStatus status, Score score) {
+                score.inputs++;
+                Object[] arguments = new Object[generators.size()];
+                score.generation.start();
+                try {
+                    for (int i = 0; i < arguments.length; i++) {
+                        arguments[i] = generators.get(i).generate(random, status);
+                    }
+                } catch (AssumptionViolatedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    fail(score, e);
+                    return;
+                } finally {
+                    score.generation.stop();
+                }
+                // Validation runs inside the property and is subtracted
+                // from it afterwards.
+                score.operation.start();
+                try {
+                    method.invoke(test, arguments);
+                    score.valid++;
+                } catch (InvocationTargetException e) {
+                    if (!(e.getCause() instanceof AssumptionViolatedException)) {
+                        score.valid++;
+                        fail(score, e.getCause());
+                    }
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    score.operation.stop();
+                }
+            }
+        };
+    }
+
+    private static void fail(Score score, Throwable failure) {
+        if (score.failures++ == 0) {
+            score.firstFailure = failure;
+        }
+    }
+
+    /**
+     * Runs the target for the warmup time, then measures it for the
+     * measurement time and reports the result.
+     */
+    void measure(String name, Target target) {
+        if (!name.contains(filter)) {
+            return;
+        }
+        SourceOfRandomness random = new SourceOfRandomness(new Random(seed));
+        GenerationStatus status = new NonTrackingGenerationStatus(random);
+        current = new Score();
+        loop(target, random, status, warmupMillis);
+        current = new Score();
+        long elapsed = loop(target, random, status, measureMillis);
+        report(name, current, elapsed);
+    }
+
+    /**
+     * Runs the target until the given time is up, and returns the
+     * nanoseconds it took.
+     */
+    private long loop(Target target, SourceOfRandomness random, GenerationStatus status,
+                      long millis) {
+        long start = System.nanoTime();
+        long deadline = start + millis * 1000000L;
+        long now;
+        do {
+            target.run(random, status, current);
+            now = System.nanoTime();
+        } while (now < deadline);
+        return now - start;
+    }
+
+    private void report(String name, Score score, long elapsed) {
+        long inputs = Math.max(score.inputs, 1);
+        long operationNanos = score.operation.nanos - score.validation.nanos;
+        long bytes = score.generation.bytes + score.operation.bytes;
+        String line = String.format("%-36s %12.0f %7.1f %8d %10s %10.2f %10.2f %10.2f",
+                name, score.inputs * 1e9 / elapsed, 100.0 * score.valid / inputs, score.failures,
+                THREADS == null ? "n/a" : String.format("%,d", bytes / inputs),
+                score.generation.nanos / 1e3 / inputs, operationNanos / 1e3 / inputs,
+                score.validation.nanos / 1e3 / inputs);
+        System.out.println(line);
+        if (score.firstFailure != null) {
+            System.out.println("    first failure: " + score.firstFailure);
+        }
+        results.add(line);
+    }
+
+    /**
+     * Prints the results of every target measured so far as a table.
+     * The last three columns are microseconds per input.
+     */
+    void summarize() {
+        System.out.println();
+        System.out.println(String.format("%-36s %12s %7s %8s %10s %10s %10s %10s",
+                "Target", "inputs/s", "valid%", "failures", "bytes/in", "generate",
+                "operation", "validate"));
+        for (String line : results) {
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Returns the @Fuzz methods of the test class, by name.
+     */
+    private static List<Method> properties(Class<?> testClass) {
+        List<Method> methods = new ArrayList<Method>();
+        for (Method method : testClass.getMethods()) {
+            if (method.isAnnotationPresent(Fuzz.class)) {
+                methods.add(method);
+            }
+        }
+        methods.sort(Comparator.comparing(Method::getName));
+        return methods;
+    }
+
+    public static void main(String[] args) {
+        GeneratorThroughput harness = new GeneratorThroughput();
+        if (THREADS == null) {
+            System.out.println("This JVM does not count allocated bytes; bytes/in is n/a");
+        }
+
+        harness.measure("RedBlackGenerator", generator(new RedBlackGenerator()));
+        harness.measure("RedBlackGeneratorDirect", generator(new RedBlackGeneratorDirect()));
+        harness.measure("RedBlackGeneratorStructural", generator(new RedBlackGeneratorStructural()));
+
+        for (Object test : Arrays.asList(harness.redBlackTest, harness.redBlackDirectTest)) {
+            Class<?> testClass = test.getClass().getSuperclass();
+            for (Method method : properties(testClass)) {
+                String name = testClass.getName() + "." + method.getName();
+                if (!name.contains(harness.filter)) {
+                    continue;
+                }
+                SourceOfRandomness repositoryRandom = new SourceOfRandomness(new Random(harness.seed));
+                harness.measure(name, property(test, method, repositoryRandom));
+            }
+        }
+        harness.summarize();
+    }
+}
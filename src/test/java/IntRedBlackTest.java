@@ -0,0 +1,39 @@
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.generator.Size;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JQF.class)
+public class IntRedBlackTest {
+
+    @Fuzz
+    public void testToggle(@Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> keys) {
+        // Each key is added if absent and removed if present, mirrored on a TreeSet.
+        IntRedBlackTree tree = new IntRedBlackTree();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int key : keys) {
+            if (tree.contains(key)) {
+                assertEquals(expected.remove(key), tree.remove(key));
+            } else {
+                assertEquals(expected.add(key), tree.add(key));
+            }
+            assertTrue(tree.isValidRedBlackTree());
+            assertEquals(expected.size(), tree.size());
+        }
+
+        int[] sorted = new int[expected.size()];
+        int i = 0;
+        for (int key : expected) {
+            sorted[i++] = key;
+        }
+        assertArrayEquals(sorted, tree.toArray());
+    }
+}
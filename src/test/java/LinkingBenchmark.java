@@ -0,0 +1,124 @@
+import java.util.Random;
+
+/**
+ * Compares rotations done through the checked public linking methods
+ * with the trusted relinking the trees now use, at increasing depths.
+ *
+ * <p>Each benchmark rotates a node at the bottom of a degenerate tree
+ * left and back right again.  Through setLeft and setRight every link
+ * walks all ancestors, once to look for a cycle and again to fix sizes,
+ * so the checked rotation grows with the depth while the trusted one
+ * stays flat.  The red-black benchmarks show the effect on whole
+ * insertions and removals.</p>
+ *
+ * <p>Run with: java -cp target/classes:target/test-classes LinkingBenchmark</p>
+ */
+public class LinkingBenchmark {
+
+    private static final int[] DEPTHS = {16, 256, 4096};
+
+    private static final int[] SIZES = {1 << 10, 1 << 16, 1 << 20};
+
+    /**
+     * Exposes the rotations, and the checked rotation they replaced.
+     */
+    private static class RotatingTree extends BinarySearchTree<Integer> {
+
+        void trustedRotateLeft(BinaryTreeNode<Integer> n) {
+            rotateLeft(n);
+        }
+
+        void trustedRotateRight(BinaryTreeNode<Integer> n) {
+            rotateRight(n);
+        }
+
+        void checkedRotateLeft(BinaryTreeNode<Integer> n) {
+            BinaryTreeNode<Integer> oldRight = n.getRight();
+            n.setRight(oldRight.getLeft());
+            if (n.getParent() == null) {
+                setRoot(oldRight);
+            } else if (n.getParent().getLeft() == n) {
+                n.getParent().setLeft(oldRight);
+            } else {
+                n.getParent().setRight(oldRight);
+            }
+            oldRight.setLeft(n);
+        }
+
+        void checkedRotateRight(BinaryTreeNode<Integer> n) {
+            BinaryTreeNode<Integer> oldLeft = n.getLeft();
+            n.setLeft(oldLeft.getRight());
+            if (n.getParent() == null) {
+                setRoot(oldLeft);
+            } else if (n.getParent().getRight() == n) {
+                n.getParent().setRight(oldLeft);
+            } else {
+                n.getParent().setLeft(oldLeft);
+            }
+            oldLeft.setRight(n);
+        }
+
+        /**
+         * Returns the parent of the last node of the right spine.
+         */
+        BinaryTreeNode<Integer> deepNode() {
+            BinaryTreeNode<Integer> n = getRoot();
+            while (n.getRight().getRight() != null) {
+                n = n.getRight();
+            }
+            return n;
+        }
+    }
+
+    public static void main(String[] args) {
+        Microbenchmark bench = new Microbenchmark();
+
+        for (int depth : DEPTHS) {
+            final RotatingTree tree = new RotatingTree();
+            for (int i = 0; i < depth; i++) {
+                tree.add(i);
+            }
+            final BinaryTreeNode<Integer> n = tree.deepNode();
+
+            bench.run("rotate.checked depth=" + depth, 2, new Microbenchmark.Body() {
+                public long run() {
+                    BinaryTreeNode<Integer> oldRight = n.getRight();
+                    tree.checkedRotateLeft(n);
+                    tree.checkedRotateRight(oldRight);
+                    return n.getSize();
+                }
+            });
+            bench.run("rotate.trusted depth=" + depth, 2, new Microbenchmark.Body() {
+                public long run() {
+                    BinaryTreeNode<Integer> oldRight = n.getRight();
+                    tree.trustedRotateLeft(n);
+                    tree.trustedRotateRight(oldRight);
+                    return n.getSize();
+                }
+            });
+        }
+
+        for (final int size : SIZES) {
+            final RedBlackTree tree = new RedBlackTree();
+            final int[] keys = new Random(size).ints(size, 0, 2 * size).toArray();
+            for (int key : keys) {
+                tree.add(key);
+            }
+
+            bench.run("redBlack.addRemove size=" + size, 2, new Microbenchmark.Body() {
+                private int i = 0;
+
+                public long run() {
+                    // Churn keys outside the tree's range so that every add
+                    // and remove changes the tree.
+                    int key = 2 * size + (i++ & 1023);
+                    tree.add(key);
+                    tree.remove(key);
+                    return tree.size();
+                }
+            });
+        }
+
+        bench.summarize();
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small harness for timing tree operations from a main method.
+ *
+ * <p>JMH would be the usual tool, but its annotation processor refuses
+ * benchmark classes in the default package, and nothing outside the
+ * default package can refer to the trees.  This harness follows the JMH
+ * recipe in miniature: a few warmup iterations to let the JIT settle,
+ * then timed iterations of a fixed length, with every result folded into
+ * a volatile sink so the work cannot be optimized away.</p>
+ *
+ * <p>Iteration counts and lengths can be set with the system properties
+ * bench.warmup, bench.iterations and bench.millis, and bench.filter
+ * restricts a run to benchmarks whose name contains the given text.</p>
+ */
+public class Microbenchmark {
+
+    /**
+     * One measured piece of work.  Each call performs operationsPerCall
+     * operations and returns something derived from their results.
+     */
+    public interface Body {
+        long run();
+    }
+
+    /**
+     * Setup that is not timed, such as building a fresh tree for a
+     * benchmark that consumes it.
+     */
+    public interface Setup {
+        void run();
+    }
+
+    private static final Setup NO_SETUP = new Setup() {
+        public void run() {
+        }
+    };
+
+    public static volatile long sink;
+
+    private final int warmupIterations = Integer.getInteger("bench.warmup", 3);
+    private final int iterations = Integer.getInteger("bench.iterations", 5);
+    private final long millis = Long.getLong("bench.millis", 500L);
+    private final String filter = System.getProperty("bench.filter", "");
+    private final List<String> results = new ArrayList<String>();
+
+    /**
+     * Times the body, reporting the mean time per operation.
+     */
+    public void run(String name, int operationsPerCall, Body body) {
+        run(name, operationsPerCall, NO_SETUP, body);
+    }
+
+    /**
+     * Times the body, running setup untimed before each iteration.
+     */
+    public void run(String name, int operationsPerCall, Setup setup, Body body) {
+        if (!name.contains(filter)) {
+            return;
+        }
+        measure(name, operationsPerCall, setup, body, false);
+    }
+
+    /**
+     * Times the body, running setup untimed before every call, for work
+     * that uses up its input.
+     */
+    public void runFresh(String name, int operationsPerCall, Setup setup, Body body) {
+        if (!name.contains(filter)) {
+            return;
+        }
+        measure(name, operationsPerCall, setup, body, true);
+    }
+
+    /**
+     * Returns whether a benchmark with the given name would run, so that
+     * callers can skip preparing input for those that won't.
+     */
+    public boolean selected(String name) {
+        return name.contains(filter);
+    }
+
+    private void measure(String name, int operationsPerCall, Setup setup, Body body,
+                         boolean setupEachCall) {
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(operationsPerCall, setup, body, setupEachCall);
+        }
+        double[] scores = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            scores[i] = iteration(operationsPerCall, setup, body, setupEachCall);
+        }
+        report(name, scores);
+    }
+
+    /**
+     * Prints the results of every benchmark run so far as a table.
+     */
+    public void summarize() {
+        System.out.println();
+        System.out.println(String.format("%-56s %14s %12s", "Benchmark", "ns/op", "error"));
+        for (String line : results) {
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Calls the body until the iteration time is up, and returns the
+     * mean number of nanoseconds per operation.  When setupEachCall is
+     * set, only the time spent in the body counts.
+     */
+    private double iteration(int operationsPerCall, Setup setup, Body body,
+                             boolean setupEachCall) {
+        if (!setupEachCall) {
+            setup.run();
+        }
+        long deadline = System.nanoTime() + millis * 1000000L;
+        long start = System.nanoTime();
+        long elapsed = 0;
+        long calls = 0;
+        long accumulator = 0;
+        long now;
+        do {
+            if (setupEachCall) {
+                setup.run();
+                long callStart = System.nanoTime();
+                accumulator += body.run();
+                now = System.nanoTime();
+                elapsed += now - callStart;
+            } else {
+                accumulator += body.run();
+                now = System.nanoTime();
+            }
+            calls++;
+        } while (now < deadline);
+        if (!setupEachCall) {
+            elapsed = now - start;
+        }
+        sink = accumulator;
+        return (double) elapsed / (calls * operationsPerCall);
+    }
+
+    private void report(String name, double[] scores) {
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        double error = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0;
+        String line = String.format("%-56s %14.1f %12.1f", name, mean, error);
+        System.out.println(line);
+        results.add(line);
+    }
+}
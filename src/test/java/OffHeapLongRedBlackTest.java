@@ -0,0 +1,71 @@
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.generator.Size;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JQF.class)
+public class OffHeapLongRedBlackTest {
+
+    @Fuzz
+    public void testToggle(@Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> keys,
+                           @InRange(minInt=1, maxInt=4) int chunkShift) {
+        // Each key is added if absent and removed if present, mirrored on a
+        // TreeSet.  Tiny chunks make the nodes span many buffers, and the
+        // keys are spread out so that their high bits matter.
+        OffHeapLongRedBlackTree tree = new OffHeapLongRedBlackTree(0, chunkShift);
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int k : keys) {
+            long key = (long) k << 40 | (k & 0xff);
+            if (tree.contains(key)) {
+                assertEquals(expected.remove(key), tree.remove(key));
+            } else {
+                assertEquals(expected.add(key), tree.add(key));
+            }
+            assertTrue(tree.isValidRedBlackTree());
+            assertEquals(expected.size(), tree.size());
+        }
+
+        long[] sorted = new long[expected.size()];
+        int i = 0;
+        for (long key : expected) {
+            sorted[i++] = key;
+        }
+        assertArrayEquals(sorted, tree.toArray());
+    }
+
+    @Fuzz
+    public void testReplay(@From(OperationLogGenerator.class) OperationLog log,
+                           @InRange(minInt=1, maxInt=4) int chunkShift) {
+        // Unlike testToggle, this also adds keys that are present and
+        // removes keys that are absent, which must leave the tree as it was.
+        OffHeapLongRedBlackTree tree = new OffHeapLongRedBlackTree(0, chunkShift);
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < log.size(); i++) {
+            long key = (long) log.key(i) << 40 | (log.key(i) & 0xff);
+            long[] before = tree.toArray();
+            boolean changed;
+            if (log.opcode(i) == OperationLog.ADD) {
+                changed = tree.add(key);
+                assertEquals(expected.add(key), changed);
+            } else {
+                changed = tree.remove(key);
+                assertEquals(expected.remove(key), changed);
+            }
+            if (!changed) {
+                assertArrayEquals(before, tree.toArray());
+            }
+            assertEquals(expected.contains(key), tree.contains(key));
+            assertTrue(tree.isValidRedBlackTree());
+            assertEquals(expected.size(), tree.size());
+        }
+    }
+}
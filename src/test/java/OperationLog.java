@@ -0,0 +1,302 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A sequence of add and remove operations on integer keys, packed one
+ * operation per int: the key shifted left by one with the opcode in the
+ * low bit.  Keys must fit in 31 bits.
+ *
+ * <p>Replaying a log rebuilds the tree that a sequence-based generator
+ * built, so a failing input can be reproduced, shrunk and benchmarked
+ * without JQF.  Logs are saved as a magic number, a count and the packed
+ * operations, all big-endian.  Running this class replays a saved log:</p>
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes OperationLog FILE [REPEATS]
+ * </pre>
+ *
+ * <p>which checks the invariants after every operation, reports the
+ * first one that breaks them, and then times REPEATS unchecked replays.</p>
+ */
+public class OperationLog {
+
+    public static final int ADD = 0;
+    public static final int REMOVE = 1;
+
+    private static final int MAGIC = 0x52424f4c;
+
+    private int[] operations;
+    private int size;
+
+    /**
+     * Constructs an empty log.
+     */
+    public OperationLog() {
+        operations = new int[16];
+    }
+
+    /**
+     * Constructs a log holding the first size packed operations of the
+     * given array, which is copied.
+     */
+    public OperationLog(int[] operations, int size) {
+        this.operations = Arrays.copyOf(operations, Math.max(size, 1));
+        this.size = size;
+    }
+
+    /**
+     * Returns the directory where failing logs of the given fuzz test are
+     * kept, next to JQF's corpus and failures for it.
+     */
+    public static Path failureDirectory(String testClass, String testMethod) {
+        return Paths.get("target", "fuzz-results", testClass, testMethod, "oplogs");
+    }
+
+    /**
+     * Reads a log written by writeTo.
+     *
+     * @exception IOException if the file cannot be read or is not a log.
+     */
+    public static OperationLog readFrom(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an operation log");
+            }
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException(file + " has a negative operation count");
+            }
+            int[] operations = new int[Math.max(size, 1)];
+            for (int i = 0; i < size; i++) {
+                operations[i] = in.readInt();
+            }
+            OperationLog log = new OperationLog();
+            log.operations = operations;
+            log.size = size;
+            return log;
+        }
+    }
+
+    /**
+     * Appends an operation.
+     *
+     * @exception IllegalArgumentException if the opcode is unknown or the
+     * key does not fit in 31 bits.
+     */
+    public void append(int opcode, int key) {
+        if (opcode != ADD && opcode != REMOVE) {
+            throw new IllegalArgumentException("Unknown opcode " + opcode);
+        }
+        if ((key << 1) >> 1 != key) {
+            throw new IllegalArgumentException("Key " + key + " does not fit in 31 bits");
+        }
+        if (size == operations.length) {
+            operations = Arrays.copyOf(operations, size * 2);
+        }
+        operations[size++] = key << 1 | opcode;
+    }
+
+    public void add(int key) {
+        append(ADD, key);
+    }
+
+    public void remove(int key) {
+        append(REMOVE, key);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int opcode(int i) {
+        return packed(i) & 1;
+    }
+
+    public int key(int i) {
+        return packed(i) >> 1;
+    }
+
+    /**
+     * Returns the ith operation in its packed form.
+     */
+    public int packed(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Operation " + i + " of " + size);
+        }
+        return operations[i];
+    }
+
+    /**
+     * Returns the packed operations.
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(operations, size);
+    }
+
+    /**
+     * Applies the operations, in order, to the given tree.
+     */
+    public void replay(RedBlackTree tree) {
+        int[] operations = this.operations;
+        for (int i = 0, n = size; i < n; i++) {
+            int operation = operations[i];
+            if ((operation & 1) == ADD) {
+                tree.add(operation >> 1);
+            } else {
+                tree.remove(operation >> 1);
+            }
+        }
+    }
+
+    /**
+     * Returns a new tree of naturally ordered keys built by replaying the
+     * log.
+     */
+    public RedBlackTree replay() {
+        RedBlackTree tree = new RedBlackTree(Comparator.naturalOrder());
+        replay(tree);
+        return tree;
+    }
+
+    /**
+     * Writes the log to the given file, replacing it if it exists.
+     */
+    public void writeTo(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(operations[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes the log into the given directory, creating it if needed,
+     * under the SHA-256 digest of its operations, so that the same
+     * failure found twice is stored once.  Returns the file.
+     *
+     * @exception IOException if the file cannot be written, or already
+     * exists and holds a different log.
+     */
+    public Path saveTo(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(digest() + ".oplog");
+        if (Files.exists(file)) {
+            if (!readFrom(file).equals(this)) {
+                throw new IOException(file + " holds a different log");
+            }
+            return file;
+        }
+        writeTo(file);
+        return file;
+    }
+
+    /**
+     * Returns the SHA-256 digest of the count and the packed operations,
+     * in hexadecimal.
+     */
+    public String digest() {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(4 * (size + 1));
+        bytes.putInt(size);
+        bytes.asIntBuffer().put(operations, 0, size);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest(bytes.array())) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof OperationLog)) {
+            return false;
+        }
+        OperationLog other = (OperationLog) o;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (operations[i] != other.operations[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < size; i++) {
+            h = 31 * h + operations[i];
+        }
+        return h;
+    }
+
+    /**
+     * Returns the operations as text, such as "[add 3, remove -7]".
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(opcode(i) == ADD ? "add " : "remove ").append(key(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: OperationLog FILE [REPEATS]");
+            System.exit(2);
+        }
+        OperationLog log = readFrom(Paths.get(args[0]));
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        System.out.println(log.size() + " operations");
+
+        RedBlackTree checked = new RedBlackTree(Comparator.naturalOrder());
+        checked.setCheckingInvariants(true);
+        for (int i = 0; i < log.size(); i++) {
+            try {
+                if (log.opcode(i) == ADD) {
+                    checked.add(log.key(i));
+                } else {
+                    checked.remove(log.key(i));
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Operation " + i + " ("
+                        + (log.opcode(i) == ADD ? "add " : "remove ") + log.key(i) + ") failed: " + e);
+                break;
+            }
+        }
+
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < repeats; r++) {
+            sink += log.replay().size();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d replays in %.2f s: %.0f replays/s, %d items built%n",
+                repeats, seconds, repeats / seconds, sink);
+    }
+}
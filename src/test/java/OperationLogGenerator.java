@@ -0,0 +1,33 @@
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+/**
+ * Generates the add and remove sequences that RedBlackGenerator applies,
+ * as logs that can be replayed and saved.
+ */
+public class OperationLogGenerator extends Generator<OperationLog> {
+    public OperationLogGenerator() { super(OperationLog.class); }
+
+    public static final int K = 100;
+    public static final int N = 100;
+
+    @Override
+    public OperationLog generate(SourceOfRandomness random, GenerationStatus __ignore__) {
+        return generateLog(random);
+    }
+
+    static OperationLog generateLog(SourceOfRandomness random) {
+        OperationLog log = new OperationLog();
+        int num_rounds = random.nextInt(N);
+        for (int i = 0; i < num_rounds; i++) {
+            if (random.nextBoolean()) {
+                log.add(random.nextInt(-K, K));
+            } else {
+                log.remove(random.nextInt(-K, K));
+            }
+        }
+        return log;
+    }
+}
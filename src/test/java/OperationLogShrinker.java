@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Shrinks a failing operation log to a small one that still fails, using
+ * Zeller's ddmin: the log is cut into n chunks, and if some chunk or the
+ * log without some chunk still fails it becomes the new log; otherwise
+ * the chunks are halved.  The result is 1-minimal: removing any single
+ * operation from it makes the failure go away.
+ *
+ * <p>The candidates of each round are replayed in parallel, a batch of
+ * as many as there are threads at a time, and the first failing one in
+ * candidate order is kept, so the result does not depend on timing.  Run
+ * this class on a saved log to shrink it:</p>
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes OperationLogShrinker FILE
+ * </pre>
+ *
+ * <p>which writes the result next to the input with a "-min" suffix.</p>
+ */
+public class OperationLogShrinker {
+
+    private final Predicate<OperationLog> fails;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private int replays;
+
+    /**
+     * Constructs a shrinker that keeps logs for which fails returns true,
+     * running up to parallelism candidates at a time on the executor.  The
+     * predicate is called from several threads at once.
+     */
+    public OperationLogShrinker(Predicate<OperationLog> fails, ExecutorService executor,
+                                int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.fails = fails;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the index of the first operation of the log after which a
+     * RedBlackTree breaks, or -1 if it never does.  The tree checks its
+     * invariants incrementally after each operation, which is the
+     * cheapest check that still stops at the first bad step, and each
+     * operation is compared with its expected effect on membership and
+     * size.
+     */
+    public static int firstBrokenOperation(OperationLog log) {
+        RedBlackTree tree = new RedBlackTree(Comparator.naturalOrder());
+        tree.setCheckingInvariants(true);
+        int expectedSize = 0;
+        for (int i = 0; i < log.size(); i++) {
+            int key = log.key(i);
+            try {
+                if (log.opcode(i) == OperationLog.ADD) {
+                    expectedSize += tree.add(key) ? 1 : 0;
+                    if (!tree.contains(key)) {
+                        return i;
+                    }
+                } else {
+                    expectedSize -= tree.remove(key) ? 1 : 0;
+                    if (tree.contains(key)) {
+                        return i;
+                    }
+                }
+            } catch (RuntimeException e) {
+                return i;
+            }
+            if (tree.size() != expectedSize) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of candidate logs replayed so far.
+     */
+    public synchronized int getReplays() {
+        return replays;
+    }
+
+    /**
+     * Returns a 1-minimal failing log obtained by removing operations
+     * from the given one.
+     *
+     * @exception IllegalArgumentException if the given log does not fail.
+     */
+    public OperationLog shrink(OperationLog log) throws InterruptedException {
+        if (!fails.test(log)) {
+            throw new IllegalArgumentException("The log does not fail");
+        }
+        int[] operations = log.toArray();
+        int n = 2;
+        while (operations.length >= 2) {
+            n = Math.min(n, operations.length);
+            List<int[]> chunks = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                chunks.add(Arrays.copyOfRange(operations, start(operations, i, n),
+                        start(operations, i + 1, n)));
+            }
+            int found = firstFailing(chunks);
+            if (found >= 0) {
+                operations = chunks.get(found);
+                n = 2;
+                continue;
+            }
+            // With two chunks each complement is the other chunk.
+            if (n > 2) {
+                List<int[]> complements = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    complements.add(without(operations, start(operations, i, n),
+                            start(operations, i + 1, n)));
+                }
+                found = firstFailing(complements);
+                if (found >= 0) {
+                    operations = complements.get(found);
+                    n = Math.max(n - 1, 2);
+                    continue;
+                }
+            }
+            if (n >= operations.length) {
+                break;
+            }
+            n = Math.min(2 * n, operations.length);
+        }
+        return new OperationLog(operations, operations.length);
+    }
+
+    /**
+     * Returns the index of the first candidate that fails, or -1.
+     */
+    private int firstFailing(List<int[]> candidates) throws InterruptedException {
+        for (int from = 0; from < candidates.size(); from += parallelism) {
+            List<Callable<Boolean>> batch = new ArrayList<>(parallelism);
+            for (int i = from; i < Math.min(from + parallelism, candidates.size()); i++) {
+                int[] candidate = candidates.get(i);
+                batch.add(() -> fails.test(new OperationLog(candidate, candidate.length)));
+            }
+            List<Future<Boolean>> results = executor.invokeAll(batch);
+            synchronized (this) {
+                replays += batch.size();
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    if (results.get(i).get()) {
+                        return from + i;
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns where the ith of n nearly equal chunks of the operations
+     * starts.
+     */
+    private static int start(int[] operations, int i, int n) {
+        return (int) ((long) operations.length * i / n);
+    }
+
+    private static int[] without(int[] operations, int from, int to) {
+        int[] result = new int[operations.length - (to - from)];
+        System.arraycopy(operations, 0, result, 0, from);
+        System.arraycopy(operations, to, result, from, operations.length - to);
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 1) {
+            System.err.println("Usage: OperationLogShrinker FILE");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        OperationLog log = OperationLog.readFrom(file);
+        int broken = firstBrokenOperation(log);
+        if (broken < 0) {
+            System.out.println("The log replays without breaking the tree");
+            return;
+        }
+        // Nothing after the first bad step matters.
+        OperationLog prefix = new OperationLog(log.toArray(), broken + 1);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            OperationLogShrinker shrinker = new OperationLogShrinker(
+                    l -> firstBrokenOperation(l) >= 0, executor, threads);
+            long start = System.nanoTime();
+            OperationLog shrunk = shrinker.shrink(prefix);
+            String name = file.getFileName().toString().replaceFirst("\\.oplog$", "");
+            Path output = file.resolveSibling(name + "-min.oplog");
+            shrunk.writeTo(output);
+            System.out.printf("%d operations shrunk to %d with %d replays in %.2f s: %s%n",
+                    log.size(), shrunk.size(), shrinker.getReplays(),
+                    (System.nanoTime() - start) / 1e9, shrunk);
+            System.out.println("Written to " + output);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
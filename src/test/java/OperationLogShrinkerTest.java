@@ -0,0 +1,54 @@
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+@RunWith(JQF.class)
+public class OperationLogShrinkerTest {
+
+    @Fuzz
+    public void testShrink(@From(OperationLogGenerator.class) OperationLog log,
+                           @InRange(minInt=0, maxInt=1000) int i,
+                           @InRange(minInt=0, maxInt=1000) int j) throws InterruptedException {
+        RedBlackTree replayed = log.replay();
+        assumeTrue(!replayed.isEmpty());
+        // A stand-in failure: the replayed tree holds two of the keys it ends with.
+        Object a = replayed.select(i % replayed.size());
+        Object b = replayed.select(j % replayed.size());
+        Predicate<OperationLog> fails = l -> {
+            RedBlackTree tree = l.replay();
+            return tree.contains(a) && tree.contains(b);
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            OperationLog shrunk = new OperationLogShrinker(fails, executor, 2).shrink(log);
+            assertTrue(fails.test(shrunk));
+            assertEquals(a.equals(b) ? 1 : 2, shrunk.size());
+            // 1-minimal: dropping any operation makes the failure go away.
+            int[] operations = shrunk.toArray();
+            for (int k = 0; k < operations.length; k++) {
+                int[] fewer = new int[operations.length - 1];
+                System.arraycopy(operations, 0, fewer, 0, k);
+                System.arraycopy(operations, k + 1, fewer, k, fewer.length - k);
+                assertFalse(fails.test(new OperationLog(fewer, fewer.length)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Fuzz
+    public void testFirstBrokenOperation(@From(OperationLogGenerator.class) OperationLog log) {
+        assertEquals(-1, OperationLogShrinker.firstBrokenOperation(log));
+    }
+}
@@ -0,0 +1,49 @@
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.generator.Size;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JQF.class)
+public class PersistentRedBlackTest {
+
+    private static List<Integer> items(PersistentRedBlackTree<Integer> tree) {
+        List<Integer> items = new ArrayList<>();
+        tree.forEach(items::add);
+        return items;
+    }
+
+    @Fuzz
+    public void testSnapshots(@Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> keys) {
+        // Toggle each key, keeping every version; older versions must not change.
+        PersistentRedBlackTree<Integer> tree = new PersistentRedBlackTree<>();
+        TreeSet<Integer> expected = new TreeSet<>();
+        List<PersistentRedBlackTree<Integer>> versions = new ArrayList<>();
+        List<List<Integer>> expectedVersions = new ArrayList<>();
+        for (int key : keys) {
+            if (tree.contains(key)) {
+                tree = tree.remove(key);
+                expected.remove(key);
+            } else {
+                tree = tree.add(key);
+                expected.add(key);
+            }
+            assertTrue(tree.isValidRedBlackTree());
+            versions.add(tree);
+            expectedVersions.add(new ArrayList<>(expected));
+        }
+
+        for (int i = 0; i < versions.size(); i++) {
+            assertTrue(versions.get(i).isValidRedBlackTree());
+            assertEquals(expectedVersions.get(i), items(versions.get(i)));
+            assertEquals(expectedVersions.get(i).size(), versions.get(i).size());
+        }
+    }
+}
@@ -8,21 +8,29 @@ import java.util.Comparator;
 public class RedBlackGenerator extends Generator<RedBlackTree> {
     public RedBlackGenerator() { super(RedBlackTree.class); }
 
-    public final int K = 100;
-    public final int N = 100;
+    public final int K = OperationLogGenerator.K;
+    public final int N = OperationLogGenerator.N;
+
+    /**
+     * A generated tree, which keeps the log it was built from so that a
+     * failing property can save it for replaying.
+     */
+    public static class LoggedTree extends RedBlackTree {
+        final OperationLog log;
+
+        LoggedTree(OperationLog log) {
+            super(Comparator.naturalOrder());
+            this.log = log;
+        }
+    }
 
     // Generates a single RedBlackTree
     @Override
     public RedBlackTree generate(SourceOfRandomness random, GenerationStatus __ignore__) {
-        RedBlackTree tree = new RedBlackTree(Comparator.naturalOrder());
-        int num_rounds = random.nextInt(N);
-        for (int i = 0; i < num_rounds; i++) {
-            if (random.nextBoolean()) {
-                tree.add(random.nextInt(-K, K));
-            } else {
-                tree.remove(random.nextInt(-K, K));
-            }
-        }
+        LoggedTree tree = new LoggedTree(OperationLogGenerator.generateLog(random));
+        // Fail at the operation that breaks the tree, not later.
+        tree.setCheckingInvariants(true);
+        tree.log.replay(tree);
         return tree;
     }
 
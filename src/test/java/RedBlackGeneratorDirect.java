@@ -2,7 +2,6 @@
 import com.pholser.junit.quickcheck.generator.GenerationStatus;
 import com.pholser.junit.quickcheck.generator.Generator;
 import com.pholser.junit.quickcheck.random.SourceOfRandomness;
-import javafx.util.Pair;
 
 import javax.imageio.metadata.IIOInvalidTreeException;
 import java.util.Comparator;
@@ -20,8 +19,8 @@ public class RedBlackGeneratorDirect extends Generator<RedBlackTree> {
     // Generates a single RedBlackTree
     private RedBlackTree.Node generateAux(SourceOfRandomness random, RedBlackTree tree, int SZ) {
         int datum = random.nextInt(-K, K);
-        RedBlackTree.Node node = tree.new Node(datum);
-        node.isRed = random.nextBoolean();
+        RedBlackTree.Node node = new RedBlackTree.Node(datum);
+        node.setRed(random.nextBoolean());
         if (random.nextBoolean()) {
             node.left = generateAux(random, tree, SZ);
             node.right = generateAux(random, tree, SZ);
@@ -32,8 +31,8 @@ public class RedBlackGeneratorDirect extends Generator<RedBlackTree> {
     // Generates a single RedBlackTree
     private RedBlackTree.Node generateIntervalAux(SourceOfRandomness random, RedBlackTree tree, int maxDepth, int min, int max) {
         int data = random.nextInt(min, max);
-        RedBlackTree.Node node = tree.new Node(data);
-        node.isRed = random.nextBoolean();
+        RedBlackTree.Node node = new RedBlackTree.Node(data);
+        node.setRed(random.nextBoolean());
 
         if (random.nextBoolean() && maxDepth >= 0) {
             if (random.nextBoolean()) {
@@ -0,0 +1,107 @@
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+
+import java.util.Comparator;
+
+/**
+ * Generates red-black trees that are valid by construction.  Each subtree
+ * is built for a given black height, and its keys come from an interval
+ * that is always wide enough to hold it, so every input satisfies the
+ * invariants and none is thrown away by an assumption.
+ *
+ * <p>The left and right halves of each tree get their own chance of red
+ * nodes.  That reaches shapes that add and remove sequences rarely
+ * build: perfectly balanced all-black trees, trees packed with red
+ * nodes, and trees whose one side is twice as tall as the other.</p>
+ */
+public class RedBlackGeneratorStructural extends Generator<RedBlackTree> {
+    public RedBlackGeneratorStructural() { super(RedBlackTree.class); }
+
+    public final int K = 100;
+    public final int MAX_BLACK_HEIGHT = 5;
+
+    @Override
+    public RedBlackTree generate(SourceOfRandomness random, GenerationStatus __ignore__) {
+        return generate(random, random.nextInt(0, MAX_BLACK_HEIGHT), -K, K);
+    }
+
+    /**
+     * Generates a tree of the given black height with keys from min
+     * (inclusive) to max (exclusive).
+     *
+     * @exception IllegalArgumentException if the interval has fewer than
+     * the 2^blackHeight - 1 keys the smallest such tree needs.
+     */
+    public RedBlackTree generate(SourceOfRandomness random, int blackHeight, int min, int max) {
+        if (max - min < minimumSize(blackHeight)) {
+            throw new IllegalArgumentException("Interval too small for black height " + blackHeight);
+        }
+        RedBlackTree tree = new RedBlackTree(Comparator.naturalOrder());
+        if (blackHeight == 0) {
+            return tree;
+        }
+        // Chances of a red node, in thirds, for each side of the root.
+        int leftRedness = random.nextInt(0, 3);
+        int rightRedness = random.nextInt(0, 3);
+        int data = random.nextInt(min + minimumSize(blackHeight - 1),
+                max - 1 - minimumSize(blackHeight - 1));
+        RedBlackTree.Node root = new RedBlackTree.Node(data);
+        link(root, generateAux(random, tree, blackHeight - 1, true, leftRedness, min, data),
+                generateAux(random, tree, blackHeight - 1, true, rightRedness, data + 1, max));
+        tree.setRoot(root);
+        return tree;
+    }
+
+    /**
+     * Generates a subtree of the given black height with keys in
+     * [min, max), which holds at least minimumSize(blackHeight) keys.  The
+     * root may be red if its parent is black and the interval has room for
+     * the extra black level below it.
+     */
+    private RedBlackTree.Node generateAux(SourceOfRandomness random, RedBlackTree tree,
+                                          int blackHeight, boolean mayBeRed, int redness,
+                                          int min, int max) {
+        int childHeight = blackHeight - 1;
+        boolean red = mayBeRed && max - min >= minimumRedSize(blackHeight)
+                && random.nextInt(0, 2) < redness;
+        if (red) {
+            childHeight = blackHeight;
+        } else if (blackHeight == 0) {
+            return null;
+        }
+        int childSize = minimumSize(childHeight);
+        int data = random.nextInt(min + childSize, max - 1 - childSize);
+        RedBlackTree.Node node = new RedBlackTree.Node(data);
+        node.setRed(red);
+        link(node, generateAux(random, tree, childHeight, !red, redness, min, data),
+                generateAux(random, tree, childHeight, !red, redness, data + 1, max));
+        return node;
+    }
+
+    private static void link(RedBlackTree.Node node, RedBlackTree.Node left, RedBlackTree.Node right) {
+        if (left != null) {
+            node.setLeft(left);
+        }
+        if (right != null) {
+            node.setRight(right);
+        }
+    }
+
+    /**
+     * The size of the smallest subtree of the given black height, which is
+     * perfect and all black.
+     */
+    private static int minimumSize(int blackHeight) {
+        return (1 << blackHeight) - 1;
+    }
+
+    /**
+     * The size of the smallest subtree of the given black height with a
+     * red root.
+     */
+    private static int minimumRedSize(int blackHeight) {
+        return 2 * minimumSize(blackHeight) + 1;
+    }
+}
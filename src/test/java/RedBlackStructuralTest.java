@@ -0,0 +1,55 @@
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.generator.Size;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the tree operations on valid-by-construction trees, so there is
+ * no validity assumption to discard inputs.
+ */
+@RunWith(JQF.class)
+public class RedBlackStructuralTest {
+
+    @Fuzz
+    public void testGenerated(@From(RedBlackGeneratorStructural.class) RedBlackTree tree) {
+        assertEquals(null, RedBlackInvariants.check(tree));
+    }
+
+    @Fuzz
+    public void testAdd(@From(RedBlackGeneratorStructural.class) RedBlackTree tree,
+                        @InRange(minInt=-100, maxInt=100) int d) {
+        tree.add(d);
+        assertTrue(tree.contains(d));
+        assertEquals(null, RedBlackInvariants.check(tree));
+    }
+
+    @Fuzz
+    public void testRemove(@From(RedBlackGeneratorStructural.class) RedBlackTree tree,
+                           @InRange(minInt=-100, maxInt=100) int d) {
+        tree.remove(d);
+        assertFalse(tree.contains(d));
+        assertEquals(null, RedBlackInvariants.check(tree));
+    }
+
+    @Fuzz
+    public void testUnion(@Size(max=10) List<@From(RedBlackGeneratorStructural.class) RedBlackTree> trees) {
+        RedBlackTree union = new RedBlackTree();
+        TreeSet<Object> expected = new TreeSet<>();
+        for (RedBlackTree tree : trees) {
+            union.union(tree);
+            expected.addAll(tree);
+        }
+        assertEquals(null, RedBlackInvariants.check(union));
+        assertEquals(new ArrayList<>(expected), new ArrayList<Object>(union));
+    }
+}
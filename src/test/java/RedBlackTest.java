@@ -1,147 +1,492 @@
 import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.InRange;
 import com.pholser.junit.quickcheck.generator.Size;
 import edu.berkeley.cs.jqf.fuzz.Fuzz;
 import edu.berkeley.cs.jqf.fuzz.JQF;
-import javafx.util.Pair;
+import org.junit.AssumptionViolatedException;
 import org.junit.runner.RunWith;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Stack;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
 @RunWith(JQF.class)
 public class RedBlackTest {
-    public boolean valid = true;
-
     public boolean isValidRedBlackTree(RedBlackTree tree) {
-        valid = true;
-        // Check if it is a valid binary search tree.
-        if (!isValidBST(tree)) {
-            return false;
+        return RedBlackInvariants.isValid(tree);
+    }
+
+    @Fuzz
+    public void testAdd(@From(RedBlackGenerator.class) RedBlackTree tree, int d) {
+        checkSavingLogs("testAdd", Arrays.asList(tree), () -> {
+            assumeTrue(isValidRedBlackTree(tree));
+            tree.add(d);
+            assertTrue(tree.contains(d));
+            assertTrue(isValidRedBlackTree(tree));
+        });
+    }
+
+    @Fuzz
+    public void testRemove(@From(RedBlackGenerator.class) RedBlackTree tree, int d) {
+        checkSavingLogs("testRemove", Arrays.asList(tree), () -> {
+            assumeTrue(isValidRedBlackTree(tree));
+            tree.remove(d);
+            assertFalse(tree.contains(d));
+            assertTrue(isValidRedBlackTree(tree));
+        });
+    }
+
+    @Fuzz
+    public void testUnion(@Size(max=10) List<@From(RedBlackGenerator.class) RedBlackTree> trees) {
+        checkSavingLogs("testUnion", trees, () -> {
+            RedBlackTree union = new RedBlackTree(Comparator.naturalOrder());
+            for (RedBlackTree tree: trees) {
+                assumeTrue(isValidRedBlackTree(tree));
+                BinaryTreeNode.Visitor v = new BinaryTreeNode.Visitor() {
+                    @Override
+                    public <E> void visit(BinaryTreeNode<E> node) {
+                        union.add(node.getData());
+                    }
+                };
+                if (tree.root != null) {
+                    tree.root.traversePreorder(v);
+                }
+            }
+
+            assertTrue(isValidRedBlackTree(union));
+            for (RedBlackTree tree: trees) {
+                BinaryTreeNode.Visitor v = new BinaryTreeNode.Visitor() {
+                    @Override
+                    public <E> void visit(BinaryTreeNode<E> node) {
+                        assertTrue(union.contains(node.getData()));
+                    }
+                };
+                if (tree.root != null) {
+                    tree.root.traversePreorder(v);
+                }
+            }
+        });
+    }
+
+    @Fuzz
+    public void testIterate(@From(RedBlackGenerator.class) RedBlackTree tree) {
+        checkSavingLogs("testIterate", Arrays.asList(tree), () -> {
+            assumeTrue(isValidRedBlackTree(tree));
+            List<Object> items = new ArrayList<>();
+            for (Object item : tree) {
+                if (!items.isEmpty()) {
+                    assertTrue(tree.compare(items.get(items.size() - 1), item) < 0);
+                }
+                items.add(item);
+            }
+
+            List<Object> visited = new ArrayList<>();
+            if (tree.root != null) {
+                BinaryTreeNode.Visitor v = new BinaryTreeNode.Visitor() {
+                    @Override
+                    public <E> void visit(BinaryTreeNode<E> node) {
+                        visited.add(node.getData());
+                    }
+                };
+                tree.root.traverseInorder(v);
+            }
+            assertEquals(visited, items);
+            assertEquals(items, tree.parallelStream().collect(Collectors.toList()));
+        });
+    }
+
+    @Fuzz
+    public void testRankSelect(@From(RedBlackGenerator.class) RedBlackTree tree) {
+        checkSavingLogs("testRankSelect", Arrays.asList(tree), () -> {
+            assumeTrue(isValidRedBlackTree(tree));
+            int index = 0;
+            for (Object item : tree) {
+                assertEquals(index, tree.rank(item));
+                assertEquals(item, tree.select(index));
+                index++;
+            }
+            assertEquals(index, tree.size());
+        });
+    }
+
+    @Fuzz
+    public void testFromSorted(@From(RedBlackGenerator.class) RedBlackTree tree) {
+        checkSavingLogs("testFromSorted", Arrays.asList(tree), () -> {
+            assumeTrue(isValidRedBlackTree(tree));
+            RedBlackTree copy = RedBlackTree.fromSorted(tree.iterator(), tree.size(), Comparator.<Integer>naturalOrder());
+            assertTrue(isValidRedBlackTree(copy));
+            assertEquals(tree.stream().collect(Collectors.toList()), copy.stream().collect(Collectors.toList()));
+        });
+    }
+
+    @Fuzz
+    public void testSetOperations(@From(RedBlackGenerator.class) RedBlackTree a,
+                                  @From(RedBlackGenerator.class) RedBlackTree b) {
+        checkSavingLogs("testSetOperations", Arrays.asList(a, b), () -> {
+            assumeTrue(isValidRedBlackTree(a));
+            assumeTrue(isValidRedBlackTree(b));
+            RedBlackTree union = new RedBlackTree(Comparator.naturalOrder());
+            union.union(a);
+            union.union(b);
+            RedBlackTree intersection = new RedBlackTree(Comparator.naturalOrder());
+            intersection.union(a);
+            intersection.intersection(b);
+            RedBlackTree difference = new RedBlackTree(Comparator.naturalOrder());
+            difference.union(a);
+            difference.difference(b);
+
+            assertTrue(isValidRedBlackTree(union));
+            assertTrue(isValidRedBlackTree(intersection));
+            assertTrue(isValidRedBlackTree(difference));
+            for (RedBlackTree tree : new RedBlackTree[] { a, b }) {
+                for (Object item : tree) {
+                    assertTrue(union.contains(item));
+                    assertEquals(a.contains(item) && b.contains(item), intersection.contains(item));
+                    assertEquals(a.contains(item) && !b.contains(item), difference.contains(item));
+                }
+            }
+            assertEquals(a.size(), intersection.size() + difference.size());
+            assertEquals(union.size(), difference.size() + b.size());
+        });
+    }
+
+    @Fuzz
+    public void testLargeSetOperations(long seed, @InRange(minInt=0, maxInt=2) int operation) {
+        // Trees this large are merged in parallel on the fork/join pool.
+        Random random = new Random(seed);
+        RedBlackTree tree = new RedBlackTree(Comparator.naturalOrder());
+        RedBlackTree other = new RedBlackTree(Comparator.naturalOrder());
+        TreeSet<Integer> expected = new TreeSet<>();
+        TreeSet<Integer> otherExpected = new TreeSet<>();
+        int range = 10000 + random.nextInt(10000);
+        for (int i = 3000 + random.nextInt(3000); i > 0; i--) {
+            int key = random.nextInt(range);
+            tree.add(key);
+            expected.add(key);
+        }
+        for (int i = 3000 + random.nextInt(3000); i > 0; i--) {
+            int key = random.nextInt(range);
+            other.add(key);
+            otherExpected.add(key);
+        }
+        applySetOperation(operation, tree, other);
+        applySetOperation(operation, expected, otherExpected);
+        assertTrue(isValidRedBlackTree(tree));
+        assertTrue(isValidRedBlackTree(other));
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(tree));
+        assertEquals(new ArrayList<>(otherExpected), new ArrayList<>(other));
+    }
+
+    @Fuzz
+    public void testSetOperationFailure(@Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> keys,
+                                        @Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> otherKeys,
+                                        @InRange(minInt=0, maxInt=2) int operation,
+                                        @InRange(minInt=0, maxInt=200) int failAt) {
+        // The comparator throws on the failAt-th comparison of the set
+        // operation, which must then leave both trees as they were.
+        AtomicInteger comparisons = new AtomicInteger(Integer.MIN_VALUE);
+        Comparator<Integer> comparator = (x, y) -> {
+            if (comparisons.getAndIncrement() == failAt) {
+                throw new IllegalStateException("Comparator failed");
+            }
+            return Integer.compare(x, y);
+        };
+        RedBlackTree tree = new RedBlackTree(comparator);
+        RedBlackTree other = new RedBlackTree(comparator);
+        tree.addAll(keys);
+        other.addAll(otherKeys);
+        TreeSet<Integer> expected = new TreeSet<>(keys);
+        TreeSet<Integer> otherExpected = new TreeSet<>(otherKeys);
+        comparisons.set(0);
+        boolean failed = false;
+        try {
+            applySetOperation(operation, tree, other);
+        } catch (IllegalStateException e) {
+            failed = true;
+        }
+        comparisons.set(Integer.MIN_VALUE);
+        if (!failed) {
+            applySetOperation(operation, expected, otherExpected);
         }
+        assertTrue(isValidRedBlackTree(tree));
+        assertTrue(isValidRedBlackTree(other));
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(tree));
+        assertEquals(new ArrayList<>(otherExpected), new ArrayList<>(other));
+    }
 
-        // Check if all paths through the tree have the same number of black nodes.
-        if (!pathLengthVerification(tree)) {
-            return false;
+    private static void applySetOperation(int operation, RedBlackTree tree, RedBlackTree other) {
+        if (operation == 0) {
+            tree.union(other);
+        } else if (operation == 1) {
+            tree.intersection(other);
+        } else {
+            tree.difference(other);
         }
+    }
 
-        // Check if all red nodes have a black parent.
-        if (!redNodeBlackParent(tree)) {
-            return false;
+    private static void applySetOperation(int operation, TreeSet<Integer> set, TreeSet<Integer> other) {
+        if (operation == 0) {
+            set.addAll(other);
+        } else if (operation == 1) {
+            set.retainAll(other);
+        } else {
+            set.removeAll(other);
         }
+    }
 
-        return true;
+    @Fuzz
+    public void testSplitJoin(@From(RedBlackGenerator.class) RedBlackTree tree,
+                              @InRange(minInt=-100, maxInt=100) int key) {
+        checkSavingLogs("testSplitJoin", Arrays.asList(tree), () -> {
+            assumeTrue(isValidRedBlackTree(tree));
+            List<Object> items = new ArrayList<>();
+            tree.forEach(items::add);
+            RedBlackTree upper = tree.split(key);
+            assertTrue(isValidRedBlackTree(tree));
+            assertTrue(isValidRedBlackTree(upper));
+            for (Object item : tree) {
+                assertTrue(tree.compare(item, key) < 0);
+            }
+            for (Object item : upper) {
+                assertTrue(upper.compare(item, key) >= 0);
+            }
+            assertEquals(items.size(), tree.size() + upper.size());
+
+            upper.remove(key);
+            RedBlackTree joined = RedBlackTree.join(tree, key, upper);
+            assertTrue(isValidRedBlackTree(joined));
+            assertTrue(joined.contains(key));
+            for (Object item : items) {
+                assertTrue(joined.contains(item));
+            }
+        });
     }
 
-    public boolean isValidBST(BinarySearchTree tree) {
-        // Check if the BST's nodes are sorted
-        BinaryTreeNode.Visitor v = new BinaryTreeNode.Visitor () {
-            Object last = null;
-            @Override
-            public <E> void visit(BinaryTreeNode<E> node) {
-                if (last == null) {
-                    return;
-                }
-                if (tree.compare(last, node) != 1) {
-                    valid = false;
-                }
+    @Fuzz
+    public void testRemoveRange(@From(RedBlackGenerator.class) RedBlackTree tree,
+                                @InRange(minInt=-100, maxInt=100) int from,
+                                @InRange(minInt=0, maxInt=100) int length) {
+        checkSavingLogs("testRemoveRange", Arrays.asList(tree), () -> {
+            assumeTrue(isValidRedBlackTree(tree));
+            List<Object> items = new ArrayList<>();
+            tree.forEach(items::add);
+            tree.removeRange(from, from + length);
+            assertTrue(isValidRedBlackTree(tree));
+            for (Object item : items) {
+                int key = (Integer) item;
+                assertEquals(key < from || key >= from + length, tree.contains(item));
             }
+        });
+    }
+
+    @Fuzz
+    public void testSplitFailure(@Size(max=100) List<@InRange(minInt=-100, maxInt=100) Integer> keys,
+                                 @InRange(minInt=-100, maxInt=100) int from,
+                                 @InRange(minInt=0, maxInt=100) int length,
+                                 boolean removeRange,
+                                 @InRange(minInt=0, maxInt=20) int failAt) {
+        // The comparator throws on the failAt-th comparison of split or
+        // removeRange, which must then leave the tree as it was.
+        AtomicInteger comparisons = new AtomicInteger(Integer.MIN_VALUE);
+        Comparator<Integer> comparator = (x, y) -> {
+            if (comparisons.getAndIncrement() == failAt) {
+                throw new IllegalStateException("Comparator failed");
+            }
+            return Integer.compare(x, y);
         };
-        tree.root.traverseInorder(v);
-        return valid;
-    }
-
-    public boolean pathLengthVerification(RedBlackTree tree) {
-        // Check that the number of black nodes along the path
-        // from the root to any leaf is the same for all leaves.
-        Stack<Pair<RedBlackTree.Node, Integer>> depths = new Stack<>();
-        depths.push(new Pair<>((RedBlackTree.Node) tree.getRoot(), 0));
-        int max_d = -1;
-        while (depths.size() != 0) {
-            Pair<RedBlackTree.Node, Integer> top = depths.peek();
-            depths.pop();
-            RedBlackTree.Node n = top.getKey();
-            int d = top.getValue();
-            if (n == null) {
-                if (max_d == -1) {
-                    max_d = d;
-                } else {
-                    if (d != max_d) {
-                        return false;
-                    }
-                }
+        RedBlackTree tree = new RedBlackTree(comparator);
+        tree.addAll(keys);
+        TreeSet<Integer> expected = new TreeSet<>(keys);
+        comparisons.set(0);
+        try {
+            if (removeRange) {
+                tree.removeRange(from, from + length);
+                expected.subSet(from, from + length).clear();
             } else {
-                if (!n.isRed) {
-                    d = d + 1;
+                RedBlackTree upper = tree.split(from);
+                assertEquals(new ArrayList<>(expected.tailSet(from)), new ArrayList<>(upper));
+                expected.tailSet(from).clear();
+            }
+        } catch (IllegalStateException e) {
+            // Nothing changed.
+        }
+        comparisons.set(Integer.MIN_VALUE);
+        assertTrue(isValidRedBlackTree(tree));
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(tree));
+    }
+
+    @Fuzz
+    public void testReplay(@From(OperationLogGenerator.class) OperationLog log) {
+        try {
+            RedBlackTree tree = new RedBlackTree(Comparator.naturalOrder());
+            tree.setCheckingInvariants(true);
+            log.replay(tree);
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = 0; i < log.size(); i++) {
+                if (log.opcode(i) == OperationLog.ADD) {
+                    expected.add(log.key(i));
+                } else {
+                    expected.remove(log.key(i));
                 }
-                depths.push(new Pair<>((RedBlackTree.Node) n.left, d));
-                depths.push(new Pair<>((RedBlackTree.Node) n.right, d));
             }
+            assertEquals(new ArrayList<Object>(expected), new ArrayList<Object>(tree));
+        } catch (AssertionError | RuntimeException e) {
+            // Keep the sequence for replaying and shrinking outside JQF.
+            try {
+                log.saveTo(OperationLog.failureDirectory("RedBlackTest", "testReplay"));
+            } catch (IOException io) {
+                e.addSuppressed(io);
+            }
+            throw e;
         }
-        return true;
     }
 
-    public boolean redNodeBlackParent(RedBlackTree tree) {
-        // Check that every red node has a black parent
-        BinaryTreeNode.Visitor v = new BinaryTreeNode.Visitor() {
-            @Override
-            public <E> void visit(BinaryTreeNode<E> node) {
-                if (node.getParent() != null) {
-                    if (((RedBlackTree.Node) node).isRed && ((RedBlackTree.Node) node.getParent()).isRed) {
-                        valid = false;
-                    }
-                } else if (((RedBlackTree.Node) node).isRed) {
-                    valid = false;
+    @Fuzz
+    public void testNodePool(@From(OperationLogGenerator.class) OperationLog log,
+                             @InRange(minInt=0, maxInt=20) int capacity) {
+        List<Object> expected = new ArrayList<Object>(log.replay());
+        NodePool pool = new NodePool(capacity);
+        RedBlackTree tree = new RedBlackTree(Comparator.naturalOrder());
+        tree.setNodePool(pool);
+        tree.setCheckingInvariants(true);
+        NodePool bstPool = new NodePool(capacity);
+        BinarySearchTree<Integer> bst = new BinarySearchTree<>(Comparator.<Integer>naturalOrder());
+        bst.setNodePool(bstPool);
+        // The second round runs on the nodes the first one released.
+        for (int round = 0; round < 2; round++) {
+            log.replay(tree);
+            for (int i = 0; i < log.size(); i++) {
+                if (log.opcode(i) == OperationLog.ADD) {
+                    bst.add(log.key(i));
+                } else {
+                    bst.remove(log.key(i));
                 }
             }
-        };
-        tree.root.traversePreorder(v);
-        return valid;
+            assertEquals(expected, new ArrayList<Object>(tree));
+            assertEquals(expected, new ArrayList<Object>(bst));
+            assertTrue(pool.size() <= capacity);
+
+            int pooled = pool.size();
+            tree.clear();
+            assertTrue(tree.isEmpty());
+            assertEquals(Math.min(capacity, pooled + expected.size()), pool.size());
+            pooled = bstPool.size();
+            bst.clear();
+            assertEquals(Math.min(capacity, pooled + expected.size()), bstPool.size());
+        }
     }
 
     @Fuzz
-    public void testAdd(@From(RedBlackGenerator.class) RedBlackTree tree, int d) {
-        assumeTrue(isValidRedBlackTree(tree));
-        tree.add(d);
-        assertTrue(tree.contains(d));
-        assertTrue(isValidRedBlackTree(tree));
+    public void testCheckPath(@From(RedBlackGenerator.class) RedBlackTree tree, int d) {
+        checkSavingLogs("testCheckPath", Arrays.asList(tree), () -> {
+            // The generator has already checked the path of each of its operations.
+            assumeTrue(!tree.isEmpty());
+            BinaryTreeNode node = tree.nodeContaining(tree.select(Math.floorMod(d, tree.size())));
+            assertEquals(null, RedBlackInvariants.checkPath(tree, node));
+            LinkedBinaryTreeNode.addToSizes((LinkedBinaryTreeNode) tree.root, 1);
+            RedBlackInvariants.Violation violation = RedBlackInvariants.checkPath(tree, node);
+            assertEquals(RedBlackInvariants.Invariant.SIZE, violation.getInvariant());
+            assertEquals(tree.root, violation.getNode());
+        });
     }
 
     @Fuzz
-    public void testRemove(@From(RedBlackGenerator.class) RedBlackTree tree, int d) {
-        assumeTrue(isValidRedBlackTree(tree));
-        tree.remove(d);
-        assertFalse(tree.contains(d));
-        assertTrue(isValidRedBlackTree(tree));
+    public void testNavigation(@From(RedBlackGenerator.class) RedBlackTree tree,
+                               @InRange(minInt=-100, maxInt=100) int key,
+                               @InRange(minInt=-100, maxInt=100) int from,
+                               @InRange(minInt=0, maxInt=100) int length,
+                               boolean fromInclusive, boolean toInclusive) {
+        checkSavingLogs("testNavigation", Arrays.asList(tree), () -> {
+            assumeTrue(isValidRedBlackTree(tree));
+            TreeSet<Object> expected = new TreeSet<>();
+            tree.forEach(expected::add);
+            assertEquals(expected.floor(key), tree.floor(key));
+            assertEquals(expected.ceiling(key), tree.ceiling(key));
+            assertEquals(expected.lower(key), tree.lower(key));
+            assertEquals(expected.higher(key), tree.higher(key));
+
+            NavigableSet view = tree.subSet(from, fromInclusive, from + length, toInclusive);
+            NavigableSet<Object> expectedView = expected.subSet(from, fromInclusive, from + length, toInclusive);
+            assertEquals(expectedView.size(), view.size());
+            assertEquals(new ArrayList<>(expectedView), new ArrayList<Object>(view));
+            assertEquals(new ArrayList<>(expectedView.descendingSet()), new ArrayList<Object>(view.descendingSet()));
+            assertEquals(expectedView.ceiling(key), view.ceiling(key));
+            assertEquals(expectedView.floor(key), view.floor(key));
+
+            view.clear();
+            assertTrue(isValidRedBlackTree(tree));
+            expectedView.clear();
+            assertEquals(new ArrayList<>(expected), new ArrayList<Object>(tree));
+        });
     }
 
     @Fuzz
-    public void testUnion(@Size(max=10) List<@From(RedBlackGenerator.class) RedBlackTree> trees) {
-        RedBlackTree union = new RedBlackTree(Comparator.naturalOrder());
-        for (RedBlackTree tree: trees) {
+    public void testMetrics(@From(RedBlackGenerator.class) RedBlackTree tree, int d) {
+        checkSavingLogs("testMetrics", Arrays.asList(tree), () -> {
             assumeTrue(isValidRedBlackTree(tree));
-            BinaryTreeNode.Visitor v = new BinaryTreeNode.Visitor() {
-                @Override
-                public <E> void visit(BinaryTreeNode<E> node) {
-                    union.add(node.getData());
+            TreeMetrics metrics = new TreeMetrics();
+            tree.setMetricsListener(metrics);
+            boolean added = tree.add(d);
+            assertTrue(tree.contains(d));
+            assertEquals(2, metrics.getDescents());
+            assertEquals(metrics.getComparisons(), weightedSum(metrics.getDescentDepthHistogram()));
+            // The first item of a tree becomes its root with a fixup of no
+            // iterations, as in BalancedSearchTree.
+            assertEquals(added ? 1 : 0, metrics.getInsertionFixups());
+            assertEquals(metrics.getFixupIterations(), weightedSum(metrics.getFixupIterationHistogram()));
+            assertTrue(metrics.getRotations() <= 2);
+
+            metrics.reset();
+            tree.remove(d);
+            assertEquals(1, metrics.getDescents());
+            assertTrue(metrics.getRemovalFixups() <= 1);
+            assertTrue(metrics.getRotations() <= 3 * metrics.getFixupIterations());
+        });
+    }
+
+    /**
+     * Checks a property of trees from RedBlackGenerator.  If it fails, the
+     * logs the trees were built from are saved with those of testReplay,
+     * so that the failure can be replayed and shrunk without JQF.
+     */
+    private static void checkSavingLogs(String testMethod, List<? extends RedBlackTree> trees,
+                                        Runnable property) {
+        try {
+            property.run();
+        } catch (AssumptionViolatedException e) {
+            throw e;
+        } catch (AssertionError | RuntimeException e) {
+            for (RedBlackTree tree : trees) {
+                if (tree instanceof RedBlackGenerator.LoggedTree) {
+                    try {
+                        ((RedBlackGenerator.LoggedTree) tree).log.saveTo(
+                                OperationLog.failureDirectory("RedBlackTest", testMethod));
+                    } catch (IOException io) {
+                        e.addSuppressed(io);
+                    }
                 }
-            };
-            tree.root.traversePreorder(v);
+            }
+            throw e;
         }
+    }
 
-        assertTrue(isValidRedBlackTree(union));
-        for (RedBlackTree tree: trees) {
-            BinaryTreeNode.Visitor v = new BinaryTreeNode.Visitor() {
-                @Override
-                public <E> void visit(BinaryTreeNode<E> node) {
-                    assertTrue(union.contains(node.getData()));
-                }
-            };
-            tree.root.traversePreorder(v);
+    private static long weightedSum(long[] histogram) {
+        long sum = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            sum += i * histogram[i];
         }
+        return sum;
     }
 }
@@ -0,0 +1,43 @@
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.generator.Size;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JQF.class)
+public class RedBlackTreeMapTest {
+
+    @Fuzz
+    public void testAgainstTreeMap(@Size(max=200) List<@InRange(minInt=0, maxInt=399) Integer> operations) {
+        // Each operation packs a key (0-99) and one of four map methods.
+        RedBlackTreeMap<Integer, Integer> map = new RedBlackTreeMap<>();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        for (int operation : operations) {
+            int key = operation % 100;
+            switch (operation / 100) {
+            case 0:
+                assertEquals(expected.put(key, operation), map.put(key, operation));
+                break;
+            case 1:
+                assertEquals(expected.remove(key), map.remove(key));
+                break;
+            case 2:
+                assertEquals(expected.computeIfAbsent(key, k -> k * 2), map.computeIfAbsent(key, k -> k * 2));
+                break;
+            default:
+                // Sums past 150 remove the entry.
+                assertEquals(expected.merge(key, key, (a, b) -> a + b > 150 ? null : a + b),
+                        map.merge(key, key, (a, b) -> a + b > 150 ? null : a + b));
+            }
+            assertEquals(expected.get(key), map.get(key));
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(map.entrySet()));
+    }
+}
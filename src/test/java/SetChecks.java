@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks shared by the tests of the sorted set implementations, each run
+ * against a TreeSet holding the same items.  The set under test must
+ * iterate in ascending order, and isValid checks its own invariants.
+ */
+public final class SetChecks {
+
+    private SetChecks() {
+    }
+
+    /**
+     * Replays the log on the set, checking after every operation the
+     * result, the invariants, membership of the key and the size, and at
+     * the end the items in order.  Returns the TreeSet it was compared
+     * with, for further checks.
+     */
+    public static <S extends Set<Integer>> TreeSet<Integer> checkReplay(OperationLog log, S set,
+                                                                        Predicate<? super S> isValid) {
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < log.size(); i++) {
+            int key = log.key(i);
+            if (log.opcode(i) == OperationLog.ADD) {
+                assertEquals(expected.add(key), set.add(key));
+            } else {
+                assertEquals(expected.remove(key), set.remove(key));
+            }
+            assertTrue(isValid.test(set));
+            assertEquals(expected.contains(key), set.contains(key));
+            assertEquals(expected.size(), set.size());
+        }
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(set));
+        return expected;
+    }
+
+    /**
+     * Adds the keys to the set, then iterates over it removing the items
+     * the predicate selects through the iterator.  Checks that the
+     * iteration visits every item once, in order, that the invariants
+     * hold after each removal, and that just the selected items are gone.
+     */
+    public static <S extends Set<Integer>> void checkIteratorRemove(List<Integer> keys, S set,
+                                                                    Predicate<Integer> removed,
+                                                                    Predicate<? super S> isValid) {
+        TreeSet<Integer> expected = new TreeSet<>();
+        set.addAll(keys);
+        expected.addAll(keys);
+        List<Integer> visited = new ArrayList<>();
+        for (Iterator<Integer> i = set.iterator(); i.hasNext();) {
+            Integer key = i.next();
+            visited.add(key);
+            if (removed.test(key)) {
+                i.remove();
+                assertTrue(isValid.test(set));
+            }
+        }
+        assertEquals(new ArrayList<>(expected), visited);
+        expected.removeIf(removed);
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(set));
+    }
+}
@@ -0,0 +1,121 @@
+import com.pholser.junit.quickcheck.generator.InRange;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JQF.class)
+public class SnapshotRedBlackTest {
+
+    /**
+     * Keys below zero are added before the threads start and never
+     * removed.
+     */
+    private static final int STABLE = 100;
+    private static final int WRITER_RANGE = 300;
+
+    @Fuzz
+    public void testConcurrentUpdates(@InRange(minInt=1, maxInt=4) int writers,
+                                      @InRange(minInt=1, maxInt=4) int readers,
+                                      long seed) throws InterruptedException {
+        // Writers race on the compare-and-set, each in its own range of
+        // keys, so a lost update shows up in the final contents.  Readers
+        // check that every snapshot is a valid tree holding the stable
+        // keys, and that it does not change afterwards.
+        SnapshotRedBlackTree<Integer> tree = new SnapshotRedBlackTree<>();
+        for (int key = -STABLE; key < 0; key++) {
+            tree.add(key);
+        }
+        List<TreeSet<Integer>> written = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch writing = new CountDownLatch(writers);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            TreeSet<Integer> expected = new TreeSet<>();
+            written.add(expected);
+            Random random = new Random(seed + w);
+            int base = w * WRITER_RANGE;
+            threads.add(thread(failure, start, () -> {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        int key = base + random.nextInt(WRITER_RANGE);
+                        if (random.nextBoolean()) {
+                            tree.add(key);
+                            expected.add(key);
+                        } else {
+                            tree.remove(key);
+                            expected.remove(key);
+                        }
+                        assertEquals(expected.contains(key), tree.contains(key));
+                    }
+                } finally {
+                    writing.countDown();
+                }
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            Random random = new Random(~seed - r);
+            threads.add(thread(failure, start, () -> {
+                for (int i = 0; writing.getCount() > 0 || i < 20; i++) {
+                    PersistentRedBlackTree<Integer> snapshot = tree.snapshot();
+                    List<Integer> items = new ArrayList<>();
+                    snapshot.forEach(items::add);
+                    assertTrue(snapshot.isValidRedBlackTree());
+                    assertEquals(items.size(), snapshot.size());
+                    assertTrue(snapshot.contains(-1 - random.nextInt(STABLE)));
+                    assertFalse(snapshot.contains(writers * WRITER_RANGE + random.nextInt(STABLE)));
+                    List<Integer> again = new ArrayList<>();
+                    snapshot.forEach(again::add);
+                    assertEquals(items, again);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Worker thread failed", failure.get());
+        }
+
+        PersistentRedBlackTree<Integer> result = tree.snapshot();
+        assertTrue(result.isValidRedBlackTree());
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int key = -STABLE; key < 0; key++) {
+            expected.add(key);
+        }
+        for (TreeSet<Integer> keys : written) {
+            expected.addAll(keys);
+        }
+        List<Integer> items = new ArrayList<>();
+        result.forEach(items::add);
+        assertEquals(new ArrayList<>(expected), items);
+        assertEquals(expected.size(), tree.size());
+    }
+
+    private static Thread thread(AtomicReference<Throwable> failure, CountDownLatch start,
+                                 Runnable body) {
+        return new Thread(() -> {
+            try {
+                start.await();
+                body.run();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        });
+    }
+}
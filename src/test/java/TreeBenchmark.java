@@ -0,0 +1,454 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Benchmarks the basic operations of BinarySearchTree, RedBlackTree,
+ * CompactRedBlackTree, BPlusTree and BalancedSearchTree with each of its
+ * balancing policies (labelled RedBlackPolicy, AvlPolicy and
+ * WavlPolicy), with java.util.TreeMap as a baseline.
+ *
+ * <p>Every operation is measured for each tree size, key distribution
+ * and ordering (natural ordering, or an explicit comparator, which
+ * TreeMap and the trees both treat as a separate code path).  Scores are
+ * nanoseconds per operation, where one pass over the n keys is n
+ * operations:</p>
+ *
+ * <ul>
+ *   <li>add: inserts the keys into an empty tree;</li>
+ *   <li>remove: removes the keys from a full tree;</li>
+ *   <li>contains: looks up the keys in a full tree;</li>
+ *   <li>iterate: walks the full tree in order;</li>
+ *   <li>bulkLoad: builds a tree from the distinct keys in sorted order,
+ *       using fromSorted or TreeMap's copy constructor (not for
+ *       CompactRedBlackTree, BPlusTree and BalancedSearchTree, which
+ *       have no bulk loader).</li>
+ * </ul>
+ *
+ * <p>Zipfian keys repeat, so adds after the first of a key overwrite and
+ * removes after the first miss, as they would in a real skewed workload.
+ * The unbalanced BinarySearchTree degenerates into a list on sorted and
+ * reversed keys, so it is only run on those up to UNBALANCED_LIMIT keys.</p>
+ *
+ * <p>The sizes default to 1K to 1M; pass -Dbench.sizes=1000,...,10000000
+ * for the 10M runs, with a heap of several gigabytes; adding
+ * -Dbench.filter=contains limits a run to the lookups that BPlusTree is
+ * meant to speed up on such trees.  See Microbenchmark
+ * for the remaining properties, and the benchmark profile in pom.xml for
+ * running from Maven.</p>
+ */
+public class TreeBenchmark {
+
+    private static final int UNBALANCED_LIMIT = 10000;
+
+    private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+        public int compare(Integer x, Integer y) {
+            return Integer.compare(x, y);
+        }
+    };
+
+    enum Distribution {
+        RANDOM, SORTED, REVERSED, ZIPFIAN;
+
+        /**
+         * Returns n keys drawn from this distribution, boxed in advance
+         * so that boxing is not part of what is measured.
+         */
+        Integer[] keys(int n, Random random) {
+            Integer[] keys = new Integer[n];
+            switch (this) {
+            case RANDOM:
+                for (int i = 0; i < n; i++) {
+                    keys[i] = random.nextInt();
+                }
+                break;
+            case SORTED:
+                for (int i = 0; i < n; i++) {
+                    keys[i] = i;
+                }
+                break;
+            case REVERSED:
+                for (int i = 0; i < n; i++) {
+                    keys[i] = n - 1 - i;
+                }
+                break;
+            case ZIPFIAN:
+                Zipf zipf = new Zipf(n, random);
+                for (int i = 0; i < n; i++) {
+                    // Scatter the popular ranks over the key space.
+                    keys[i] = (int) (zipf.next() * 0x9E3779B1L);
+                }
+                break;
+            }
+            return keys;
+        }
+    }
+
+    enum Ordering {
+        NATURAL, COMPARATOR;
+
+        Comparator<Integer> comparator() {
+            return this == NATURAL ? null : TreeBenchmark.COMPARATOR;
+        }
+    }
+
+    enum Implementation {
+        BINARY_SEARCH_TREE("BinarySearchTree"),
+        RED_BLACK_TREE("RedBlackTree"),
+        COMPACT_RED_BLACK_TREE("CompactRedBlackTree"),
+        B_PLUS_TREE("BPlusTree"),
+        RED_BLACK_POLICY("RedBlackPolicy"),
+        AVL_POLICY("AvlPolicy"),
+        WAVL_POLICY("WavlPolicy"),
+        TREE_MAP("TreeMap");
+
+        final String label;
+
+        Implementation(String label) {
+            this.label = label;
+        }
+
+        Target create(Comparator<Integer> c) {
+            switch (this) {
+            case BINARY_SEARCH_TREE:
+                return new BinarySearchTreeTarget(new BinarySearchTree<Integer>(c));
+            case RED_BLACK_TREE:
+                return new RedBlackTreeTarget(new RedBlackTree(c));
+            case COMPACT_RED_BLACK_TREE:
+                return new CompactRedBlackTreeTarget(new CompactRedBlackTree<Integer>(c));
+            case B_PLUS_TREE:
+                return new BPlusTreeTarget(new BPlusTree<Integer>(c));
+            case RED_BLACK_POLICY:
+                return new BinarySearchTreeTarget(
+                        new BalancedSearchTree<Integer>(BalancingPolicy.RED_BLACK, c));
+            case AVL_POLICY:
+                return new BinarySearchTreeTarget(
+                        new BalancedSearchTree<Integer>(BalancingPolicy.AVL, c));
+            case WAVL_POLICY:
+                return new BinarySearchTreeTarget(
+                        new BalancedSearchTree<Integer>(BalancingPolicy.WAVL, c));
+            default:
+                return new TreeMapTarget(new TreeMap<Integer, Boolean>(c));
+            }
+        }
+
+        Target fromSorted(Integer[] sorted, Comparator<Integer> c, TreeMap<Integer, Boolean> map) {
+            switch (this) {
+            case BINARY_SEARCH_TREE:
+                return new BinarySearchTreeTarget(BinarySearchTree.fromSorted(sorted, c));
+            case RED_BLACK_TREE:
+                return new RedBlackTreeTarget(RedBlackTree.fromSorted(sorted, c));
+            default:
+                return new TreeMapTarget(new TreeMap<Integer, Boolean>(map));
+            }
+        }
+    }
+
+    /**
+     * The operations under test, over whichever set implementation.  The
+     * one interface call per operation is the same for all of them.
+     */
+    interface Target {
+        void add(Integer key);
+
+        void remove(Integer key);
+
+        boolean contains(Integer key);
+
+        Iterator<?> iterator();
+    }
+
+    static class BinarySearchTreeTarget implements Target {
+        final BinarySearchTree<Integer> tree;
+
+        BinarySearchTreeTarget(BinarySearchTree<Integer> tree) {
+            this.tree = tree;
+        }
+
+        public void add(Integer key) {
+            tree.add(key);
+        }
+
+        public void remove(Integer key) {
+            tree.remove(key);
+        }
+
+        public boolean contains(Integer key) {
+            return tree.contains(key);
+        }
+
+        public Iterator<?> iterator() {
+            return tree.iterator();
+        }
+    }
+
+    static class RedBlackTreeTarget implements Target {
+        final RedBlackTree tree;
+
+        RedBlackTreeTarget(RedBlackTree tree) {
+            this.tree = tree;
+        }
+
+        public void add(Integer key) {
+            tree.add(key);
+        }
+
+        public void remove(Integer key) {
+            tree.remove(key);
+        }
+
+        public boolean contains(Integer key) {
+            return tree.contains(key);
+        }
+
+        public Iterator<?> iterator() {
+            return tree.iterator();
+        }
+    }
+
+    static class CompactRedBlackTreeTarget implements Target {
+        final CompactRedBlackTree<Integer> tree;
+
+        CompactRedBlackTreeTarget(CompactRedBlackTree<Integer> tree) {
+            this.tree = tree;
+        }
+
+        public void add(Integer key) {
+            tree.add(key);
+        }
+
+        public void remove(Integer key) {
+            tree.remove(key);
+        }
+
+        public boolean contains(Integer key) {
+            return tree.contains(key);
+        }
+
+        public Iterator<?> iterator() {
+            return tree.iterator();
+        }
+    }
+
+    static class BPlusTreeTarget implements Target {
+        final BPlusTree<Integer> tree;
+
+        BPlusTreeTarget(BPlusTree<Integer> tree) {
+            this.tree = tree;
+        }
+
+        public void add(Integer key) {
+            tree.add(key);
+        }
+
+        public void remove(Integer key) {
+            tree.remove(key);
+        }
+
+        public boolean contains(Integer key) {
+            return tree.contains(key);
+        }
+
+        public Iterator<?> iterator() {
+            return tree.iterator();
+        }
+    }
+
+    static class TreeMapTarget implements Target {
+        final TreeMap<Integer, Boolean> map;
+
+        TreeMapTarget(TreeMap<Integer, Boolean> map) {
+            this.map = map;
+        }
+
+        public void add(Integer key) {
+            map.put(key, Boolean.TRUE);
+        }
+
+        public void remove(Integer key) {
+            map.remove(key);
+        }
+
+        public boolean contains(Integer key) {
+            return map.containsKey(key);
+        }
+
+        public Iterator<?> iterator() {
+            return map.keySet().iterator();
+        }
+    }
+
+    /**
+     * Zipfian ranks in [0, n) with exponent 0.99, by the method of Gray
+     * et al., "Quickly Generating Billion-Record Synthetic Databases"
+     * (the generator YCSB uses).  Setup is linear in n; each draw is
+     * constant time.
+     */
+    static class Zipf {
+        private static final double THETA = 0.99;
+
+        private final int n;
+        private final Random random;
+        private final double zetan;
+        private final double alpha;
+        private final double eta;
+
+        Zipf(int n, Random random) {
+            this.n = n;
+            this.random = random;
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, THETA);
+            }
+            zetan = sum;
+            double zeta2 = 1 + 1 / Math.pow(2, THETA);
+            alpha = 1 / (1 - THETA);
+            eta = (1 - Math.pow(2.0 / n, 1 - THETA)) / (1 - zeta2 / zetan);
+        }
+
+        int next() {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, THETA)) {
+                return 1;
+            }
+            return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+        }
+    }
+
+    public static void main(String[] args) {
+        Microbenchmark bench = new Microbenchmark();
+        for (int n : sizes()) {
+            for (Distribution distribution : Distribution.values()) {
+                Integer[] keys = distribution.keys(n, new Random(n));
+                for (Ordering ordering : Ordering.values()) {
+                    for (Implementation implementation : Implementation.values()) {
+                        if (implementation == Implementation.BINARY_SEARCH_TREE
+                                && (distribution == Distribution.SORTED
+                                    || distribution == Distribution.REVERSED)
+                                && n > UNBALANCED_LIMIT) {
+                            continue;
+                        }
+                        String suffix = " n=" + n + " " + distribution + " " + ordering;
+                        run(bench, implementation, ordering.comparator(), keys, suffix);
+                    }
+                }
+            }
+            for (Ordering ordering : Ordering.values()) {
+                for (Implementation implementation : Implementation.values()) {
+                    if (implementation != Implementation.BINARY_SEARCH_TREE
+                            && implementation != Implementation.RED_BLACK_TREE
+                            && implementation != Implementation.TREE_MAP) {
+                        // They have no bulk loader.
+                        continue;
+                    }
+                    bulkLoad(bench, implementation, ordering.comparator(), n,
+                            " n=" + n + " " + ordering);
+                }
+            }
+        }
+        bench.summarize();
+    }
+
+    private static void run(Microbenchmark bench, final Implementation implementation,
+                            final Comparator<Integer> c, final Integer[] keys, String suffix) {
+        final Target[] target = new Target[1];
+        Microbenchmark.Setup empty = new Microbenchmark.Setup() {
+            public void run() {
+                target[0] = implementation.create(c);
+            }
+        };
+        Microbenchmark.Setup full = new Microbenchmark.Setup() {
+            public void run() {
+                target[0] = implementation.create(c);
+                for (Integer key : keys) {
+                    target[0].add(key);
+                }
+            }
+        };
+
+        bench.runFresh(implementation.label + ".add" + suffix, keys.length, empty,
+                new Microbenchmark.Body() {
+                    public long run() {
+                        Target t = target[0];
+                        for (Integer key : keys) {
+                            t.add(key);
+                        }
+                        return t.hashCode();
+                    }
+                });
+        bench.runFresh(implementation.label + ".remove" + suffix, keys.length, full,
+                new Microbenchmark.Body() {
+                    public long run() {
+                        Target t = target[0];
+                        for (Integer key : keys) {
+                            t.remove(key);
+                        }
+                        return t.hashCode();
+                    }
+                });
+        bench.run(implementation.label + ".contains" + suffix, keys.length, full,
+                new Microbenchmark.Body() {
+                    public long run() {
+                        Target t = target[0];
+                        long found = 0;
+                        for (Integer key : keys) {
+                            if (t.contains(key)) {
+                                found++;
+                            }
+                        }
+                        return found;
+                    }
+                });
+        bench.run(implementation.label + ".iterate" + suffix, keys.length, full,
+                new Microbenchmark.Body() {
+                    public long run() {
+                        long sum = 0;
+                        for (Iterator<?> i = target[0].iterator(); i.hasNext();) {
+                            sum += i.next().hashCode();
+                        }
+                        return sum;
+                    }
+                });
+        target[0] = null;
+    }
+
+    private static void bulkLoad(Microbenchmark bench, final Implementation implementation,
+                                 final Comparator<Integer> c, int n, String suffix) {
+        String name = implementation.label + ".bulkLoad" + suffix;
+        if (!bench.selected(name)) {
+            return;
+        }
+        final Integer[] sorted = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = i;
+        }
+        final TreeMap<Integer, Boolean> map = new TreeMap<Integer, Boolean>(c);
+        if (implementation == Implementation.TREE_MAP) {
+            for (Integer key : sorted) {
+                map.put(key, Boolean.TRUE);
+            }
+        }
+        bench.run(name, n, new Microbenchmark.Body() {
+            public long run() {
+                return implementation.fromSorted(sorted, c, map).hashCode();
+            }
+        });
+    }
+
+    private static int[] sizes() {
+        String property = System.getProperty("bench.sizes", "1000,10000,100000,1000000");
+        String[] parts = property.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        Arrays.sort(sizes);
+        return sizes;
+    }
+}